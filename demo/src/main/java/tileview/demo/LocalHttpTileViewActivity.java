@@ -0,0 +1,114 @@
+package tileview.demo;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+
+import com.qozix.tileview.TileView;
+import com.qozix.tileview.graphics.BitmapProviderHttp;
+import com.qozix.tileview.graphics.TileDiskCache;
+
+import java.io.File;
+import java.io.IOException;
+
+import tileview.demo.provider.LocalTileServer;
+
+/**
+ * Loads the map tiles over HTTP from a LocalTileServer on the device, with simulated network
+ * latency, using the built-in BitmapProviderHttp.  Pan quickly to see requests for tiles that left
+ * the viewport dropped or aborted; the counts are logged when the activity pauses.
+ *
+ * Tiles are kept in a disk cache and revalidated each time they're loaded from it.  A while after
+ * the activity starts, the server publishes a new revision of every tile; revalidations before it
+ * get a 304, and those after it swap the tile.
+ */
+public class LocalHttpTileViewActivity extends TileViewActivity {
+
+	private static final String TAG = "LocalHttpTileView";
+
+	private static final long LATENCY = 150;
+	private static final int MAXIMUM_REQUESTS_PER_HOST = 4;
+	private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+	private static final long REVISION_DELAY = 15000;
+
+	private LocalTileServer localTileServer;
+	private BitmapProviderHttp bitmapProviderHttp;
+	private Handler handler = new Handler();
+
+	private Runnable publishRevisionRunnable = new Runnable() {
+		@Override
+		public void run() {
+			localTileServer.setRevision( localTileServer.getRevision() + 1 );
+			Log.d( TAG, "published tile revision " + localTileServer.getRevision() );
+		}
+	};
+
+	@Override
+	public void onCreate( Bundle savedInstanceState ) {
+
+		super.onCreate( savedInstanceState );
+
+		localTileServer = new LocalTileServer( getAssets() );
+		localTileServer.setLatency( LATENCY );
+		localTileServer.setMaxAge( 0 );
+		try {
+			localTileServer.start();
+		} catch( IOException e ) {
+			Log.e( TAG, "Couldn't start the local tile server", e );
+			finish();
+			return;
+		}
+
+		TileView tileView = getTileView();
+
+		tileView.setSize( 8967, 6726 );
+		tileView.setBackgroundColor( 0xFFe7e7e7 );
+
+		String baseUrl = localTileServer.getBaseUrl();
+		tileView.addDetailLevel( 0.0125f, baseUrl + "tiles/map/phi-62500-%d_%d.jpg" );
+		tileView.addDetailLevel( 0.2500f, baseUrl + "tiles/map/phi-125000-%d_%d.jpg" );
+		tileView.addDetailLevel( 0.5000f, baseUrl + "tiles/map/phi-250000-%d_%d.jpg" );
+		tileView.addDetailLevel( 1.0000f, baseUrl + "tiles/map/phi-500000-%d_%d.jpg" );
+
+		bitmapProviderHttp = new BitmapProviderHttp( MAXIMUM_REQUESTS_PER_HOST );
+		bitmapProviderHttp.setTileDiskCache( new TileDiskCache( new File( getCacheDir(), "local-http-tiles" ), DISK_CACHE_SIZE ) );
+		tileView.setBitmapProvider( bitmapProviderHttp );
+
+		// a stalled response shouldn't hold up the rest of the viewport
+		tileView.setDecodeTimeout( 5000 );
+
+		tileView.setShouldRenderWhilePanning( true );
+		tileView.setScale( 0.5f );
+
+		handler.postDelayed( publishRevisionRunnable, REVISION_DELAY );
+
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		if( localTileServer != null && bitmapProviderHttp != null ) {
+			Log.d( TAG, "connections: " + localTileServer.getConnectionCount()
+				+ ", requests served: " + localTileServer.getRequestCount()
+				+ ", peak concurrent: " + localTileServer.getPeakActiveRequestCount()
+				+ ", requests sent: " + bitmapProviderHttp.getRequestCount()
+				+ ", dropped: " + bitmapProviderHttp.getDroppedCount()
+				+ ", aborted: " + bitmapProviderHttp.getAbortedCount()
+				+ ", from disk: " + bitmapProviderHttp.getDiskCacheHitCount()
+				+ ", not modified: " + bitmapProviderHttp.getNotModifiedCount()
+				+ " (server: " + localTileServer.getNotModifiedCount() + ")"
+				+ ", changed: " + bitmapProviderHttp.getChangedCount()
+				+ ", " + getTileView().getDecodeTimeStatistics() );
+		}
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		handler.removeCallbacks( publishRevisionRunnable );
+		if( localTileServer != null ) {
+			localTileServer.stop();
+		}
+	}
+
+}
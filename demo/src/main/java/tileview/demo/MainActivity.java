@@ -6,6 +6,8 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.TextView;
 
+import tileview.demo.benchmark.ExecutorBenchmarkActivity;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +25,8 @@ public class MainActivity extends Activity {
 		implementations.put( R.id.show_fiction, FictionalMapTileViewActivity.class );
 		implementations.put( R.id.show_map, RealMapTileViewActivity.class );
 		implementations.put( R.id.show_internet, RealMapInternetTileViewActivity.class );
+		implementations.put( R.id.show_local_http, LocalHttpTileViewActivity.class );
+		implementations.put( R.id.show_executor_benchmark, ExecutorBenchmarkActivity.class );
 
 		for (Map.Entry<Integer, Class<?>> entry : implementations.entrySet()) {
 			TextView label = (TextView) findViewById( entry.getKey() );
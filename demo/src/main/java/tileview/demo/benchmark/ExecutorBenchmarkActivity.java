@@ -0,0 +1,157 @@
+package tileview.demo.benchmark;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.qozix.tileview.detail.DetailLevel;
+import com.qozix.tileview.detail.DetailLevelManager;
+import com.qozix.tileview.tiles.Tile;
+import com.qozix.tileview.tiles.TileRenderExecutor;
+import com.qozix.tileview.tiles.TileRenderPoolExecutor;
+import com.qozix.tileview.tiles.WorkStealingTileRenderExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares TileRenderExecutor implementations with a simulated provider that mixes i/o waits
+ * (a sleep, as for a disk or network read) with cpu work (a busy loop, as for a decode).  Each
+ * round submits a burst of tiles, then cancels some and reprioritises others, as a fling would.
+ * Results are shown as text; run on a device, as the numbers only mean something there.
+ */
+public class ExecutorBenchmarkActivity extends Activity {
+
+	private static final int ROUNDS = 5;
+	private static final int TILES_PER_ROUND = 120;
+	private static final int MINIMUM_IO_MILLIS = 5;
+	private static final int MAXIMUM_IO_MILLIS = 40;
+	private static final int CPU_MILLIS = 6;
+	private static final float CANCEL_RATIO = 0.2f;
+	private static final float PRIORITIZE_RATIO = 0.1f;
+
+	private TextView mTextView;
+
+	@Override
+	protected void onCreate( Bundle savedInstanceState ) {
+		super.onCreate( savedInstanceState );
+		mTextView = new TextView( this );
+		mTextView.setPadding( 20, 20, 20, 20 );
+		ScrollView scrollView = new ScrollView( this );
+		scrollView.addView( mTextView );
+		setContentView( scrollView );
+		new Thread( new Runnable() {
+			@Override
+			public void run() {
+				runBenchmarks();
+			}
+		} ).start();
+	}
+
+	private void runBenchmarks() {
+		append( "Simulated provider: " + MINIMUM_IO_MILLIS + "-" + MAXIMUM_IO_MILLIS + "ms i/o, " + CPU_MILLIS + "ms cpu" );
+		int processors = Runtime.getRuntime().availableProcessors();
+		benchmark( "TileRenderPoolExecutor (default)", new TileRenderPoolExecutor() );
+		benchmark( "TileRenderPoolExecutor (1 thread)", new TileRenderPoolExecutor( 1 ) );
+		benchmark( "TileRenderPoolExecutor (" + processors + " threads)", new TileRenderPoolExecutor( processors ) );
+		benchmark( "WorkStealingTileRenderExecutor (default)", new WorkStealingTileRenderExecutor() );
+		benchmark( "WorkStealingTileRenderExecutor (" + processors + " threads)", new WorkStealingTileRenderExecutor( processors ) );
+		append( "Done." );
+	}
+
+	private void benchmark( String name, TileRenderExecutor executor ) {
+		DetailLevel detailLevel = new DetailLevel( new DetailLevelManager(), 1, null, 256, 256 );
+		Random random = new Random( 0 );
+		List<Long> latencies = new ArrayList<>();
+		long elapsed = 0;
+		int completed = 0;
+		int cancelled = 0;
+		for( int round = 0; round < ROUNDS; round++ ) {
+			final CountDownLatch latch = new CountDownLatch( TILES_PER_ROUND );
+			final long[] finishTimes = new long[TILES_PER_ROUND];
+			Tile[] tiles = new Tile[TILES_PER_ROUND];
+			long start = SystemClock.elapsedRealtime();
+			for( int i = 0; i < TILES_PER_ROUND; i++ ) {
+				tiles[i] = new Tile( i % 16, round * 16 + i / 16, 256, 256, null, detailLevel );
+				final int index = i;
+				final int ioMillis = MINIMUM_IO_MILLIS + random.nextInt( MAXIMUM_IO_MILLIS - MINIMUM_IO_MILLIS + 1 );
+				executor.submit( tiles[i], new Runnable() {
+					@Override
+					public void run() {
+						simulateProvider( ioMillis );
+						finishTimes[index] = SystemClock.elapsedRealtime();
+						latch.countDown();
+					}
+				} );
+			}
+			// the viewport moves on: some tiles are no longer needed, others are needed sooner
+			for( int i = 0; i < TILES_PER_ROUND; i++ ) {
+				float roll = random.nextFloat();
+				if( roll < CANCEL_RATIO ) {
+					if( executor.cancel( tiles[i] ) != null ) {
+						cancelled++;
+						latch.countDown();
+					}
+				} else if( roll < CANCEL_RATIO + PRIORITIZE_RATIO ) {
+					executor.prioritize( tiles[i] );
+				}
+			}
+			try {
+				latch.await( 60, TimeUnit.SECONDS );
+			} catch( InterruptedException e ) {
+				break;
+			}
+			elapsed += SystemClock.elapsedRealtime() - start;
+			for( long finishTime : finishTimes ) {
+				if( finishTime != 0 ) {
+					latencies.add( finishTime - start );
+					completed++;
+				}
+			}
+		}
+		executor.shutdownNow();
+		Long[] sorted = latencies.toArray( new Long[latencies.size()] );
+		Arrays.sort( sorted );
+		append( String.format( Locale.US,
+			"%s\n  %d rounds in %dms, %d tiles decoded, %d cancelled\n  latency p50 %dms, p90 %dms, max %dms",
+			name, ROUNDS, elapsed, completed, cancelled,
+			percentile( sorted, 0.5f ), percentile( sorted, 0.9f ), percentile( sorted, 1 ) ) );
+	}
+
+	private static void simulateProvider( int ioMillis ) {
+		SystemClock.sleep( ioMillis );
+		long end = SystemClock.elapsedRealtime() + CPU_MILLIS;
+		double sink = 0;
+		while( SystemClock.elapsedRealtime() < end ) {
+			sink += Math.sqrt( sink + 1 );
+		}
+		if( sink < 0 ) {
+			throw new IllegalStateException();
+		}
+	}
+
+	private static long percentile( Long[] sorted, float percentile ) {
+		if( sorted.length == 0 ) {
+			return 0;
+		}
+		int index = Math.min( sorted.length - 1, (int) (percentile * sorted.length) );
+		return sorted[index];
+	}
+
+	private void append( final String line ) {
+		runOnUiThread( new Runnable() {
+			@Override
+			public void run() {
+				mTextView.append( line + "\n\n" );
+			}
+		} );
+	}
+
+}
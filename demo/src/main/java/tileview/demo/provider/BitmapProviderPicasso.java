@@ -2,27 +2,97 @@ package tileview.demo.provider;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 
-import com.qozix.tileview.graphics.BitmapProvider;
+import com.qozix.tileview.graphics.AsyncBitmapProvider;
 import com.qozix.tileview.tiles.Tile;
 import com.squareup.picasso.MemoryPolicy;
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+import com.squareup.picasso.Target;
 
 /**
  * @author Mike Dunn, 2/19/16.
  */
-public class BitmapProviderPicasso implements BitmapProvider {
+public class BitmapProviderPicasso implements AsyncBitmapProvider {
+
+  // Picasso only starts and cancels requests into Targets from the main thread
+  private static final Handler MAIN_HANDLER = new Handler( Looper.getMainLooper() );
+
   public Bitmap getBitmap( Tile tile, Context context ) {
-    Object data = tile.getData();
-    if( data instanceof String ) {
-      String unformattedFileName = (String) tile.getData();
-      String formattedFileName = String.format( unformattedFileName, tile.getColumn(), tile.getRow() );
+    RequestCreator requestCreator = createRequest( tile, context );
+    if( requestCreator != null ) {
       try {
-        return Picasso.with( context ).load( formattedFileName ).memoryPolicy( MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE ).get();
+        return requestCreator.get();
       } catch( Throwable t ) {
         // probably couldn't find the file, maybe OOME
       }
     }
     return null;
   }
-}
\ No newline at end of file
+
+  @Override
+  public Cancellable requestBitmap( Tile tile, final Context context, int sampleSize, final Callback callback ) {
+    final RequestCreator requestCreator = createRequest( tile, context );
+    if( requestCreator == null ) {
+      callback.onBitmapLoaded( null );
+      return null;
+    }
+    // Picasso only keeps a weak reference to the Target; the TileView keeps this one until the request is done
+    final TileTarget target = new TileTarget( callback );
+    MAIN_HANDLER.post( new Runnable() {
+      @Override
+      public void run() {
+        requestCreator.into( target );
+      }
+    } );
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        MAIN_HANDLER.post( new Runnable() {
+          @Override
+          public void run() {
+            Picasso.with( context ).cancelRequest( target );
+          }
+        } );
+      }
+    };
+  }
+
+  private static RequestCreator createRequest( Tile tile, Context context ) {
+    Object data = tile.getData();
+    if( !(data instanceof String) ) {
+      return null;
+    }
+    String formattedFileName = String.format( (String) data, tile.getColumn(), tile.getRow() );
+    return Picasso.with( context ).load( formattedFileName ).memoryPolicy( MemoryPolicy.NO_CACHE, MemoryPolicy.NO_STORE );
+  }
+
+  private static class TileTarget implements Target {
+
+    private final Callback mCallback;
+
+    public TileTarget( Callback callback ) {
+      mCallback = callback;
+    }
+
+    @Override
+    public void onBitmapLoaded( Bitmap bitmap, Picasso.LoadedFrom from ) {
+      mCallback.onBitmapLoaded( bitmap );
+    }
+
+    @Override
+    public void onBitmapFailed( Drawable errorDrawable ) {
+      // probably couldn't find the file
+      mCallback.onBitmapLoaded( null );
+    }
+
+    @Override
+    public void onPrepareLoad( Drawable placeHolderDrawable ) {
+
+    }
+  }
+
+}
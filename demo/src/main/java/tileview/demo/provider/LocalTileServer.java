@@ -0,0 +1,297 @@
+package tileview.demo.provider;
+
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface that serves files from the app's assets,
+ * standing in for a remote tile server.  Each response is held back by a configurable latency,
+ * and connections are kept alive, so the connection and request counts show whether a provider
+ * reuses its connections.
+ *
+ * Responses carry an ETag and a Last-Modified date, and conditional requests for content that
+ * hasn't changed are answered with a 304 Not Modified.  Setting a new revision stands in for the
+ * tiles being updated on the server: each tile's bytes, and so its ETag, change, while the image
+ * stays the same.
+ */
+public class LocalTileServer {
+
+  private final AssetManager mAssetManager;
+  private final ExecutorService mExecutorService = Executors.newCachedThreadPool();
+
+  private ServerSocket mServerSocket;
+  private volatile long mLatency;
+  private volatile long mMaxAge;
+  private volatile int mRevision;
+  private volatile long mRevisionTime = System.currentTimeMillis() / 1000 * 1000;
+
+  private final AtomicInteger mConnectionCount = new AtomicInteger();
+  private final AtomicInteger mRequestCount = new AtomicInteger();
+  private final AtomicInteger mActiveRequestCount = new AtomicInteger();
+  private final AtomicInteger mPeakActiveRequestCount = new AtomicInteger();
+  private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+  public LocalTileServer( AssetManager assetManager ) {
+    mAssetManager = assetManager;
+  }
+
+  /**
+   * @param latency Milliseconds each response is delayed by.
+   */
+  public void setLatency( long latency ) {
+    mLatency = latency;
+  }
+
+  /**
+   * @param maxAge Seconds a client may use a response before revalidating it; 0 to revalidate every time.
+   */
+  public void setMaxAge( long maxAge ) {
+    mMaxAge = maxAge;
+  }
+
+  /**
+   * Changes the content of every tile, as an update published on the server would.
+   */
+  public void setRevision( int revision ) {
+    mRevisionTime = System.currentTimeMillis() / 1000 * 1000;
+    mRevision = revision;
+  }
+
+  public int getRevision() {
+    return mRevision;
+  }
+
+  public void start() throws IOException {
+    mServerSocket = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+    mExecutorService.execute( new Runnable() {
+      @Override
+      public void run() {
+        while( !mServerSocket.isClosed() ) {
+          try {
+            final Socket socket = mServerSocket.accept();
+            mConnectionCount.incrementAndGet();
+            mExecutorService.execute( new Runnable() {
+              @Override
+              public void run() {
+                serve( socket );
+              }
+            } );
+          } catch( IOException e ) {
+            // closed
+          }
+        }
+      }
+    } );
+  }
+
+  public void stop() {
+    try {
+      mServerSocket.close();
+    } catch( IOException e ) {
+      // nothing to do
+    }
+    mExecutorService.shutdownNow();
+  }
+
+  /**
+   * @return The URL the assets are served from, ending with a slash.
+   */
+  public String getBaseUrl() {
+    return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+  }
+
+  public int getConnectionCount() {
+    return mConnectionCount.get();
+  }
+
+  public int getRequestCount() {
+    return mRequestCount.get();
+  }
+
+  /**
+   * @return The number of requests answered with a 304 Not Modified.
+   */
+  public int getNotModifiedCount() {
+    return mNotModifiedCount.get();
+  }
+
+  /**
+   * @return The most requests the server was handling at once.
+   */
+  public int getPeakActiveRequestCount() {
+    return mPeakActiveRequestCount.get();
+  }
+
+  private void serve( Socket socket ) {
+    try {
+      InputStream inputStream = new BufferedInputStream( socket.getInputStream() );
+      OutputStream outputStream = socket.getOutputStream();
+      String requestLine;
+      // one request after another on the same connection, until the client closes it
+      while( (requestLine = readLine( inputStream )) != null ) {
+        boolean shouldClose = false;
+        String ifNoneMatch = null;
+        String ifModifiedSince = null;
+        String header;
+        while( (header = readLine( inputStream )) != null && header.length() > 0 ) {
+          int separator = header.indexOf( ':' );
+          if( separator < 0 ) {
+            continue;
+          }
+          String name = header.substring( 0, separator ).trim().toLowerCase( Locale.US );
+          String value = header.substring( separator + 1 ).trim();
+          if( name.equals( "connection" ) && value.equalsIgnoreCase( "close" ) ) {
+            shouldClose = true;
+          } else if( name.equals( "if-none-match" ) ) {
+            ifNoneMatch = value;
+          } else if( name.equals( "if-modified-since" ) ) {
+            ifModifiedSince = value;
+          }
+        }
+        mRequestCount.incrementAndGet();
+        int active = mActiveRequestCount.incrementAndGet();
+        int peak;
+        while( active > (peak = mPeakActiveRequestCount.get()) && !mPeakActiveRequestCount.compareAndSet( peak, active ) ) {
+          // retry
+        }
+        try {
+          SystemClock.sleep( mLatency );
+          respond( outputStream, requestLine, ifNoneMatch, ifModifiedSince );
+        } finally {
+          mActiveRequestCount.decrementAndGet();
+        }
+        if( shouldClose ) {
+          break;
+        }
+      }
+    } catch( IOException e ) {
+      // the client went away, e.g., aborted a request
+    } finally {
+      try {
+        socket.close();
+      } catch( IOException e ) {
+        // nothing to do
+      }
+    }
+  }
+
+  private void respond( OutputStream outputStream, String requestLine, String ifNoneMatch, String ifModifiedSince ) throws IOException {
+    // "GET /path HTTP/1.1"
+    String[] parts = requestLine.split( " " );
+    String path = parts.length > 1 ? parts[1].substring( 1 ) : "";
+    byte[] body = readAsset( path );
+    if( body == null ) {
+      write( outputStream, "404 Not Found", "Content-Length: 0\r\n", null );
+      return;
+    }
+    int revision = mRevision;
+    long revisionTime = mRevisionTime;
+    String eTag = "\"" + revision + "-" + Integer.toHexString( path.hashCode() ) + "\"";
+    String lastModified = getDateFormat().format( new Date( revisionTime ) );
+    String cacheHeaders = "ETag: " + eTag + "\r\nLast-Modified: " + lastModified + "\r\nCache-Control: max-age=" + mMaxAge + "\r\n";
+    if( isNotModified( ifNoneMatch, ifModifiedSince, eTag, revisionTime ) ) {
+      mNotModifiedCount.incrementAndGet();
+      write( outputStream, "304 Not Modified", cacheHeaders, null );
+      return;
+    }
+    if( revision > 0 ) {
+      body = revise( body, revision );
+    }
+    write( outputStream, "200 OK", cacheHeaders + "Content-Type: image/jpeg\r\nContent-Length: " + body.length + "\r\n", body );
+  }
+
+  private static boolean isNotModified( String ifNoneMatch, String ifModifiedSince, String eTag, long lastModified ) {
+    if( ifNoneMatch != null ) {
+      return ifNoneMatch.equals( eTag );
+    }
+    if( ifModifiedSince != null ) {
+      try {
+        return getDateFormat().parse( ifModifiedSince ).getTime() >= lastModified;
+      } catch( ParseException e ) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static void write( OutputStream outputStream, String status, String headers, byte[] body ) throws IOException {
+    String head = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: keep-alive\r\n\r\n";
+    outputStream.write( head.getBytes( "US-ASCII" ) );
+    if( body != null ) {
+      outputStream.write( body );
+    }
+    outputStream.flush();
+  }
+
+  // a comment segment after the JPEG's start-of-image marker changes the bytes, but not the image
+  private static byte[] revise( byte[] jpeg, int revision ) throws IOException {
+    byte[] comment = ("revision " + revision).getBytes( "US-ASCII" );
+    int segmentLength = comment.length + 2;
+    byte[] revised = new byte[jpeg.length + segmentLength + 2];
+    revised[0] = jpeg[0];
+    revised[1] = jpeg[1];
+    revised[2] = (byte) 0xFF;
+    revised[3] = (byte) 0xFE;
+    revised[4] = (byte) (segmentLength >> 8);
+    revised[5] = (byte) segmentLength;
+    System.arraycopy( comment, 0, revised, 6, comment.length );
+    System.arraycopy( jpeg, 2, revised, 6 + comment.length, jpeg.length - 2 );
+    return revised;
+  }
+
+  private static SimpleDateFormat getDateFormat() {
+    SimpleDateFormat dateFormat = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US );
+    dateFormat.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+    return dateFormat;
+  }
+
+  private byte[] readAsset( String path ) {
+    try {
+      InputStream inputStream = mAssetManager.open( path );
+      try {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while( (read = inputStream.read( buffer )) != -1 ) {
+          outputStream.write( buffer, 0, read );
+        }
+        return outputStream.toByteArray();
+      } finally {
+        inputStream.close();
+      }
+    } catch( IOException e ) {
+      return null;
+    }
+  }
+
+  private static String readLine( InputStream inputStream ) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while( (c = inputStream.read()) != -1 ) {
+      if( c == '\n' ) {
+        int length = line.length();
+        return length > 0 && line.charAt( length - 1 ) == '\r' ? line.substring( 0, length - 1 ) : line.toString();
+      }
+      line.append( (char) c );
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
+}
@@ -0,0 +1,235 @@
+package com.qozix.tileview;
+
+import android.os.SystemClock;
+
+import com.qozix.tileview.view.FrameTimeMonitor;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Watches frame times while a TileView is moving and steps its quality settings down when too
+ * many frames are janky, and back up when frames have been smooth for a while.  Each level adds
+ * one degradation to those of the levels below it:
+ *
+ * <ol>
+ * <li>{@link #LEVEL_NO_TRANSITIONS}: tile fade transitions are disabled.</li>
+ * <li>{@link #LEVEL_REDUCED_PADDING}: the viewport padding is halved.</li>
+ * <li>{@link #LEVEL_NO_RENDER_WHILE_PANNING}: tiles are no longer rendered while panning.</li>
+ * <li>{@link #LEVEL_NO_OVERLAYS_IN_MOTION}: paths, markers and the scaling layout are hidden while moving.</li>
+ * </ol>
+ *
+ * While enabled, the governor owns these settings; the values in effect when it was enabled are
+ * restored when it's disabled.  Frames are only measured during motion, in windows of a fixed
+ * number of frames, and each change of level is recorded in a decision log.  Frame times come from
+ * the TileView's motion FrameTimeMonitor, so only one Choreographer callback runs per frame.
+ *
+ * Must be used from the UI thread.
+ */
+public class QualityGovernor implements FrameTimeMonitor.OnFrameListener {
+
+  public static final int LEVEL_FULL = 0;
+  public static final int LEVEL_NO_TRANSITIONS = 1;
+  public static final int LEVEL_REDUCED_PADDING = 2;
+  public static final int LEVEL_NO_RENDER_WHILE_PANNING = 3;
+  public static final int LEVEL_NO_OVERLAYS_IN_MOTION = 4;
+
+  public static final int DEFAULT_WINDOW_SIZE = 60;
+  public static final float DEFAULT_DEGRADE_JANK_RATIO = 0.2f;
+  public static final float DEFAULT_RESTORE_JANK_RATIO = 0.02f;
+  public static final int DEFAULT_RESTORE_WINDOWS = 3;
+
+  private static final int MAXIMUM_LOG_SIZE = 50;
+
+  private TileView mTileView;
+
+  private boolean mIsEnabled;
+  private boolean mIsMeasuring;
+  private int mLevel = LEVEL_FULL;
+
+  private long mJankThresholdNanos = FrameTimeMonitor.DEFAULT_JANK_THRESHOLD_NANOS;
+  private int mWindowSize = DEFAULT_WINDOW_SIZE;
+  private float mDegradeJankRatio = DEFAULT_DEGRADE_JANK_RATIO;
+  private float mRestoreJankRatio = DEFAULT_RESTORE_JANK_RATIO;
+  private int mRestoreWindows = DEFAULT_RESTORE_WINDOWS;
+
+  private int mWindowFrameCount;
+  private int mWindowJankyFrameCount;
+  private long mWindowFrameTimeNanos;
+  private int mSmoothWindowCount;
+
+  private boolean mOriginalTransitionsEnabled;
+  private int mOriginalViewportPadding;
+  private boolean mOriginalShouldRenderWhilePanning;
+  private boolean mOriginalShouldHideOverlaysInMotion;
+
+  private LinkedList<Decision> mDecisionLog = new LinkedList<>();
+
+  QualityGovernor( TileView tileView, FrameTimeMonitor frameTimeMonitor ) {
+    mTileView = tileView;
+    frameTimeMonitor.setOnFrameListener( this );
+  }
+
+  /**
+   * Enables or disables the governor.  Disabling it restores every setting it may have degraded.
+   *
+   * @param enabled True to adjust quality automatically.
+   */
+  public void setEnabled( boolean enabled ) {
+    if( mIsEnabled == enabled ) {
+      return;
+    }
+    mIsEnabled = enabled;
+    if( enabled ) {
+      mOriginalTransitionsEnabled = mTileView.getTileCanvasViewGroup().getTransitionsEnabled();
+      mOriginalViewportPadding = mTileView.getDetailLevelManager().getViewportPadding();
+      mOriginalShouldRenderWhilePanning = mTileView.getShouldRenderWhilePanning();
+      mOriginalShouldHideOverlaysInMotion = mTileView.getShouldHideOverlaysInMotion();
+    } else {
+      onMotionEnd();
+      // not a decision, so not logged
+      mLevel = LEVEL_FULL;
+      applyLevel();
+      resetWindow();
+      mSmoothWindowCount = 0;
+    }
+  }
+
+  public boolean isEnabled() {
+    return mIsEnabled;
+  }
+
+  /**
+   * @return The current level, from LEVEL_FULL to LEVEL_NO_OVERLAYS_IN_MOTION.
+   */
+  public int getLevel() {
+    return mLevel;
+  }
+
+  /**
+   * @param windowSize Number of frames measured before each decision.
+   */
+  public void setWindowSize( int windowSize ) {
+    mWindowSize = windowSize;
+  }
+
+  /**
+   * @param degradeJankRatio Fraction of janky frames in a window above which quality is lowered a level.
+   * @param restoreJankRatio Fraction of janky frames in a window below which the window counts as smooth.
+   * @param restoreWindows   Number of consecutive smooth windows before quality is raised a level.
+   */
+  public void setThresholds( float degradeJankRatio, float restoreJankRatio, int restoreWindows ) {
+    mDegradeJankRatio = degradeJankRatio;
+    mRestoreJankRatio = restoreJankRatio;
+    mRestoreWindows = restoreWindows;
+  }
+
+  /**
+   * @param jankThresholdNanos Frame time, in nanoseconds, above which a frame is janky.
+   */
+  public void setJankThreshold( long jankThresholdNanos ) {
+    mJankThresholdNanos = jankThresholdNanos;
+  }
+
+  /**
+   * Returns the most recent changes of level, oldest first.
+   *
+   * @return A copy of the decision log.
+   */
+  public List<Decision> getDecisionLog() {
+    return new ArrayList<>( mDecisionLog );
+  }
+
+  void onMotionBegin() {
+    mIsMeasuring = mIsEnabled;
+  }
+
+  void onMotionEnd() {
+    mIsMeasuring = false;
+  }
+
+  @Override
+  public void onFrame( long frameTimeNanos ) {
+    if( !mIsMeasuring ) {
+      return;
+    }
+    mWindowFrameCount++;
+    mWindowFrameTimeNanos += frameTimeNanos;
+    if( frameTimeNanos > mJankThresholdNanos ) {
+      mWindowJankyFrameCount++;
+    }
+    if( mWindowFrameCount < mWindowSize ) {
+      return;
+    }
+    float jankRatio = mWindowJankyFrameCount / (float) mWindowFrameCount;
+    float averageFrameTime = mWindowFrameTimeNanos / (float) mWindowFrameCount / 1000000;
+    resetWindow();
+    if( jankRatio > mDegradeJankRatio ) {
+      mSmoothWindowCount = 0;
+      if( mLevel < LEVEL_NO_OVERLAYS_IN_MOTION ) {
+        setLevel( mLevel + 1, jankRatio, averageFrameTime );
+      }
+    } else if( jankRatio < mRestoreJankRatio ) {
+      mSmoothWindowCount++;
+      if( mSmoothWindowCount >= mRestoreWindows && mLevel > LEVEL_FULL ) {
+        mSmoothWindowCount = 0;
+        setLevel( mLevel - 1, jankRatio, averageFrameTime );
+      }
+    } else {
+      mSmoothWindowCount = 0;
+    }
+  }
+
+  private void setLevel( int level, float jankRatio, float averageFrameTime ) {
+    if( level == mLevel ) {
+      return;
+    }
+    mDecisionLog.add( new Decision( SystemClock.uptimeMillis(), mLevel, level, jankRatio, averageFrameTime ) );
+    if( mDecisionLog.size() > MAXIMUM_LOG_SIZE ) {
+      mDecisionLog.removeFirst();
+    }
+    mLevel = level;
+    applyLevel();
+  }
+
+  // sets each setting to its original value, degraded if the current level calls for it
+  private void applyLevel() {
+    mTileView.setTransitionsEnabled( mOriginalTransitionsEnabled && mLevel < LEVEL_NO_TRANSITIONS );
+    mTileView.setViewportPadding( mLevel < LEVEL_REDUCED_PADDING ? mOriginalViewportPadding : mOriginalViewportPadding / 2 );
+    mTileView.setShouldRenderWhilePanning( mOriginalShouldRenderWhilePanning && mLevel < LEVEL_NO_RENDER_WHILE_PANNING );
+    mTileView.setShouldHideOverlaysInMotion( mOriginalShouldHideOverlaysInMotion || mLevel >= LEVEL_NO_OVERLAYS_IN_MOTION );
+  }
+
+  private void resetWindow() {
+    mWindowFrameCount = 0;
+    mWindowJankyFrameCount = 0;
+    mWindowFrameTimeNanos = 0;
+  }
+
+  /**
+   * A single change of level, and the measurements of the window that caused it.
+   */
+  public static class Decision {
+
+    public final long time;
+    public final int fromLevel;
+    public final int toLevel;
+    public final float jankRatio;
+    public final float averageFrameTime;
+
+    public Decision( long time, int fromLevel, int toLevel, float jankRatio, float averageFrameTime ) {
+      this.time = time;
+      this.fromLevel = fromLevel;
+      this.toLevel = toLevel;
+      this.jankRatio = jankRatio;
+      this.averageFrameTime = averageFrameTime;
+    }
+
+    @Override
+    public String toString() {
+      return "Decision(" + time + ": " + fromLevel + " -> " + toLevel + ", jank=" + jankRatio + ", avg=" + averageFrameTime + "ms)";
+    }
+  }
+
+}
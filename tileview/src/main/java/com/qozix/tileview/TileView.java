@@ -6,8 +6,6 @@ import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.Region;
-import android.os.Handler;
-import android.os.Message;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
@@ -17,6 +15,8 @@ import android.view.ViewGroup;
 
 import com.qozix.tileview.detail.DetailLevel;
 import com.qozix.tileview.detail.DetailLevelManager;
+import com.qozix.tileview.detail.DetailLevelPyramid;
+import com.qozix.tileview.detail.TileManifest;
 import com.qozix.tileview.geom.CoordinateTranslater;
 import com.qozix.tileview.geom.FloatMathHelper;
 import com.qozix.tileview.graphics.BitmapRecycler;
@@ -26,11 +26,15 @@ import com.qozix.tileview.hotspots.HotSpotManager;
 import com.qozix.tileview.markers.CalloutLayout;
 import com.qozix.tileview.markers.MarkerLayout;
 import com.qozix.tileview.paths.CompositePathView;
+import com.qozix.tileview.tiles.DecodeTimeStatistics;
 import com.qozix.tileview.tiles.TileCanvasViewGroup;
+import com.qozix.tileview.tiles.TileFailurePolicy;
+import com.qozix.tileview.tiles.TileRenderExecutor;
+import com.qozix.tileview.view.FrameTimeMonitor;
+import com.qozix.tileview.view.MotionLayerController;
 import com.qozix.tileview.widgets.ScalingLayout;
 import com.qozix.tileview.widgets.ZoomPanLayout;
 
-import java.lang.ref.WeakReference;
 import java.util.List;
 
 /**
@@ -83,9 +87,17 @@ public class TileView extends ZoomPanLayout implements
   private MarkerLayout mMarkerLayout;
   private CalloutLayout mCalloutLayout;
 
-  private RenderThrottleHandler mRenderThrottleHandler;
-
   private boolean mShouldRenderWhilePanning = false;
+  private boolean mIsSuppressedForPinchSnapshot;
+
+  private MotionLayerController mMotionLayerController = new MotionLayerController();
+  private FrameTimeMonitor mFrameTimeMonitor = new FrameTimeMonitor();
+  private boolean mIsPanning;
+  private boolean mIsZooming;
+
+  private QualityGovernor mQualityGovernor = new QualityGovernor( this, mFrameTimeMonitor );
+  private boolean mShouldHideOverlaysInMotion;
+  private boolean mAreOverlaysHidden;
   private boolean mShouldUpdateDetailLevelWhileZooming = false;
 
   /**
@@ -124,8 +136,6 @@ public class TileView extends ZoomPanLayout implements
     mTileCanvasViewGroup.setTileRenderListener( this );
     addZoomPanListener( this );
 
-    mRenderThrottleHandler = new RenderThrottleHandler( this );
-
     requestRender();
 
   }
@@ -230,26 +240,25 @@ public class TileView extends ZoomPanLayout implements
   }
 
   /**
-   * While all render operation requests are queued and batched, this method provides an additional
-   * throttle layer, so that any subsequent invocations cancel and pending invocations.
+   * Render requests are checked once per frame and only start once the viewport has settled
+   * for a few frames, or the render buffer has elapsed outside of a fling, so requests made in a
+   * stream fashion, either in a loop or in response to a progressive action like an animation or
+   * touch move, are already coalesced.
    *
-   * This is useful when requesting in a stream fashion, either in a loop or in response to a
-   * progressive action like an animation or touch move.
+   * Kept as an alias of requestRender.
    */
   public void requestThrottledRender() {
-    mRenderThrottleHandler.submit();
+    requestRender();
   }
 
   /**
-   * If flinging, defer render, otherwise request now.
-   * If a render operation starts at the beginning of a fling, a stutter can occur.
+   * If flinging, defer render until the fling ends, otherwise request now.
+   * If a render operation starts at the beginning of a fling, a stutter can occur.  The deferral
+   * is made by the render scheduler, which doesn't start a render while the TileCanvasViewGroup
+   * reports a fling, so every render request is safe in this sense; kept for subclasses.
    */
   protected void requestSafeRender() {
-    if( isFlinging() ) {
-      requestThrottledRender();
-    } else {
-      requestRender();
-    }
+    requestRender();
   }
 
   /**
@@ -280,7 +289,8 @@ public class TileView extends ZoomPanLayout implements
    * tile images only.
    * By default, a BitmapDecoder implementation is provided that renders bitmaps from the context's
    * Assets, but alternative implementations could be used that fetch images via HTTP, or from the
-   * SD card, or resources, SVG, etc.
+   * SD card, or resources, SVG, etc.  Providers built on an asynchronous library can implement
+   * AsyncBitmapProvider, so tiles waiting on a response don't hold render threads.
    *
    * @param bitmapProvider A class instance that implements BitmapProvider, and must define a getBitmap method, which accepts a String file name and a Context object, and returns a Bitmap
    */
@@ -309,6 +319,82 @@ public class TileView extends ZoomPanLayout implements
     mTileCanvasViewGroup.setTransitionsEnabled( enabled );
   }
 
+  /**
+   * Defines whether tiles should be drawn at reduced quality (no bitmap filtering, fades or
+   * previous detail level) while the TileView is dragged, flung or scaled.
+   *
+   * @param shouldReduceQualityInMotion True to favor smooth frames over quality while moving.
+   */
+  public void setShouldReduceQualityInMotion( boolean shouldReduceQualityInMotion ) {
+    mTileCanvasViewGroup.setShouldReduceQualityInMotion( shouldReduceQualityInMotion );
+  }
+
+  /**
+   * When enabled, tiles with identical encoded bytes share a single decoded Bitmap, which can
+   * save a great deal of memory on tile sets with many repeated tiles (e.g., blank paper or ocean).
+   * Tiles are matched by content hashes from a TileManifest, or by hashing the bytes read by a
+   * BitmapProvider that implements EncodedBitmapProvider (as the default BitmapProviderAssets does).
+   *
+   * The default value is false.
+   *
+   * @param enabled True if identical tiles should share Bitmaps.
+   */
+  public void setTileDeduplicationEnabled( boolean enabled ) {
+    mTileCanvasViewGroup.setTileDeduplicationEnabled( enabled );
+  }
+
+  /**
+   * Sets the executor tiles are decoded on, e.g., a WorkStealingTileRenderExecutor, a
+   * single-threaded TileRenderPoolExecutor for low-memory devices, or an adapter over an
+   * executor shared with the rest of the app.  The previous executor is shut down.
+   *
+   * @param tileRenderExecutor The executor to decode tiles with.
+   */
+  public void setTileRenderExecutor( TileRenderExecutor tileRenderExecutor ) {
+    mTileCanvasViewGroup.setTileRenderExecutor( tileRenderExecutor );
+  }
+
+  /**
+   * When the BitmapProvider is a BatchBitmapProvider, sets how tiles are grouped into calls to it.
+   *
+   * @param maximumSize The most tiles per call; the default is 16.
+   * @param maximumWait Milliseconds a render thread may wait for more tiles to fill a batch; the default is 0.
+   */
+  public void setTileBatchSize( int maximumSize, long maximumWait ) {
+    mTileCanvasViewGroup.setTileBatchSize( maximumSize );
+    mTileCanvasViewGroup.setTileBatchWait( maximumWait );
+  }
+
+  /**
+   * Sets how long a single tile's decode may run before it's abandoned and queued again, so a
+   * BitmapProvider call that hangs doesn't hold a render thread indefinitely.
+   *
+   * The default value is 0, meaning no limit.
+   *
+   * @param timeout The deadline for each tile decode, in milliseconds.
+   */
+  public void setDecodeTimeout( long timeout ) {
+    mTileCanvasViewGroup.setDecodeTimeout( timeout );
+  }
+
+  /**
+   * @return Recent decode times (p50, p99) and the number of timed out decodes, for tuning {@link #setDecodeTimeout}.
+   */
+  public DecodeTimeStatistics getDecodeTimeStatistics() {
+    return mTileCanvasViewGroup.getDecodeTimeStatistics();
+  }
+
+  /**
+   * Returns the policy that decides when tiles that failed to decode are tried again: per-tile
+   * exponential backoff, a short-lived cache of missing tiles, and a circuit breaker that pauses
+   * requests after consecutive failures.  Its counters and TileFailureListener report failures.
+   *
+   * @return The TileFailurePolicy instance.
+   */
+  public TileFailurePolicy getTileFailurePolicy() {
+    return mTileCanvasViewGroup.getTileFailurePolicy();
+  }
+
   /**
    * Instructs Tile instances to recycle (or not).  This can be useful if using a caching system
    * that re-uses bitmaps and expects them to not have been recycled.
@@ -363,6 +449,33 @@ public class TileView extends ZoomPanLayout implements
     mDetailLevelManager.addDetailLevel( detailScale, data, tileWidth, tileHeight );
   }
 
+  /**
+   * Register a tile set to be used for a particular detail level, with a manifest of the tiles
+   * that exist in it.  Tiles missing from the manifest are never requested from the BitmapProvider,
+   * and tiles the manifest marks as blank are filled with a solid color without being decoded.
+   *
+   * @param detailScale  Scale at which the TileView should use the tiles in this set.
+   * @param data         An arbitrary object of any type that is passed to the BitmapProvider for each tile on this level.
+   * @param tileWidth    Size of each tiled column.
+   * @param tileHeight   Size of each tiled row.
+   * @param tileManifest The TileManifest describing the tiles of this set, generally read once with TileManifest.read.
+   */
+  public void addDetailLevel( float detailScale, Object data, int tileWidth, int tileHeight, TileManifest tileManifest ) {
+    mDetailLevelManager.addDetailLevel( detailScale, data, tileWidth, tileHeight, tileManifest );
+  }
+
+  /**
+   * Register a power-of-two tile pyramid in place of individually added detail levels.
+   * The TileView is sized to the pyramid's base dimensions, and each level's DetailLevel is
+   * created the first time the TileView is scaled to use it.
+   *
+   * @param detailLevelPyramid Description of the pyramid's base size, tile size and level count.
+   */
+  public void setDetailLevelPyramid( DetailLevelPyramid detailLevelPyramid ) {
+    setSize( detailLevelPyramid.getBaseWidth(), detailLevelPyramid.getBaseHeight() );
+    mDetailLevelManager.setDetailLevelPyramid( detailLevelPyramid );
+  }
+
   /**
    * Pads the viewport by the number of pixels passed.  e.g., setViewportPadding( 100 ) instructs the
    * TileView to interpret it's actual viewport offset by 100 pixels in each direction (top, left,
@@ -716,11 +829,11 @@ public class TileView extends ZoomPanLayout implements
   }
 
   /**
-   * Recycles bitmap image files, prevents path drawing, and clears pending Handler messages,
+   * Recycles bitmap image files, prevents path drawing, and drops any pending render request,
    * appropriate for Activity.onPause.
    */
   public void pause() {
-    mRenderThrottleHandler.clear();
+    mTileCanvasViewGroup.clearRenderRequest();
     mDetailLevelManager.invalidateAll();
     setWillNotDraw( true );
   }
@@ -760,6 +873,58 @@ public class TileView extends ZoomPanLayout implements
     mTileCanvasViewGroup.setRenderBuffer( buffer );
   }
 
+  public boolean getShouldRenderWhilePanning() {
+    return mShouldRenderWhilePanning;
+  }
+
+  /**
+   * Hides the path, marker and scaling layers while the TileView is panned, flung or zoomed, and
+   * shows them again once it comes to rest.
+   *
+   * @param shouldHide True to hide overlays while moving.
+   */
+  public void setShouldHideOverlaysInMotion( boolean shouldHide ) {
+    mShouldHideOverlaysInMotion = shouldHide;
+    if( !shouldHide ) {
+      showOverlays();
+    }
+  }
+
+  public boolean getShouldHideOverlaysInMotion() {
+    return mShouldHideOverlaysInMotion;
+  }
+
+  /**
+   * Returns the QualityGovernor, which is disabled by default.  Once enabled, it lowers (and later
+   * restores) transitions, viewport padding, rendering while panning and overlays in response
+   * to janky frames during motion.
+   *
+   * @return The QualityGovernor for this TileView.
+   */
+  public QualityGovernor getQualityGovernor() {
+    return mQualityGovernor;
+  }
+
+  private void hideOverlays() {
+    if( mAreOverlaysHidden ) {
+      return;
+    }
+    mAreOverlaysHidden = true;
+    mCompositePathView.setVisibility( INVISIBLE );
+    mScalingLayout.setVisibility( INVISIBLE );
+    mMarkerLayout.setVisibility( INVISIBLE );
+  }
+
+  private void showOverlays() {
+    if( !mAreOverlaysHidden ) {
+      return;
+    }
+    mAreOverlaysHidden = false;
+    mCompositePathView.setVisibility( VISIBLE );
+    mScalingLayout.setVisibility( VISIBLE );
+    mMarkerLayout.setVisibility( VISIBLE );
+  }
+
   /**
    * By default, when a zoom begins, the current {@link DetailLevel} is locked so it is used to
    * provide tiles until the zoom ends. This ensures that the {@link TileView} is updated
@@ -811,6 +976,8 @@ public class TileView extends ZoomPanLayout implements
   @Override
   protected void onLayout( boolean changed, int l, int t, int r, int b ) {
     super.onLayout( changed, l, t, r, b );
+    // a layer no larger than the viewport costs about as much as a frame
+    mMotionLayerController.setMaximumLayerDimension( Math.max( getWidth(), getHeight() ) );
     updateViewport();
     requestRender();
   }
@@ -840,15 +1007,88 @@ public class TileView extends ZoomPanLayout implements
     mDetailLevelManager.setScale( scale );
     mHotSpotManager.setScale( scale );
     mTileCanvasViewGroup.setScale( scale );
-    mScalingLayout.setScale( scale );
-    mCompositePathView.setScale( scale );
+    if( !mMotionLayerController.deferScale( mScalingLayout, scale ) ) {
+      mScalingLayout.setScale( scale );
+    }
+    if( !mMotionLayerController.deferScale( mCompositePathView, scale ) ) {
+      mCompositePathView.setScale( scale );
+    }
     mMarkerLayout.setScale( scale );
     mCalloutLayout.setScale( scale );
   }
 
+  /**
+   * Sets the layer type the path or scaling layer is given while the TileView is being panned,
+   * flung or zoomed, so that frames composite the cached layer instead of redrawing every path.
+   * During a zoom, a cached layer is stretched until the scale has changed by more than the raster
+   * threshold, then redrawn at the new scale.  Layers are released when motion ends.
+   *
+   * These layers are the size of the scaled image, so one is only promoted while that fits within
+   * the viewport, i.e., when zoomed out; otherwise it's drawn as usual.  By default neither layer is
+   * promoted: stretching the path layer stretches its strokes too, by up to the raster threshold,
+   * so apps opt in where that's acceptable.  The marker layer can't be promoted, as stretching it
+   * would stretch the markers.
+   *
+   * @param layer     Either getCompositePathView() or getScalingLayout().
+   * @param layerType View.LAYER_TYPE_HARDWARE, View.LAYER_TYPE_SOFTWARE, or View.LAYER_TYPE_NONE.
+   */
+  public void setLayerTypeDuringMotion( View layer, int layerType ) {
+    if( layer != mCompositePathView && layer != mScalingLayout ) {
+      throw new IllegalArgumentException( "Only the path and scaling layers can be promoted." );
+    }
+    mMotionLayerController.setLayerType( layer, layerType );
+  }
+
+  /**
+   * @param rasterThreshold Fraction of scale change a promoted layer is stretched by before it's redrawn.
+   */
+  public void setLayerRasterThreshold( float rasterThreshold ) {
+    mMotionLayerController.setRasterThreshold( rasterThreshold );
+  }
+
+  /**
+   * Returns the FrameTimeMonitor that records frame times while the TileView is panned, flung or
+   * zoomed, e.g., to compare layer settings for path or marker heavy maps.  Statistics accumulate
+   * across gestures until reset.  Its OnFrameListener is used by the QualityGovernor.
+   *
+   * @return The FrameTimeMonitor used during motion.
+   */
+  public FrameTimeMonitor getMotionFrameTimeMonitor() {
+    return mFrameTimeMonitor;
+  }
+
+  private void onMotionBegin() {
+    mTileCanvasViewGroup.setIsInMotion( isDragging() || isFlinging() || isScaling() );
+    mTileCanvasViewGroup.setIsFlinging( isFlinging() );
+    mMotionLayerController.onMotionBegin( getScale() );
+    mFrameTimeMonitor.start();
+    mQualityGovernor.onMotionBegin();
+    if( mShouldHideOverlaysInMotion ) {
+      hideOverlays();
+    }
+  }
+
+  private void onMotionEnd() {
+    mTileCanvasViewGroup.setIsInMotion( isDragging() || isFlinging() || isScaling() );
+    mTileCanvasViewGroup.setIsFlinging( isFlinging() );
+    if( mIsPanning || mIsZooming ) {
+      return;
+    }
+    mFrameTimeMonitor.stop();
+    mQualityGovernor.onMotionEnd();
+    showOverlays();
+    if( mMotionLayerController.isInMotion() ) {
+      mMotionLayerController.onMotionEnd();
+      float scale = getScale();
+      mScalingLayout.setScale( scale );
+      mCompositePathView.setScale( scale );
+    }
+  }
+
   @Override
   public void onPanBegin( int x, int y, Origination origin ) {
-
+    mIsPanning = true;
+    onMotionBegin();
   }
 
   @Override
@@ -858,15 +1098,21 @@ public class TileView extends ZoomPanLayout implements
 
   @Override
   public void onPanEnd( int x, int y, Origination origin ) {
+    mIsPanning = false;
+    onMotionEnd();
     requestRender();
   }
 
   @Override
   public void onZoomBegin( float scale, Origination origin ) {
-    if ( origin == null ) {
+    // during a fast pinch, the tiles on screen are a snapshot, so there's nothing to render into
+    mIsSuppressedForPinchSnapshot = origin == Origination.PINCH && isPinchSnapshotActive();
+    if ( origin == null || mIsSuppressedForPinchSnapshot ) {
       mTileCanvasViewGroup.suppressRender();
     }
     mDetailLevelManager.setScale( scale );
+    mIsZooming = true;
+    onMotionBegin();
   }
 
   @Override
@@ -876,10 +1122,13 @@ public class TileView extends ZoomPanLayout implements
 
   @Override
   public void onZoomEnd( float scale, Origination origin ) {
-    if ( origin == null ) {
+    if ( origin == null || (origin == Origination.PINCH && mIsSuppressedForPinchSnapshot) ) {
+      mIsSuppressedForPinchSnapshot = false;
       mTileCanvasViewGroup.resumeRender();
     }
     mDetailLevelManager.setScale( scale );
+    mIsZooming = false;
+    onMotionEnd();
     requestRender();
   }
 
@@ -913,38 +1162,6 @@ public class TileView extends ZoomPanLayout implements
 
   }
 
-  private static class RenderThrottleHandler extends Handler {
-
-    private static final int MESSAGE = 0;
-    private static final int RENDER_THROTTLE_TIMEOUT = 100;
-
-    private final WeakReference<TileView> mTileViewWeakReference;
-
-    public RenderThrottleHandler( TileView tileView ) {
-      super();
-      mTileViewWeakReference = new WeakReference<TileView>( tileView );
-    }
-
-    @Override
-    public void handleMessage( Message msg ) {
-      TileView tileView = mTileViewWeakReference.get();
-      if( tileView != null ) {
-        tileView.requestSafeRender();
-      }
-    }
-
-    public void clear() {
-      if( hasMessages( MESSAGE ) ) {
-        removeMessages( MESSAGE );
-      }
-    }
-
-    public void submit() {
-      clear();
-      sendEmptyMessageDelayed( MESSAGE, RENDER_THROTTLE_TIMEOUT );
-    }
-  }
-
   /**
    * Object used to keep some data when a configuration change happens and the activity is
    * re-created.
@@ -15,6 +15,8 @@ public class DetailLevel implements Comparable<DetailLevel> {
   private int mTileHeight;
   private Object mData;
 
+  private TileManifest mTileManifest;
+
   private DetailLevelManager mDetailLevelManager;
 
   private StateSnapshot mLastStateSnapshot;
@@ -79,7 +81,15 @@ public class DetailLevel implements Comparable<DetailLevel> {
     mTilesVisibleInViewport.clear();
     for( int rowCurrent = mLastStateSnapshot.rowStart; rowCurrent < mLastStateSnapshot.rowEnd; rowCurrent++ ) {
       for( int columnCurrent = mLastStateSnapshot.columnStart; columnCurrent < mLastStateSnapshot.columnEnd; columnCurrent++ ) {
+        if( mTileManifest != null && !mTileManifest.exists( columnCurrent, rowCurrent ) ) {
+          continue;
+        }
         Tile tile = new Tile( columnCurrent, rowCurrent, mTileWidth, mTileHeight, mData, this );
+        if( mTileManifest != null && mTileManifest.isBlank( columnCurrent, rowCurrent ) ) {
+          tile.setBlankColor( mTileManifest.getBlankColor( columnCurrent, rowCurrent ) );
+        } else if( mTileManifest != null && mTileManifest.hasContentHashes() ) {
+          tile.setContentHash( mTileManifest.getContentHash( columnCurrent, rowCurrent ) );
+        }
         mTilesVisibleInViewport.add( tile );
       }
     }
@@ -100,6 +110,24 @@ public class DetailLevel implements Comparable<DetailLevel> {
     return mDetailLevelManager.getScale() / mScale;
   }
 
+  /**
+   * Returns the largest power-of-two sample size that can be used to decode tiles on this level
+   * without losing detail at the current scale, e.g., 2 when tiles are drawn at half their
+   * native size or smaller.  This is only greater than 1 when the level is shown below its own
+   * scale, which generally happens while the DetailLevelManager is locked or when this is the
+   * smallest level registered.
+   *
+   * @return The sample size tiles on this level should be decoded with.
+   */
+  public int getSampleSize() {
+    float relativeScale = getRelativeScale();
+    int sampleSize = 1;
+    while( relativeScale * sampleSize * 2 <= 1 ) {
+      sampleSize <<= 1;
+    }
+    return sampleSize;
+  }
+
   public int getTileWidth() {
     return mTileWidth;
   }
@@ -112,6 +140,21 @@ public class DetailLevel implements Comparable<DetailLevel> {
     return mData;
   }
 
+  /**
+   * Sets a manifest of the tiles that exist on this level.  Tiles the manifest reports as missing
+   * are never created, and tiles it reports as blank are filled with a color instead of decoded.
+   *
+   * @param tileManifest The TileManifest for this level, or null to treat every tile as present.
+   */
+  public void setTileManifest( TileManifest tileManifest ) {
+    mTileManifest = tileManifest;
+    invalidate();
+  }
+
+  public TileManifest getTileManifest() {
+    return mTileManifest;
+  }
+
   @Override
   public int compareTo( @NonNull DetailLevel detailLevel ) {
     return (int) Math.signum( getScale() - detailLevel.getScale() );
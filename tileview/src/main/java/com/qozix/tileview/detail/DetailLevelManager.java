@@ -4,12 +4,14 @@ import android.graphics.Rect;
 
 import com.qozix.tileview.geom.FloatMathHelper;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 public class DetailLevelManager {
 
-  protected LinkedList<DetailLevel> mDetailLevelLinkedList = new LinkedList<DetailLevel>();
+  // kept sorted by scale; an ArrayList despite the name, so the binary search gets constant-time indexing
+  protected ArrayList<DetailLevel> mDetailLevelLinkedList = new ArrayList<DetailLevel>();
+
+  private DetailLevelPyramid mDetailLevelPyramid;
 
   private DetailLevelChangeListener mDetailLevelChangeListener;
 
@@ -81,6 +83,10 @@ public class DetailLevelManager {
     updateComputedViewport();
   }
 
+  public int getViewportPadding() {
+    return mPadding;
+  }
+
   public void updateViewport( int left, int top, int right, int bottom ) {
     mViewport.set( left, top, right, bottom );
     updateComputedViewport();
@@ -135,6 +141,7 @@ public class DetailLevelManager {
 
   public void resetDetailLevels() {
     mDetailLevelLinkedList.clear();
+    mDetailLevelPyramid = null;
     update();
   }
 
@@ -161,40 +168,89 @@ public class DetailLevelManager {
   }
 
   public void addDetailLevel( float scale, Object data, int tileWidth, int tileHeight ) {
+    addDetailLevel( scale, data, tileWidth, tileHeight, null );
+  }
+
+  /**
+   * Register a DetailLevel, along with a manifest of the tiles that exist on it.
+   *
+   * @param scale        Scale at which the level should be used.
+   * @param data         An arbitrary object of any type that is passed to the BitmapProvider for each tile on this level.
+   * @param tileWidth    Size of each tiled column.
+   * @param tileHeight   Size of each tiled row.
+   * @param tileManifest The TileManifest for this level, or null to treat every tile as present.
+   */
+  public void addDetailLevel( float scale, Object data, int tileWidth, int tileHeight, TileManifest tileManifest ) {
     DetailLevel detailLevel = new DetailLevel( this, scale, data, tileWidth, tileHeight );
-    if( mDetailLevelLinkedList.contains( detailLevel ) ) {
-      return;
+    detailLevel.setTileManifest( tileManifest );
+    // levels are kept sorted by scale, so insert after any existing levels of the same scale
+    int index = getIndexOfFirstLevelAtOrAboveScale( scale );
+    while( index < mDetailLevelLinkedList.size() && mDetailLevelLinkedList.get( index ).getScale() == scale ) {
+      if( mDetailLevelLinkedList.get( index ).equals( detailLevel ) ) {
+        return;
+      }
+      index++;
     }
-    mDetailLevelLinkedList.add( detailLevel );
-    Collections.sort( mDetailLevelLinkedList );
+    mDetailLevelLinkedList.add( index, detailLevel );
     update();
   }
 
+  /**
+   * Registers a {@link DetailLevelPyramid}, which will supply power-of-two DetailLevels on demand
+   * rather than requiring each level be registered with addDetailLevel.  While a pyramid is set,
+   * levels registered with addDetailLevel are ignored.  Pass null to remove the pyramid.
+   *
+   * @param detailLevelPyramid The DetailLevelPyramid describing the tile set, or null.
+   */
+  public void setDetailLevelPyramid( DetailLevelPyramid detailLevelPyramid ) {
+    mDetailLevelPyramid = detailLevelPyramid;
+    if( mDetailLevelPyramid != null ) {
+      mDetailLevelPyramid.setDetailLevelManager( this );
+    }
+    update();
+  }
+
+  public DetailLevelPyramid getDetailLevelPyramid() {
+    return mDetailLevelPyramid;
+  }
+
   public DetailLevel getDetailLevelForScale() {
+    if( mDetailLevelPyramid != null ) {
+      return mDetailLevelPyramid.getDetailLevelForScale( mScale );
+    }
     if( mDetailLevelLinkedList.size() == 0 ) {
       return null;
     }
-    if( mDetailLevelLinkedList.size() == 1 ) {
-      return mDetailLevelLinkedList.get( 0 );
-    }
-    DetailLevel match = null;
-    int index = mDetailLevelLinkedList.size() - 1;
-    for( int i = index; i >= 0; i-- ) {
-      match = mDetailLevelLinkedList.get( i );
-      if( match.getScale() < mScale ) {
-        if( i < index ) {
-          match = mDetailLevelLinkedList.get( i + 1 );
-        }
-        break;
+    // the smallest level at or above the current scale, or the largest level if none qualify
+    int index = getIndexOfFirstLevelAtOrAboveScale( mScale );
+    return mDetailLevelLinkedList.get( Math.min( index, mDetailLevelLinkedList.size() - 1 ) );
+  }
+
+  /**
+   * Binary search for the position of the first registered level with a scale that is not less
+   * than the scale passed, or the number of registered levels if every level is smaller.
+   */
+  private int getIndexOfFirstLevelAtOrAboveScale( float scale ) {
+    int low = 0;
+    int high = mDetailLevelLinkedList.size();
+    while( low < high ) {
+      int middle = (low + high) >>> 1;
+      if( mDetailLevelLinkedList.get( middle ).getScale() < scale ) {
+        low = middle + 1;
+      } else {
+        high = middle;
       }
     }
-    return match;
+    return low;
   }
 
   public void invalidateAll(){
     for( DetailLevel detailLevel : mDetailLevelLinkedList ){
       detailLevel.invalidate();
     }
+    if( mDetailLevelPyramid != null ) {
+      mDetailLevelPyramid.invalidateAll();
+    }
   }
 
   public interface DetailLevelChangeListener {
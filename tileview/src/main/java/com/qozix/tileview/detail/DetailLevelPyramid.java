@@ -0,0 +1,178 @@
+package com.qozix.tileview.detail;
+
+/**
+ * Describes a power-of-two tile pyramid, as produced by Deep Zoom and similar tools, where each
+ * level is half the width and height of the level above it.  Rather than registering each level
+ * with {@link DetailLevelManager#addDetailLevel(float, Object, int, int)}, the pyramid computes
+ * scales analytically and only creates a {@link DetailLevel} the first time it's needed.
+ *
+ * Levels are numbered from 0 (the smallest, most zoomed-out level) to levelCount - 1 (the full
+ * resolution level, at a scale of 1).
+ */
+public class DetailLevelPyramid {
+
+  private int mBaseWidth;
+  private int mBaseHeight;
+  private int mTileWidth;
+  private int mTileHeight;
+  private int mLevelCount;
+
+  private LevelDataFactory mLevelDataFactory;
+
+  private float[] mScales;
+  private DetailLevel[] mDetailLevels;
+  private TileManifest[] mTileManifests;
+
+  private DetailLevelManager mDetailLevelManager;
+
+  /**
+   * @param baseWidth        Width of the full resolution image.
+   * @param baseHeight       Height of the full resolution image.
+   * @param tileWidth        Width of each tile, on every level.
+   * @param tileHeight       Height of each tile, on every level.
+   * @param levelCount       Number of levels in the pyramid.
+   * @param levelDataFactory Supplies the arbitrary data object passed to the BitmapProvider for each level.
+   */
+  public DetailLevelPyramid( int baseWidth, int baseHeight, int tileWidth, int tileHeight, int levelCount, LevelDataFactory levelDataFactory ) {
+    if( levelCount < 1 ) {
+      throw new IllegalArgumentException( "A DetailLevelPyramid requires at least one level." );
+    }
+    mBaseWidth = baseWidth;
+    mBaseHeight = baseHeight;
+    mTileWidth = tileWidth;
+    mTileHeight = tileHeight;
+    mLevelCount = levelCount;
+    mLevelDataFactory = levelDataFactory;
+    mScales = new float[levelCount];
+    mDetailLevels = new DetailLevel[levelCount];
+    mTileManifests = new TileManifest[levelCount];
+    for( int level = 0; level < levelCount; level++ ) {
+      mScales[level] = (float) Math.pow( 2, level - (levelCount - 1) );
+    }
+  }
+
+  void setDetailLevelManager( DetailLevelManager detailLevelManager ) {
+    if( mDetailLevelManager != detailLevelManager ) {
+      mDetailLevelManager = detailLevelManager;
+      for( int level = 0; level < mLevelCount; level++ ) {
+        mDetailLevels[level] = null;
+      }
+    }
+  }
+
+  public int getBaseWidth() {
+    return mBaseWidth;
+  }
+
+  public int getBaseHeight() {
+    return mBaseHeight;
+  }
+
+  public int getTileWidth() {
+    return mTileWidth;
+  }
+
+  public int getTileHeight() {
+    return mTileHeight;
+  }
+
+  public int getLevelCount() {
+    return mLevelCount;
+  }
+
+  public float getScale( int level ) {
+    return mScales[level];
+  }
+
+  public int getLevelWidth( int level ) {
+    return (int) Math.ceil( mBaseWidth * mScales[level] );
+  }
+
+  public int getLevelHeight( int level ) {
+    return (int) Math.ceil( mBaseHeight * mScales[level] );
+  }
+
+  public int getColumnCount( int level ) {
+    return (int) Math.ceil( getLevelWidth( level ) / (float) mTileWidth );
+  }
+
+  public int getRowCount( int level ) {
+    return (int) Math.ceil( getLevelHeight( level ) / (float) mTileHeight );
+  }
+
+  /**
+   * Sets a manifest of the tiles that exist on a level; see {@link DetailLevel#setTileManifest(TileManifest)}.
+   *
+   * @param level        Index of the level, from 0 to levelCount - 1.
+   * @param tileManifest The TileManifest for that level, or null to treat every tile as present.
+   */
+  public void setTileManifest( int level, TileManifest tileManifest ) {
+    mTileManifests[level] = tileManifest;
+    if( mDetailLevels[level] != null ) {
+      mDetailLevels[level].setTileManifest( tileManifest );
+    }
+  }
+
+  public TileManifest getTileManifest( int level ) {
+    return mTileManifests[level];
+  }
+
+  /**
+   * Returns the level that would be used at the scale passed: the smallest level with a scale
+   * equal to or greater than the scale passed, or the full resolution level if none qualify.
+   *
+   * @param scale The scale to find a level for.
+   * @return The index of the level.
+   */
+  public int getLevelForScale( float scale ) {
+    int low = 0;
+    int high = mLevelCount;
+    while( low < high ) {
+      int middle = (low + high) >>> 1;
+      if( mScales[middle] < scale ) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return Math.min( low, mLevelCount - 1 );
+  }
+
+  /**
+   * Returns the DetailLevel for the level index passed, creating it if this is the first request.
+   *
+   * @param level Index of the level, from 0 to levelCount - 1.
+   * @return The DetailLevel instance for that level.
+   */
+  public DetailLevel getDetailLevel( int level ) {
+    DetailLevel detailLevel = mDetailLevels[level];
+    if( detailLevel == null ) {
+      Object data = mLevelDataFactory == null ? null : mLevelDataFactory.getLevelData( level, mScales[level] );
+      detailLevel = new DetailLevel( mDetailLevelManager, mScales[level], data, mTileWidth, mTileHeight );
+      detailLevel.setTileManifest( mTileManifests[level] );
+      mDetailLevels[level] = detailLevel;
+    }
+    return detailLevel;
+  }
+
+  public DetailLevel getDetailLevelForScale( float scale ) {
+    return getDetailLevel( getLevelForScale( scale ) );
+  }
+
+  void invalidateAll() {
+    for( DetailLevel detailLevel : mDetailLevels ) {
+      if( detailLevel != null ) {
+        detailLevel.invalidate();
+      }
+    }
+  }
+
+  /**
+   * Supplies the arbitrary data object for each level as it's created, e.g., a path pattern for
+   * that level's tiles.
+   */
+  public interface LevelDataFactory {
+    Object getLevelData( int level, float scale );
+  }
+
+}
@@ -0,0 +1,234 @@
+package com.qozix.tileview.detail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Records which tiles of a single DetailLevel actually exist, and which of those are a single
+ * solid color.  When a DetailLevel has a TileManifest, missing tiles (including any computed
+ * beyond the real edge of the image) are never sent to the BitmapProvider, and blank tiles are
+ * filled with their color rather than decoded.
+ *
+ * The binary format, as read by {@link #read(InputStream)} and written by
+ * {@link #write(OutputStream)}, is big-endian:
+ * <pre>
+ * int    magic ('TVTM')
+ * int    version (1, or 2 if content hashes follow the entries)
+ * int    column count
+ * int    row count
+ * int    number of blank colors, n (at most 254)
+ * int[n] blank colors (ARGB)
+ * byte[columns * rows] one entry per tile, row by row: 0 for missing, 1 for present, or
+ *        2 + i for a blank tile filled with blank color i
+ * long[columns * rows] version 2 only: a hash of each tile's encoded bytes, row by row
+ * </pre>
+ *
+ * Content hashes let tiles with identical encoded data share a single decoded Bitmap when tile
+ * deduplication is enabled, without reading the tile to compute a hash.
+ */
+public class TileManifest {
+
+  private static final int MAGIC = 0x5456544D;
+  private static final int VERSION = 1;
+  private static final int VERSION_WITH_CONTENT_HASHES = 2;
+
+  private static final int MAXIMUM_BLANK_COLORS = 254;
+
+  private static final byte MISSING = 0;
+  private static final byte PRESENT = 1;
+  private static final int FIRST_BLANK = 2;
+
+  private int mColumnCount;
+  private int mRowCount;
+
+  private byte[] mEntries;
+  private int[] mBlankColors = new int[0];
+  private long[] mContentHashes;
+
+  /**
+   * Creates a manifest in which every tile is missing; use setPresent and setBlank to populate it.
+   *
+   * @param columnCount Number of tile columns on the level.
+   * @param rowCount    Number of tile rows on the level.
+   */
+  public TileManifest( int columnCount, int rowCount ) {
+    mColumnCount = columnCount;
+    mRowCount = rowCount;
+    mEntries = new byte[columnCount * rowCount];
+  }
+
+  public int getColumnCount() {
+    return mColumnCount;
+  }
+
+  public int getRowCount() {
+    return mRowCount;
+  }
+
+  private int getIndex( int column, int row ) {
+    if( column < 0 || row < 0 || column >= mColumnCount || row >= mRowCount ) {
+      return -1;
+    }
+    return row * mColumnCount + column;
+  }
+
+  /**
+   * Returns true if the tile exists, either as an image or as a blank tile.
+   *
+   * @param column Column of the tile.
+   * @param row    Row of the tile.
+   * @return True if the tile exists.
+   */
+  public boolean exists( int column, int row ) {
+    int index = getIndex( column, row );
+    return index != -1 && mEntries[index] != MISSING;
+  }
+
+  public boolean isBlank( int column, int row ) {
+    int index = getIndex( column, row );
+    return index != -1 && (mEntries[index] & 0xFF) >= FIRST_BLANK;
+  }
+
+  /**
+   * Returns the color a blank tile should be filled with.  Only meaningful if isBlank returns true.
+   *
+   * @param column Column of the tile.
+   * @param row    Row of the tile.
+   * @return The ARGB color of the blank tile.
+   */
+  public int getBlankColor( int column, int row ) {
+    return mBlankColors[(mEntries[getIndex( column, row )] & 0xFF) - FIRST_BLANK];
+  }
+
+  public boolean hasContentHashes() {
+    return mContentHashes != null;
+  }
+
+  /**
+   * Returns the hash of the tile's encoded bytes.  Only meaningful if hasContentHashes returns true.
+   *
+   * @param column Column of the tile.
+   * @param row    Row of the tile.
+   * @return A hash of the tile's encoded bytes.
+   */
+  public long getContentHash( int column, int row ) {
+    return mContentHashes[requireIndex( column, row )];
+  }
+
+  public void setContentHash( int column, int row, long contentHash ) {
+    int index = requireIndex( column, row );
+    if( mContentHashes == null ) {
+      mContentHashes = new long[mEntries.length];
+    }
+    mContentHashes[index] = contentHash;
+  }
+
+  public void setMissing( int column, int row ) {
+    mEntries[requireIndex( column, row )] = MISSING;
+  }
+
+  public void setPresent( int column, int row ) {
+    mEntries[requireIndex( column, row )] = PRESENT;
+  }
+
+  public void setBlank( int column, int row, int color ) {
+    int index = requireIndex( column, row );
+    int colorIndex = -1;
+    for( int i = 0; i < mBlankColors.length; i++ ) {
+      if( mBlankColors[i] == color ) {
+        colorIndex = i;
+        break;
+      }
+    }
+    if( colorIndex == -1 ) {
+      if( mBlankColors.length == MAXIMUM_BLANK_COLORS ) {
+        throw new IllegalStateException( "A TileManifest can hold at most " + MAXIMUM_BLANK_COLORS + " blank colors." );
+      }
+      int[] blankColors = new int[mBlankColors.length + 1];
+      System.arraycopy( mBlankColors, 0, blankColors, 0, mBlankColors.length );
+      colorIndex = mBlankColors.length;
+      blankColors[colorIndex] = color;
+      mBlankColors = blankColors;
+    }
+    mEntries[index] = (byte) (FIRST_BLANK + colorIndex);
+  }
+
+  private int requireIndex( int column, int row ) {
+    int index = getIndex( column, row );
+    if( index == -1 ) {
+      throw new IndexOutOfBoundsException( "Tile " + column + ":" + row + " is outside the manifest." );
+    }
+    return index;
+  }
+
+  /**
+   * Reads a manifest in the binary format described above.  The stream is not closed.
+   *
+   * @param inputStream Stream positioned at the start of the manifest.
+   * @return The TileManifest read.
+   * @throws IOException If the stream can't be read or is not a tile manifest.
+   */
+  public static TileManifest read( InputStream inputStream ) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream( inputStream );
+    if( dataInputStream.readInt() != MAGIC ) {
+      throw new IOException( "Not a tile manifest." );
+    }
+    int version = dataInputStream.readInt();
+    if( version != VERSION && version != VERSION_WITH_CONTENT_HASHES ) {
+      throw new IOException( "Unsupported tile manifest version: " + version );
+    }
+    int columnCount = dataInputStream.readInt();
+    int rowCount = dataInputStream.readInt();
+    int blankColorCount = dataInputStream.readInt();
+    if( columnCount < 0 || rowCount < 0 || blankColorCount < 0 || blankColorCount > MAXIMUM_BLANK_COLORS ) {
+      throw new IOException( "Corrupt tile manifest header." );
+    }
+    TileManifest tileManifest = new TileManifest( columnCount, rowCount );
+    tileManifest.mBlankColors = new int[blankColorCount];
+    for( int i = 0; i < blankColorCount; i++ ) {
+      tileManifest.mBlankColors[i] = dataInputStream.readInt();
+    }
+    dataInputStream.readFully( tileManifest.mEntries );
+    for( byte entry : tileManifest.mEntries ) {
+      if( (entry & 0xFF) >= FIRST_BLANK + blankColorCount ) {
+        throw new IOException( "Corrupt tile manifest entry." );
+      }
+    }
+    if( version == VERSION_WITH_CONTENT_HASHES ) {
+      tileManifest.mContentHashes = new long[tileManifest.mEntries.length];
+      for( int i = 0; i < tileManifest.mContentHashes.length; i++ ) {
+        tileManifest.mContentHashes[i] = dataInputStream.readLong();
+      }
+    }
+    return tileManifest;
+  }
+
+  /**
+   * Writes this manifest in the binary format described above.  The stream is flushed but not closed.
+   *
+   * @param outputStream Stream to write to.
+   * @throws IOException If the stream can't be written to.
+   */
+  public void write( OutputStream outputStream ) throws IOException {
+    DataOutputStream dataOutputStream = new DataOutputStream( outputStream );
+    dataOutputStream.writeInt( MAGIC );
+    dataOutputStream.writeInt( mContentHashes == null ? VERSION : VERSION_WITH_CONTENT_HASHES );
+    dataOutputStream.writeInt( mColumnCount );
+    dataOutputStream.writeInt( mRowCount );
+    dataOutputStream.writeInt( mBlankColors.length );
+    for( int blankColor : mBlankColors ) {
+      dataOutputStream.writeInt( blankColor );
+    }
+    dataOutputStream.write( mEntries );
+    if( mContentHashes != null ) {
+      for( long contentHash : mContentHashes ) {
+        dataOutputStream.writeLong( contentHash );
+      }
+    }
+    dataOutputStream.flush();
+  }
+
+}
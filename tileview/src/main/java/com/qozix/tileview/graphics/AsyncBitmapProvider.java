@@ -0,0 +1,95 @@
+package com.qozix.tileview.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.qozix.tileview.tiles.Tile;
+
+/**
+ * A BitmapProvider that delivers bitmaps through a callback, for sources built on an asynchronous
+ * library, e.g., an image loader or an http client with its own threads.  A render thread only
+ * starts the request and moves on, so a tile waiting on the network doesn't hold a thread, and
+ * far more tiles can be in flight than there are render threads.
+ *
+ * The TileView always calls requestBitmap rather than getBitmap on an AsyncBitmapProvider;
+ * getBitmap is kept for callers that need a synchronous result.
+ */
+public interface AsyncBitmapProvider extends BitmapProvider {
+
+  /**
+   * Starts loading a tile's bitmap.  Called on a render thread, so it should return quickly.
+   * Exactly one of onBitmapLoaded and onBitmapFailed should be called once the request finishes,
+   * from any thread.  Calls after the request was cancelled are ignored, and the bitmap is kept
+   * for reuse.
+   *
+   * @param tile       The Tile to load.
+   * @param context    A Context instance to help with things like file i/o.
+   * @param sampleSize The power-of-two sample size the tile would ideally be loaded at; providers
+   *                   that can't subsample may ignore it and deliver the full-resolution bitmap.
+   * @param callback   Receives the result.
+   * @return A handle the TileView uses to cancel the request when the tile is no longer needed.
+   */
+  Cancellable requestBitmap( Tile tile, Context context, int sampleSize, Callback callback );
+
+  interface Callback {
+    /**
+     * Delivers a bitmap whose sample size is inferred from its dimensions.  A bitmap larger than
+     * the tile at the requested sample size is taken to be at full resolution; a full-resolution
+     * bitmap for a tile at the edge of the image may be small enough to pass as sampled, so
+     * providers that know the sample size they decoded at should report it instead.
+     *
+     * @param bitmap The tile's bitmap; null if the source has no bitmap for the tile.
+     */
+    void onBitmapLoaded( Bitmap bitmap );
+
+    /**
+     * @param bitmap     The tile's bitmap; null if the source has no bitmap for the tile.
+     * @param sampleSize The sample size the bitmap was actually decoded at, e.g., 1 if the requested one was ignored.
+     */
+    void onBitmapLoaded( Bitmap bitmap, int sampleSize );
+
+    void onBitmapFailed( Throwable throwable );
+
+    /**
+     * Replaces the bitmap delivered with onBitmapLoaded, e.g., once content served from a cache
+     * has been revalidated and found to have changed.  May be called from any thread, any number
+     * of times; the tile is redrawn with the new bitmap on the UI thread, without a fade.  Ignored,
+     * and the bitmap released, if the tile has been reset since.
+     */
+    void onBitmapChanged( Bitmap bitmap );
+
+    /**
+     * @param sampleSize The sample size the bitmap was actually decoded at.
+     * @see #onBitmapChanged(Bitmap)
+     */
+    void onBitmapChanged( Bitmap bitmap, int sampleSize );
+
+    /**
+     * @return True while the tile still shows the bitmap delivered with onBitmapLoaded; if not,
+     * there's no need to decode a replacement.
+     */
+    boolean isBitmapInUse();
+  }
+
+  interface Cancellable {
+    /**
+     * Called at most once, on the thread that cancelled the tile, often the UI thread.  The
+     * request may still complete afterwards; its result is then ignored.
+     */
+    void cancel();
+  }
+
+  /**
+   * A handle for a request that may wait behind others, e.g., for a connection.  The TileView
+   * calls prioritize when a newer render still wants the tile, so a tile that stays on screen
+   * isn't left behind the tiles requested after it.
+   */
+  interface Prioritizable extends Cancellable {
+    /**
+     * Moves the request ahead of the provider's other waiting requests, if it's still waiting.
+     * Called from any thread, any number of times.
+     */
+    void prioritize();
+  }
+
+}
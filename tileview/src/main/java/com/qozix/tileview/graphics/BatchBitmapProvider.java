@@ -0,0 +1,45 @@
+package com.qozix.tileview.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.qozix.tileview.tiles.Tile;
+
+import java.util.List;
+
+/**
+ * A BitmapProvider that loads a group of tiles in one call, for sources with a high cost per call
+ * and support for multi-tile requests, e.g., a database, an archive, or a tile server.  Tiles
+ * queued together, such as the strip entering the viewport during a pan, are handed over in
+ * groups of up to the size set with TileView.setTileBatchSize, all from the same detail level.
+ *
+ * The TileView always calls getBitmaps rather than getBitmap on a BatchBitmapProvider; getBitmap
+ * is kept for callers that need a single tile.
+ */
+public interface BatchBitmapProvider extends BitmapProvider {
+
+  /**
+   * Loads the tiles' bitmaps.  Called on a render thread.  Each tile should be reported through
+   * the callback as soon as it's ready, from any thread, so it can be drawn without waiting for
+   * the rest of the batch; tiles not reported by the time this method returns are treated as
+   * missing, and later reports are ignored.  Tiles may be cancelled while the batch is loading;
+   * their CancellationTokens tell which ones are still needed.
+   *
+   * @param tiles      The tiles to load, in the order they were queued.
+   * @param context    A Context instance to help with things like file i/o.
+   * @param sampleSize The power-of-two sample size the tiles would ideally be loaded at; providers
+   *                   that can't subsample may ignore it and deliver full-resolution bitmaps.
+   * @param callback   Receives each tile's result.
+   */
+  void getBitmaps( List<Tile> tiles, Context context, int sampleSize, Callback callback );
+
+  interface Callback {
+    /**
+     * @param bitmap The tile's bitmap; null if the source has no bitmap for the tile.
+     */
+    void onBitmapLoaded( Tile tile, Bitmap bitmap );
+
+    void onBitmapFailed( Tile tile, Throwable throwable );
+  }
+
+}
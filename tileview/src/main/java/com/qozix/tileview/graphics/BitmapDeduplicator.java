@@ -0,0 +1,140 @@
+package com.qozix.tileview.graphics;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Tracks decoded tile Bitmaps by a hash of their encoded bytes, so that tiles with identical data
+ * (e.g., thousands of plain white or ocean tiles) can share a single {@link BitmapHandle}.  Each
+ * tile holds its own reference to the handle, so the Bitmap is only recycled once every tile
+ * using it has been reset; the entry is forgotten at the same time.
+ *
+ * Methods may be called from both render threads and the UI thread.
+ */
+public class BitmapDeduplicator implements BitmapHandle.OnReleasedListener {
+
+  private final HashMap<Key, BitmapHandle> mBitmapHandles = new HashMap<>();
+  private final IdentityHashMap<BitmapHandle, Key> mKeys = new IdentityHashMap<>();
+
+  private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance( "SHA-1" );
+      } catch( NoSuchAlgorithmException e ) {
+        throw new IllegalStateException( e );
+      }
+    }
+  };
+
+  /**
+   * Computes the hash used to identify identical encoded tile data.
+   *
+   * @param encodedBitmap The encoded bytes of a tile.
+   * @return A 64-bit hash of the bytes.
+   */
+  public static long computeContentHash( byte[] encodedBitmap ) {
+    MessageDigest messageDigest = MESSAGE_DIGEST.get();
+    messageDigest.reset();
+    byte[] digest = messageDigest.digest( encodedBitmap );
+    long contentHash = 0;
+    for( int i = 0; i < 8; i++ ) {
+      contentHash = (contentHash << 8) | (digest[i] & 0xFF);
+    }
+    return contentHash;
+  }
+
+  /**
+   * If a Bitmap decoded from data with this hash and sample size is resident, adds a reference
+   * to its handle and returns it.
+   *
+   * @param contentHash The hash of the tile's encoded bytes.
+   * @param sampleSize  The sample size the tile is to be decoded with.
+   * @return The shared BitmapHandle, already retained for the caller, or null if none is resident.
+   */
+  public synchronized BitmapHandle acquire( long contentHash, int sampleSize ) {
+    BitmapHandle bitmapHandle = mBitmapHandles.get( new Key( contentHash, sampleSize ) );
+    if( bitmapHandle != null && bitmapHandle.retain() ) {
+      return bitmapHandle;
+    }
+    return null;
+  }
+
+  /**
+   * Offers the handle of a newly decoded Bitmap for sharing; the caller's reference is kept.
+   * If another thread registered a live handle for the same data first, a reference to that
+   * handle is returned instead, and the caller should release the handle it offered.
+   *
+   * @param contentHash  The hash of the tile's encoded bytes.
+   * @param sampleSize   The sample size the Bitmap was decoded with.
+   * @param bitmapHandle The handle of the newly decoded Bitmap.
+   * @return The BitmapHandle the caller should use.
+   */
+  public synchronized BitmapHandle share( long contentHash, int sampleSize, BitmapHandle bitmapHandle ) {
+    Key key = new Key( contentHash, sampleSize );
+    BitmapHandle existing = mBitmapHandles.get( key );
+    if( existing != null && existing.retain() ) {
+      return existing;
+    }
+    if( existing != null ) {
+      mKeys.remove( existing );
+    }
+    mBitmapHandles.put( key, bitmapHandle );
+    mKeys.put( bitmapHandle, key );
+    bitmapHandle.setOnReleasedListener( this );
+    return bitmapHandle;
+  }
+
+  @Override
+  public synchronized void onReleased( BitmapHandle bitmapHandle ) {
+    Key key = mKeys.remove( bitmapHandle );
+    // a newer handle may have been registered under the same key since this one died
+    if( key != null && mBitmapHandles.get( key ) == bitmapHandle ) {
+      mBitmapHandles.remove( key );
+    }
+  }
+
+  /**
+   * Returns the number of distinct Bitmaps currently shared.
+   *
+   * @return The number of distinct Bitmaps currently shared.
+   */
+  public synchronized int getSharedBitmapCount() {
+    return mBitmapHandles.size();
+  }
+
+  public synchronized void clear() {
+    for( BitmapHandle bitmapHandle : mKeys.keySet() ) {
+      bitmapHandle.setOnReleasedListener( null );
+    }
+    mBitmapHandles.clear();
+    mKeys.clear();
+  }
+
+  private static class Key {
+    public long contentHash;
+    public int sampleSize;
+
+    public Key( long contentHash, int sampleSize ) {
+      this.contentHash = contentHash;
+      this.sampleSize = sampleSize;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (contentHash ^ (contentHash >>> 32)) * 31 + sampleSize;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+      if( o instanceof Key ) {
+        Key key = (Key) o;
+        return key.contentHash == contentHash && key.sampleSize == sampleSize;
+      }
+      return false;
+    }
+  }
+
+}
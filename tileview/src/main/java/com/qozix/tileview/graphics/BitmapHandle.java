@@ -0,0 +1,96 @@
+package com.qozix.tileview.graphics;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted wrapper around a tile {@link Bitmap}.  Each holder (a Tile, a cache,
+ * a placeholder, another view) calls {@link #retain()} before keeping the Bitmap and
+ * {@link #release()} when it's done with it; the {@link BitmapRecycler} is only invoked once the
+ * last holder has released it, so no holder can have the Bitmap recycled out from under it.
+ *
+ * A new handle starts with a single reference, owned by whoever created it.
+ * Methods may be called from any thread.
+ */
+public class BitmapHandle {
+
+  private final Bitmap mBitmap;
+  private final BitmapRecycler mBitmapRecycler;
+  private final AtomicInteger mReferenceCount = new AtomicInteger( 1 );
+
+  private volatile OnReleasedListener mOnReleasedListener;
+
+  /**
+   * @param bitmap         The Bitmap to manage.
+   * @param bitmapRecycler Invoked with the Bitmap after the last reference is released, may be null.
+   */
+  public BitmapHandle( Bitmap bitmap, BitmapRecycler bitmapRecycler ) {
+    mBitmap = bitmap;
+    mBitmapRecycler = bitmapRecycler;
+  }
+
+  public Bitmap getBitmap() {
+    return mBitmap;
+  }
+
+  public int getReferenceCount() {
+    return mReferenceCount.get();
+  }
+
+  /**
+   * @return True once the last reference has been released; the Bitmap may already be recycled.
+   */
+  public boolean isReleased() {
+    return mReferenceCount.get() <= 0;
+  }
+
+  /**
+   * Adds a reference, unless the last reference has already been released.
+   *
+   * @return True if a reference was added, false if the handle was already released.
+   */
+  public boolean retain() {
+    while( true ) {
+      int count = mReferenceCount.get();
+      if( count <= 0 ) {
+        return false;
+      }
+      if( mReferenceCount.compareAndSet( count, count + 1 ) ) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Removes a reference, recycling the Bitmap if it was the last one.
+   *
+   * @return True if this was the last reference.
+   */
+  public boolean release() {
+    int count = mReferenceCount.decrementAndGet();
+    if( count > 0 ) {
+      return false;
+    }
+    if( count < 0 ) {
+      throw new IllegalStateException( "BitmapHandle released more times than it was retained." );
+    }
+    OnReleasedListener onReleasedListener = mOnReleasedListener;
+    if( onReleasedListener != null ) {
+      onReleasedListener.onReleased( this );
+    }
+    if( mBitmapRecycler != null ) {
+      mBitmapRecycler.recycleBitmap( mBitmap );
+    }
+    return true;
+  }
+
+  void setOnReleasedListener( OnReleasedListener onReleasedListener ) {
+    mOnReleasedListener = onReleasedListener;
+  }
+
+  interface OnReleasedListener {
+    void onReleased( BitmapHandle bitmapHandle );
+  }
+
+}
@@ -7,6 +7,8 @@ import android.graphics.BitmapFactory;
 
 import com.qozix.tileview.tiles.Tile;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Locale;
 
@@ -18,30 +20,62 @@ import java.util.Locale;
  * Picasso, or add your own disk-caching scheme, etc.
  */
 
-public class BitmapProviderAssets implements BitmapProvider {
+public class BitmapProviderAssets implements SampledBitmapProvider, EncodedBitmapProvider {
 
-  private static final BitmapFactory.Options OPTIONS = new BitmapFactory.Options();
+  private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.RGB_565;
 
-  static {
-    OPTIONS.inPreferredConfig = Bitmap.Config.RGB_565;
+  @Override
+  public Bitmap getBitmap( Tile tile, Context context ) {
+    return getBitmap( tile, context, 1 );
   }
 
   @Override
-  public Bitmap getBitmap( Tile tile, Context context ) {
+  public Bitmap getBitmap( Tile tile, Context context, int sampleSize ) {
+    // each render thread has its own Options and temp storage, so nothing is shared or allocated here
+    return decode( tile, context, DecodeBuffers.get().getOptions( BITMAP_CONFIG, sampleSize ) );
+  }
+
+  @Override
+  public byte[] getEncodedBitmap( Tile tile, Context context ) {
+    InputStream inputStream = open( tile, context );
+    if( inputStream != null ) {
+      try {
+        DecodeBuffers decodeBuffers = DecodeBuffers.get();
+        ByteArrayOutputStream outputStream = decodeBuffers.getOutputStream();
+        byte[] buffer = decodeBuffers.getReadBuffer();
+        int read;
+        while( (read = inputStream.read( buffer )) != -1 ) {
+          outputStream.write( buffer, 0, read );
+        }
+        return outputStream.toByteArray();
+      } catch( IOException e ) {
+        // the file was found but couldn't be read
+      } finally {
+        close( inputStream );
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Bitmap decodeBitmap( Tile tile, byte[] encodedBitmap, int sampleSize ) {
+    BitmapFactory.Options options = DecodeBuffers.get().getOptions( BITMAP_CONFIG, sampleSize );
+    try {
+      return BitmapFactory.decodeByteArray( encodedBitmap, 0, encodedBitmap.length, options );
+    } catch( OutOfMemoryError | Exception e ) {
+      // this is probably an out of memory error - you can try sleeping (this method won't be called in the UI thread) or try again (or give up)
+    }
+    return null;
+  }
+
+  private InputStream open( Tile tile, Context context ) {
     Object data = tile.getData();
     if( data instanceof String ) {
       String unformattedFileName = (String) tile.getData();
       String formattedFileName = String.format( Locale.US, unformattedFileName, tile.getColumn(), tile.getRow() );
       AssetManager assetManager = context.getAssets();
       try {
-        InputStream inputStream = assetManager.open( formattedFileName );
-        if( inputStream != null ) {
-          try {
-            return BitmapFactory.decodeStream( inputStream, null, OPTIONS );
-          } catch( OutOfMemoryError | Exception e ) {
-            // this is probably an out of memory error - you can try sleeping (this method won't be called in the UI thread) or try again (or give up)
-          }
-        }
+        return assetManager.open( formattedFileName );
       } catch( Exception e ) {
         // this is probably an IOException, meaning the file can't be found
       }
@@ -49,5 +83,27 @@ public class BitmapProviderAssets implements BitmapProvider {
     return null;
   }
 
+  private void close( InputStream inputStream ) {
+    try {
+      inputStream.close();
+    } catch( IOException e ) {
+      // nothing to do
+    }
+  }
+
+  private Bitmap decode( Tile tile, Context context, BitmapFactory.Options options ) {
+    InputStream inputStream = open( tile, context );
+    if( inputStream != null ) {
+      try {
+        return BitmapFactory.decodeStream( inputStream, null, options );
+      } catch( OutOfMemoryError | Exception e ) {
+        // this is probably an out of memory error - you can try sleeping (this method won't be called in the UI thread) or try again (or give up)
+      } finally {
+        close( inputStream );
+      }
+    }
+    return null;
+  }
+
 
 }
@@ -0,0 +1,708 @@
+package com.qozix.tileview.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+
+import com.qozix.tileview.tiles.Tile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads tiles over http(s), using the DetailLevel data as a URL template formatted with the tile's
+ * column and row, e.g., "https://example.com/tiles/500/%d_%d.jpg".
+ *
+ * Requests run on the provider's own threads, so render threads aren't held while waiting on the
+ * network.  At most a fixed number of requests per host are on the wire at once; the rest wait in
+ * the order they were requested, which is the order of the render pass, nearest the center of the
+ * viewport first.  A tile a newer render pass still wants is moved to the front, through
+ * {@link AsyncBitmapProvider.Prioritizable}, so the tiles that stay on screen aren't left behind
+ * the ones that just came into view.  A request for a tile that's cancelled, e.g., because it
+ * left the viewport, is dropped if it's still waiting, or aborted by closing its connection if
+ * it's in flight.
+ *
+ * Connections are kept alive and reused between requests to the same host, as long as responses
+ * are read to the end, which this class always does.  HTTP/1.1 pipelining isn't supported by
+ * HttpURLConnection, so each connection carries one request at a time; keep the per-host limit at
+ * or below the http.maxConnections system property (5 by default), or connections beyond it
+ * won't be kept for reuse.
+ *
+ * A 404 or 410 response means the tile is missing; other error responses are reported as failures.
+ *
+ * With a TileDiskCache set, tiles found on disk are shown straight away, without waiting for a
+ * slot on the wire; the disk is read on a couple of threads of its own.  Those past their
+ * expiration, from the Cache-Control or Expires headers they were served with, are then
+ * revalidated with a conditional request, behind any tiles still waiting to load.  A 304 Not
+ * Modified only refreshes the cache entry; the tile is only decoded again, and swapped on screen,
+ * if the server sends different content.  Only one revalidation per URL waits at a time, and
+ * one whose tile no longer shows the cached bitmap is dropped before it reaches the wire.
+ */
+public class BitmapProviderHttp implements AsyncBitmapProvider {
+
+  public static final int DEFAULT_MAXIMUM_REQUESTS_PER_HOST = 4;
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  public static final int DEFAULT_READ_TIMEOUT = 15000;
+  public static final long DEFAULT_MAX_AGE = 60000;
+
+  private static final Bitmap.Config BITMAP_CONFIG = Bitmap.Config.RGB_565;
+  private static final int KEEP_ALIVE_TIME = 30;
+  private static final int DISK_THREAD_COUNT = 2;
+
+  private final int mMaximumRequestsPerHost;
+  private final ExecutorService mExecutorService;
+  private final ThreadPoolExecutor mDiskExecutorService;
+  // guarded by itself
+  private final Map<String, HostQueue> mHostQueues = new HashMap<>();
+  private final Map<String, String> mRequestProperties = new LinkedHashMap<>();
+
+  private volatile int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private volatile int mReadTimeout = DEFAULT_READ_TIMEOUT;
+  private volatile TileDiskCache mTileDiskCache;
+  private volatile long mDefaultMaxAge = DEFAULT_MAX_AGE;
+
+  private final AtomicInteger mRequestCount = new AtomicInteger();
+  private final AtomicInteger mAbortedCount = new AtomicInteger();
+  private final AtomicInteger mDroppedCount = new AtomicInteger();
+  private final AtomicInteger mDiskCacheHitCount = new AtomicInteger();
+  private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+  private final AtomicInteger mChangedCount = new AtomicInteger();
+
+  public BitmapProviderHttp() {
+    this( DEFAULT_MAXIMUM_REQUESTS_PER_HOST );
+  }
+
+  /**
+   * @param maximumRequestsPerHost The most requests on the wire to any one host at a time.
+   */
+  public BitmapProviderHttp( int maximumRequestsPerHost ) {
+    mMaximumRequestsPerHost = Math.max( 1, maximumRequestsPerHost );
+    // threads are only started as requests need them, and let go once idle; the per-host limit bounds them
+    mExecutorService = new ThreadPoolExecutor( 0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new HttpThreadFactory( "TileView-http-" ) );
+    // disk reads queue for a few threads rather than each taking one, as a viewport of cache hits would
+    mDiskExecutorService = new ThreadPoolExecutor( DISK_THREAD_COUNT, DISK_THREAD_COUNT, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new HttpThreadFactory( "TileView-disk-" ) );
+    mDiskExecutorService.allowCoreThreadTimeOut( true );
+  }
+
+  public int getMaximumRequestsPerHost() {
+    return mMaximumRequestsPerHost;
+  }
+
+  /**
+   * @param connectTimeout Milliseconds to wait for a connection; 0 to wait indefinitely.
+   */
+  public void setConnectTimeout( int connectTimeout ) {
+    mConnectTimeout = connectTimeout;
+  }
+
+  /**
+   * @param readTimeout Milliseconds to wait for data once connected; 0 to wait indefinitely.
+   */
+  public void setReadTimeout( int readTimeout ) {
+    mReadTimeout = readTimeout;
+  }
+
+  /**
+   * Sets a header sent with every request, e.g., User-Agent or Authorization.
+   */
+  public void setRequestProperty( String key, String value ) {
+    synchronized( mRequestProperties ) {
+      mRequestProperties.put( key, value );
+    }
+  }
+
+  /**
+   * @param tileDiskCache The cache to serve and store tiles with; null (the default) for none.
+   */
+  public void setTileDiskCache( TileDiskCache tileDiskCache ) {
+    mTileDiskCache = tileDiskCache;
+  }
+
+  public TileDiskCache getTileDiskCache() {
+    return mTileDiskCache;
+  }
+
+  /**
+   * @param defaultMaxAge Milliseconds a cached tile is considered fresh if the server sent neither
+   *                      Cache-Control nor Expires headers; 0 to revalidate it every time it's loaded.
+   */
+  public void setDefaultMaxAge( long defaultMaxAge ) {
+    mDefaultMaxAge = defaultMaxAge;
+  }
+
+  /**
+   * @return The number of requests that reached the wire, revalidations included.
+   */
+  public int getRequestCount() {
+    return mRequestCount.get();
+  }
+
+  /**
+   * @return The number of requests aborted on the wire because their tile was cancelled.
+   */
+  public int getAbortedCount() {
+    return mAbortedCount.get();
+  }
+
+  /**
+   * @return The number of requests dropped before reaching the wire because their tile was
+   * cancelled, or, for revalidations, no longer showed the cached bitmap or was superseded.
+   */
+  public int getDroppedCount() {
+    return mDroppedCount.get();
+  }
+
+  /**
+   * @return The number of tiles served from the disk cache.
+   */
+  public int getDiskCacheHitCount() {
+    return mDiskCacheHitCount.get();
+  }
+
+  /**
+   * @return The number of revalidations answered with a 304 Not Modified.
+   */
+  public int getNotModifiedCount() {
+    return mNotModifiedCount.get();
+  }
+
+  /**
+   * @return The number of revalidations that found the server had different content.
+   */
+  public int getChangedCount() {
+    return mChangedCount.get();
+  }
+
+  /**
+   * Returns the URL of a tile; by default the DetailLevel data formatted with the column and row.
+   * Override for other schemes, e.g., {z}/{x}/{y} paths.
+   *
+   * @return The URL, or null if the tile has none, and is missing.
+   */
+  protected URL getUrl( Tile tile ) throws MalformedURLException {
+    Object data = tile.getData();
+    if( !(data instanceof String) ) {
+      return null;
+    }
+    return new URL( String.format( Locale.US, (String) data, tile.getColumn(), tile.getRow() ) );
+  }
+
+  /**
+   * Loads a tile on the calling thread, without the per-host limit.  A stale cached tile is
+   * revalidated first, and used if the server can't be reached.
+   */
+  @Override
+  public Bitmap getBitmap( Tile tile, Context context ) {
+    URL url;
+    try {
+      url = getUrl( tile );
+    } catch( MalformedURLException e ) {
+      return null;
+    }
+    if( url == null ) {
+      return null;
+    }
+    TileDiskCache tileDiskCache = mTileDiskCache;
+    TileDiskCache.Entry cachedEntry = tileDiskCache == null ? null : tileDiskCache.get( url.toString() );
+    if( cachedEntry != null && !cachedEntry.isStale() ) {
+      return decode( cachedEntry.getData(), 1 );
+    }
+    try {
+      byte[] data = load( url, tileDiskCache, cachedEntry, null );
+      return data == null ? null : decode( data, 1 );
+    } catch( IOException e ) {
+      return cachedEntry == null ? null : decode( cachedEntry.getData(), 1 );
+    }
+  }
+
+  @Override
+  public Cancellable requestBitmap( Tile tile, Context context, int sampleSize, Callback callback ) {
+    URL url;
+    try {
+      url = getUrl( tile );
+    } catch( MalformedURLException e ) {
+      callback.onBitmapFailed( e );
+      return null;
+    }
+    if( url == null ) {
+      callback.onBitmapLoaded( null );
+      return null;
+    }
+    HttpRequest httpRequest = new HttpRequest( getHostQueue( url ), url, mTileDiskCache, sampleSize, callback );
+    httpRequest.start();
+    return httpRequest;
+  }
+
+  private HostQueue getHostQueue( URL url ) {
+    String host = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+    synchronized( mHostQueues ) {
+      HostQueue hostQueue = mHostQueues.get( host );
+      if( hostQueue == null ) {
+        hostQueue = new HostQueue();
+        mHostQueues.put( host, hostQueue );
+      }
+      return hostQueue;
+    }
+  }
+
+  /**
+   * Reads the response for a URL, storing it in the disk cache if there is one.
+   *
+   * @param cachedEntry The cached entry to revalidate, or null to request the tile unconditionally.
+   * @param httpRequest The request the connection is made for, so it can be aborted; null if it can't be.
+   * @return The encoded tile; the cached entry's data if it's unchanged; or null if the tile is missing or was cancelled.
+   * @throws IOException If the request failed.
+   */
+  private byte[] load( URL url, TileDiskCache tileDiskCache, TileDiskCache.Entry cachedEntry, HttpRequest httpRequest ) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    if( httpRequest != null && !httpRequest.setConnection( connection ) ) {
+      return null;
+    }
+    try {
+      connection.setConnectTimeout( mConnectTimeout );
+      connection.setReadTimeout( mReadTimeout );
+      synchronized( mRequestProperties ) {
+        for( Map.Entry<String, String> entry : mRequestProperties.entrySet() ) {
+          connection.setRequestProperty( entry.getKey(), entry.getValue() );
+        }
+      }
+      if( tileDiskCache != null ) {
+        // a response cache installed for the app would otherwise answer the conditional requests itself
+        connection.setUseCaches( false );
+      }
+      if( cachedEntry != null ) {
+        if( cachedEntry.getETag() != null ) {
+          connection.setRequestProperty( "If-None-Match", cachedEntry.getETag() );
+        }
+        if( cachedEntry.getLastModified() != null ) {
+          connection.setRequestProperty( "If-Modified-Since", cachedEntry.getLastModified() );
+        }
+      }
+      mRequestCount.incrementAndGet();
+      int responseCode = connection.getResponseCode();
+      String key = url.toString();
+      if( responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedEntry != null ) {
+        mNotModifiedCount.incrementAndGet();
+        long expiration = getExpiration( connection );
+        if( expiration >= 0 ) {
+          tileDiskCache.refresh( key, cachedEntry, connection.getHeaderField( "ETag" ), connection.getHeaderField( "Last-Modified" ), expiration );
+        }
+        return cachedEntry.getData();
+      }
+      if( responseCode == HttpURLConnection.HTTP_NOT_FOUND || responseCode == HttpURLConnection.HTTP_GONE ) {
+        drain( connection.getErrorStream() );
+        if( tileDiskCache != null && cachedEntry != null ) {
+          tileDiskCache.remove( key );
+        }
+        return null;
+      }
+      if( responseCode != HttpURLConnection.HTTP_OK ) {
+        drain( connection.getErrorStream() );
+        throw new IOException( "HTTP " + responseCode + " for " + url );
+      }
+      byte[] data = read( connection.getInputStream() );
+      if( tileDiskCache != null ) {
+        long expiration = getExpiration( connection );
+        if( expiration >= 0 ) {
+          tileDiskCache.put( key, data, connection.getHeaderField( "ETag" ), connection.getHeaderField( "Last-Modified" ), expiration );
+        } else if( cachedEntry != null ) {
+          tileDiskCache.remove( key );
+        }
+      }
+      return data;
+    } finally {
+      // releases the connection to the pool once the response has been read; aborts it otherwise
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * @return The time a response should be revalidated after, from its Cache-Control or Expires
+   * headers, or the default max age if it has neither; -1 if it mustn't be stored.
+   */
+  private long getExpiration( HttpURLConnection connection ) {
+    long now = System.currentTimeMillis();
+    String cacheControl = connection.getHeaderField( "Cache-Control" );
+    if( cacheControl != null ) {
+      long maxAge = -1;
+      for( String directive : cacheControl.toLowerCase( Locale.US ).split( "," ) ) {
+        directive = directive.trim();
+        if( directive.equals( "no-store" ) ) {
+          return -1;
+        }
+        if( directive.equals( "no-cache" ) ) {
+          maxAge = 0;
+          break;
+        }
+        if( directive.startsWith( "max-age=" ) ) {
+          try {
+            maxAge = Long.parseLong( directive.substring( 8 ).trim() ) * 1000;
+          } catch( NumberFormatException e ) {
+            // ignored, as if absent
+          }
+        }
+      }
+      if( maxAge >= 0 ) {
+        return now + maxAge;
+      }
+    }
+    long expires = connection.getExpiration();
+    return expires > 0 ? expires : now + mDefaultMaxAge;
+  }
+
+  /**
+   * Decodes the encoded bytes of a tile, on the provider's threads.  Override to decode
+   * differently, e.g., to another Bitmap.Config.
+   *
+   * @return The decoded Bitmap, or null if the data couldn't be decoded.
+   */
+  protected Bitmap decode( byte[] data, int sampleSize ) {
+    BitmapFactory.Options options = DecodeBuffers.get().getOptions( BITMAP_CONFIG, sampleSize );
+    return BitmapFactory.decodeByteArray( data, 0, data.length, options );
+  }
+
+  private static byte[] read( InputStream inputStream ) throws IOException {
+    try {
+      DecodeBuffers decodeBuffers = DecodeBuffers.get();
+      ByteArrayOutputStream outputStream = decodeBuffers.getOutputStream();
+      byte[] buffer = decodeBuffers.getReadBuffer();
+      int read;
+      while( (read = inputStream.read( buffer )) != -1 ) {
+        outputStream.write( buffer, 0, read );
+      }
+      return outputStream.toByteArray();
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  // an error body has to be read to the end too, or the connection can't be reused
+  private static void drain( InputStream inputStream ) {
+    if( inputStream == null ) {
+      return;
+    }
+    try {
+      byte[] buffer = DecodeBuffers.get().getReadBuffer();
+      while( inputStream.read( buffer ) != -1 ) {
+        // discard
+      }
+      inputStream.close();
+    } catch( IOException e ) {
+      // the connection won't be reused
+    }
+  }
+
+  /**
+   * The requests for one host: the loads waiting, in the order requested, then the revalidations
+   * waiting, and a count of the ones on the wire.  Revalidations are also indexed by URL, waiting
+   * or on the wire, so a URL is only revalidated once at a time.
+   */
+  private class HostQueue {
+
+    private final ArrayDeque<HttpRequest> mWaitingLoads = new ArrayDeque<>();
+    private final ArrayDeque<HttpRequest> mWaitingRevalidations = new ArrayDeque<>();
+    private final Map<String, HttpRequest> mRevalidations = new HashMap<>();
+    private int mActiveCount;
+
+    /**
+     * @param isRevalidation True to send the request only once no tile is waiting to be loaded.
+     */
+    public synchronized void enqueue( HttpRequest httpRequest, boolean isRevalidation ) {
+      if( isRevalidation ) {
+        String key = httpRequest.getKey();
+        HttpRequest previous = mRevalidations.get( key );
+        if( previous != null ) {
+          if( !mWaitingRevalidations.remove( previous ) ) {
+            // already on the wire; whatever it stores is what this tile is served the next time it's loaded
+            mDroppedCount.incrementAndGet();
+            return;
+          }
+          // still waiting; the newer tile is the one more likely to be on screen
+          mDroppedCount.incrementAndGet();
+        }
+        mRevalidations.put( key, httpRequest );
+        mWaitingRevalidations.addLast( httpRequest );
+      } else {
+        mWaitingLoads.addLast( httpRequest );
+      }
+      dispatch();
+    }
+
+    /**
+     * Moves a waiting request to the front of the loads or revalidations it waits with.
+     */
+    public synchronized void prioritize( HttpRequest httpRequest ) {
+      ArrayDeque<HttpRequest> waiting = httpRequest.isRevalidation() ? mWaitingRevalidations : mWaitingLoads;
+      if( waiting.peekFirst() != httpRequest && waiting.remove( httpRequest ) ) {
+        waiting.addFirst( httpRequest );
+      }
+    }
+
+    /**
+     * @return True if the request was still waiting, and now never will run.
+     */
+    public synchronized boolean remove( HttpRequest httpRequest ) {
+      if( !mWaitingLoads.remove( httpRequest ) && !mWaitingRevalidations.remove( httpRequest ) ) {
+        return false;
+      }
+      removeRevalidation( httpRequest );
+      return true;
+    }
+
+    public synchronized void onFinished( HttpRequest httpRequest ) {
+      mActiveCount--;
+      removeRevalidation( httpRequest );
+      dispatch();
+    }
+
+    private void removeRevalidation( HttpRequest httpRequest ) {
+      if( httpRequest.isRevalidation() && mRevalidations.get( httpRequest.getKey() ) == httpRequest ) {
+        mRevalidations.remove( httpRequest.getKey() );
+      }
+    }
+
+    private void dispatch() {
+      while( mActiveCount < mMaximumRequestsPerHost && !(mWaitingLoads.isEmpty() && mWaitingRevalidations.isEmpty()) ) {
+        HttpRequest httpRequest = mWaitingLoads.isEmpty() ? mWaitingRevalidations.pollFirst() : mWaitingLoads.pollFirst();
+        // the tile has moved on since it was served from disk, so there's nothing to swap
+        if( httpRequest.isRevalidation() && !httpRequest.isBitmapInUse() ) {
+          mDroppedCount.incrementAndGet();
+          removeRevalidation( httpRequest );
+          continue;
+        }
+        mActiveCount++;
+        mExecutorService.execute( httpRequest );
+      }
+    }
+  }
+
+  private class HttpRequest implements Runnable, Prioritizable {
+
+    private final HostQueue mHostQueue;
+    private final URL mUrl;
+    private final TileDiskCache mTileDiskCache;
+    private final int mSampleSize;
+    private final Callback mCallback;
+
+    private final AtomicBoolean mIsCancelled = new AtomicBoolean();
+    // guarded by this
+    private HttpURLConnection mConnection;
+    // set once the tile has been served from the disk cache; the request then only revalidates it
+    private volatile TileDiskCache.Entry mCachedEntry;
+
+    public HttpRequest( HostQueue hostQueue, URL url, TileDiskCache tileDiskCache, int sampleSize, Callback callback ) {
+      mHostQueue = hostQueue;
+      mUrl = url;
+      mTileDiskCache = tileDiskCache;
+      mSampleSize = sampleSize;
+      mCallback = callback;
+    }
+
+    public String getKey() {
+      return mUrl.toString();
+    }
+
+    public boolean isRevalidation() {
+      return mCachedEntry != null;
+    }
+
+    public boolean isBitmapInUse() {
+      return mCallback.isBitmapInUse();
+    }
+
+    public void start() {
+      if( mTileDiskCache == null ) {
+        mHostQueue.enqueue( this, false );
+        return;
+      }
+      // the disk is read without waiting for a slot on the wire
+      mDiskExecutorService.execute( new Runnable() {
+        @Override
+        public void run() {
+          loadFromDiskCache();
+        }
+      } );
+    }
+
+    private void loadFromDiskCache() {
+      if( mIsCancelled.get() ) {
+        return;
+      }
+      TileDiskCache.Entry cachedEntry = mTileDiskCache.get( mUrl.toString() );
+      Bitmap bitmap;
+      try {
+        bitmap = cachedEntry == null ? null : decode( cachedEntry.getData(), mSampleSize );
+      } catch( RuntimeException | OutOfMemoryError e ) {
+        if( !mIsCancelled.get() ) {
+          mCallback.onBitmapFailed( e );
+        }
+        return;
+      }
+      if( bitmap == null ) {
+        // not cached, or unreadable; it's loaded from the network instead
+        if( cachedEntry != null ) {
+          mTileDiskCache.remove( mUrl.toString() );
+        }
+        mHostQueue.enqueue( this, false );
+        return;
+      }
+      if( mIsCancelled.get() ) {
+        return;
+      }
+      mDiskCacheHitCount.incrementAndGet();
+      mCallback.onBitmapLoaded( bitmap, mSampleSize );
+      if( cachedEntry.isStale() ) {
+        mCachedEntry = cachedEntry;
+        mHostQueue.enqueue( this, true );
+      }
+    }
+
+    // the tile is already showing the cached bytes; it's only decoded again if the server has different ones
+    private void revalidate( TileDiskCache.Entry cachedEntry ) {
+      byte[] data;
+      try {
+        data = load( mUrl, mTileDiskCache, cachedEntry, null );
+      } catch( IOException e ) {
+        // the cached tile stays up, and is revalidated again the next time it's loaded
+        return;
+      }
+      byte[] cachedData = cachedEntry.getData();
+      // missing now, not modified, or the same bytes under new validators
+      if( data == null || data == cachedData || Arrays.equals( data, cachedData ) ) {
+        return;
+      }
+      mChangedCount.incrementAndGet();
+      if( !mCallback.isBitmapInUse() ) {
+        return;
+      }
+      try {
+        Bitmap bitmap = decode( data, mSampleSize );
+        if( bitmap != null ) {
+          mCallback.onBitmapChanged( bitmap, mSampleSize );
+        }
+      } catch( RuntimeException | OutOfMemoryError e ) {
+        // the cached tile stays up
+      }
+    }
+
+    /**
+     * @return False if the request was cancelled, and the connection mustn't be used.
+     */
+    public synchronized boolean setConnection( HttpURLConnection connection ) {
+      mConnection = connection;
+      return !mIsCancelled.get();
+    }
+
+    @Override
+    public void prioritize() {
+      if( !mIsCancelled.get() ) {
+        mHostQueue.prioritize( this );
+      }
+    }
+
+    @Override
+    public void cancel() {
+      if( !mIsCancelled.compareAndSet( false, true ) ) {
+        return;
+      }
+      if( mHostQueue.remove( this ) ) {
+        mDroppedCount.incrementAndGet();
+        return;
+      }
+      final HttpURLConnection connection;
+      synchronized( this ) {
+        connection = mConnection;
+      }
+      if( connection != null ) {
+        mAbortedCount.incrementAndGet();
+        // closing a socket can block, and cancels usually come from the UI thread
+        mExecutorService.execute( new Runnable() {
+          @Override
+          public void run() {
+            connection.disconnect();
+          }
+        } );
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        if( mIsCancelled.get() ) {
+          return;
+        }
+        TileDiskCache.Entry cachedEntry = mCachedEntry;
+        if( cachedEntry != null ) {
+          // the tile may have moved on while this waited for the connection
+          if( mCallback.isBitmapInUse() ) {
+            revalidate( cachedEntry );
+          }
+          return;
+        }
+        Bitmap bitmap;
+        try {
+          byte[] data = load( mUrl, mTileDiskCache, null, this );
+          // cancelled once the body was read, too late to abort; there's no tile to decode it for
+          if( mIsCancelled.get() ) {
+            return;
+          }
+          bitmap = data == null ? null : decode( data, mSampleSize );
+        } catch( IOException | RuntimeException | OutOfMemoryError e ) {
+          // an aborted request fails with an IOException; the tile has already been reported as cancelled
+          if( !mIsCancelled.get() ) {
+            mCallback.onBitmapFailed( e );
+          }
+          return;
+        }
+        if( !mIsCancelled.get() ) {
+          mCallback.onBitmapLoaded( bitmap, mSampleSize );
+        }
+      } finally {
+        mHostQueue.onFinished( this );
+      }
+    }
+  }
+
+  private static class HttpThreadFactory implements ThreadFactory {
+
+    private final String mNamePrefix;
+    private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+    public HttpThreadFactory( String namePrefix ) {
+      mNamePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread( final Runnable runnable ) {
+      Thread thread = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+          runnable.run();
+        }
+      }, mNamePrefix + mThreadNumber.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+
+}
@@ -7,6 +7,10 @@ import android.graphics.Bitmap;
  * {@link com.qozix.tileview.tiles.Tile} after it is no longer being used. Generally, this only
  * entails a call to {@link Bitmap#recycle()}, but it also provides a place to catch {@link Bitmap}
  * instances for reuse in a cache or an object pool.
+ *
+ * Tile bitmaps are managed by a reference-counted {@link BitmapHandle}, and the recycler is only
+ * invoked after the last holder of the handle has released it, so a Bitmap shared between tiles,
+ * or retained by a cache, is never passed here while still in use.
  */
 public interface BitmapRecycler {
   void recycleBitmap( Bitmap bitmap );
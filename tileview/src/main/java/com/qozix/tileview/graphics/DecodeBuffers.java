@@ -0,0 +1,75 @@
+package com.qozix.tileview.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Decode scratch space owned by a single thread: a BitmapFactory.Options, the temp storage
+ * BitmapFactory would otherwise allocate for every decode, and a buffer for reading streams.
+ * With these, decoding a tile allocates only the Bitmap itself.
+ *
+ * Render threads get their buffers up front; any other thread gets its own the first time it
+ * asks.  The objects returned must not be handed to another thread.
+ */
+public class DecodeBuffers {
+
+  public static final int TEMP_STORAGE_SIZE = 16 * 1024;
+  public static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private static final ThreadLocal<DecodeBuffers> DECODE_BUFFERS = new ThreadLocal<DecodeBuffers>() {
+    @Override
+    protected DecodeBuffers initialValue() {
+      return new DecodeBuffers();
+    }
+  };
+
+  private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+  private final byte[] mTempStorage = new byte[TEMP_STORAGE_SIZE];
+  private final byte[] mReadBuffer = new byte[READ_BUFFER_SIZE];
+  private final ByteArrayOutputStream mOutputStream = new ByteArrayOutputStream( READ_BUFFER_SIZE );
+
+  private DecodeBuffers() {
+  }
+
+  /**
+   * @return The buffers of the calling thread.
+   */
+  public static DecodeBuffers get() {
+    return DECODE_BUFFERS.get();
+  }
+
+  /**
+   * Returns this thread's Options, cleared of anything set by a previous decode.
+   *
+   * @param config     The preferred config of the decoded Bitmap.
+   * @param sampleSize The sample size to decode with; 1 is full resolution.
+   * @return The reusable Options of this thread.
+   */
+  public BitmapFactory.Options getOptions( Bitmap.Config config, int sampleSize ) {
+    mOptions.inPreferredConfig = config;
+    mOptions.inSampleSize = Math.max( 1, sampleSize );
+    mOptions.inJustDecodeBounds = false;
+    mOptions.inBitmap = null;
+    mOptions.inMutable = false;
+    mOptions.inTempStorage = mTempStorage;
+    return mOptions;
+  }
+
+  /**
+   * @return A buffer for reading from streams.
+   */
+  public byte[] getReadBuffer() {
+    return mReadBuffer;
+  }
+
+  /**
+   * @return An empty stream to collect encoded bytes into; its capacity is kept between uses.
+   */
+  public ByteArrayOutputStream getOutputStream() {
+    mOutputStream.reset();
+    return mOutputStream;
+  }
+
+}
@@ -0,0 +1,33 @@
+package com.qozix.tileview.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.qozix.tileview.tiles.Tile;
+
+/**
+ * A BitmapProvider that separates reading a tile's encoded bytes (the i/o stage) from decoding
+ * them into a Bitmap.  This lets the TileView inspect the encoded data between the two stages,
+ * e.g., to recognize a tile whose bytes match a tile that has already been decoded, and share
+ * that Bitmap instead of decoding the same data again.
+ *
+ * Both methods are run in a worker (non-UI) thread.
+ */
+public interface EncodedBitmapProvider extends BitmapProvider {
+
+  /**
+   * @param tile    The Tile whose data should be read.
+   * @param context A Context instance to help with things like file i/o.
+   * @return The encoded image data for the tile, or null if it can't be read.
+   */
+  byte[] getEncodedBitmap( Tile tile, Context context );
+
+  /**
+   * @param tile          The Tile the data was read for.
+   * @param encodedBitmap The data returned by getEncodedBitmap.
+   * @param sampleSize    The power-of-two sample size to decode with; 1 is full resolution.
+   * @return The decoded Bitmap, or null if it can't be decoded.
+   */
+  Bitmap decodeBitmap( Tile tile, byte[] encodedBitmap, int sampleSize );
+
+}
@@ -0,0 +1,19 @@
+package com.qozix.tileview.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.qozix.tileview.tiles.Tile;
+
+/**
+ * A BitmapProvider that can decode a reduced-resolution bitmap when a tile will be drawn well
+ * below its native size, e.g., while a DetailLevel is locked during a zoom out.  The sample size
+ * has the same meaning as {@link android.graphics.BitmapFactory.Options#inSampleSize}: a value of
+ * 2 returns a bitmap half as wide and half as tall as the full tile.  Implementations must honor
+ * the sample size passed, as the TileView uses it to compute the tile's on-screen dimensions.
+ *
+ * The sample size is always a power of two; when it's 1, the single-argument getBitmap is used.
+ */
+public interface SampledBitmapProvider extends BitmapProvider {
+  Bitmap getBitmap( Tile tile, Context context, int sampleSize );
+}
@@ -0,0 +1,350 @@
+package com.qozix.tileview.graphics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A size-bounded cache of encoded tiles on disk, keyed by URL, with the freshness metadata needed
+ * to revalidate them: the validators the server sent (ETag and Last-Modified) and the time the
+ * entry expires.  Each entry is a single file, the metadata followed by the encoded bytes, so the
+ * two can't be seen out of step.
+ *
+ * Files are written to a temporary file and renamed into place, so readers never see a partial
+ * entry and don't need to lock; writers hold the cache's lock.  When the cache grows past its
+ * maximum size, the least recently read entries are deleted.
+ */
+public class TileDiskCache {
+
+  private static final int VERSION = 2;
+  private static final String ENTRY_SUFFIX = ".tile";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // the data and metadata files of version 1, which kept them apart
+  private static final String[] OBSOLETE_SUFFIXES = { ".data", ".meta", ".data" + TEMP_SUFFIX, ".meta" + TEMP_SUFFIX };
+
+  private final File mDirectory;
+  private final long mMaximumSize;
+
+  // guarded by this; -1 until the directory has been measured
+  private long mSize = -1;
+
+  /**
+   * @param directory   The directory to keep the cache in, e.g., a subdirectory of Context.getCacheDir; created if needed.
+   *                    Files in it that the cache didn't write are left alone.
+   * @param maximumSize The most bytes of tiles, metadata included, to keep.
+   */
+  public TileDiskCache( File directory, long maximumSize ) {
+    mDirectory = directory;
+    mMaximumSize = maximumSize;
+  }
+
+  public long getMaximumSize() {
+    return mMaximumSize;
+  }
+
+  /**
+   * @return The bytes of tiles currently kept.
+   */
+  public synchronized long getSize() {
+    measure();
+    return mSize;
+  }
+
+  /**
+   * @return The entry for the key, or null if there isn't one, or it couldn't be read.
+   */
+  public Entry get( String key ) {
+    File file = getFile( key );
+    if( !file.exists() ) {
+      return null;
+    }
+    try {
+      Entry entry = read( file, key, true );
+      if( entry != null ) {
+        // marks the entry as recently used, so it's trimmed last
+        file.setLastModified( System.currentTimeMillis() );
+      }
+      return entry;
+    } catch( IOException e ) {
+      remove( key );
+      return null;
+    }
+  }
+
+  /**
+   * Stores the encoded bytes of a tile, replacing any previous entry for the key.
+   *
+   * @param eTag         The ETag the server sent, or null.
+   * @param lastModified The Last-Modified date the server sent, or null.
+   * @param expiration   The time, in milliseconds since the epoch, after which the entry should be revalidated.
+   */
+  public void put( String key, byte[] data, String eTag, String lastModified, long expiration ) {
+    synchronized( this ) {
+      try {
+        write( key, data, eTag, lastModified, expiration );
+      } catch( IOException e ) {
+        remove( key );
+        return;
+      }
+    }
+    trim();
+  }
+
+  /**
+   * Updates the freshness of an entry whose data is unchanged, e.g., after a 304 Not Modified.
+   * Validators that are null keep their previous value.  Nothing is written if the entry has been
+   * replaced or removed since it was read, so a stale revalidation can't undo a newer put.
+   *
+   * @param entry The entry that was revalidated, as returned by get.
+   */
+  public synchronized void refresh( String key, Entry entry, String eTag, String lastModified, long expiration ) {
+    File file = getFile( key );
+    try {
+      Entry current = file.exists() ? read( file, key, false ) : null;
+      if( current == null || !current.hasSameMetadata( entry ) ) {
+        return;
+      }
+      write( key, entry.mData, eTag == null ? entry.mETag : eTag, lastModified == null ? entry.mLastModified : lastModified, expiration );
+    } catch( IOException e ) {
+      remove( key );
+    }
+  }
+
+  public synchronized void remove( String key ) {
+    File file = getFile( key );
+    measure();
+    mSize -= file.length();
+    file.delete();
+  }
+
+  public synchronized void clear() {
+    File[] files = mDirectory.listFiles();
+    if( files != null ) {
+      for( File file : files ) {
+        if( isEntryFile( file ) || isLeftoverFile( file ) ) {
+          file.delete();
+        }
+      }
+    }
+    mSize = 0;
+  }
+
+  // deletes the least recently used entries until the cache fits
+  private synchronized void trim() {
+    measure();
+    if( mSize <= mMaximumSize ) {
+      return;
+    }
+    List<File> files = listEntryFiles();
+    Collections.sort( files, new Comparator<File>() {
+      @Override
+      public int compare( File lhs, File rhs ) {
+        long difference = lhs.lastModified() - rhs.lastModified();
+        return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+      }
+    } );
+    for( File file : files ) {
+      if( mSize <= mMaximumSize ) {
+        break;
+      }
+      mSize -= file.length();
+      file.delete();
+    }
+  }
+
+  // the size is measured on first use rather than in the constructor, which is usually on the UI thread
+  private void measure() {
+    if( mSize >= 0 ) {
+      return;
+    }
+    mDirectory.mkdirs();
+    mSize = 0;
+    File[] files = mDirectory.listFiles();
+    if( files == null ) {
+      return;
+    }
+    for( File file : files ) {
+      if( isEntryFile( file ) ) {
+        mSize += file.length();
+      } else if( isLeftoverFile( file ) ) {
+        file.delete();
+      }
+    }
+  }
+
+  private List<File> listEntryFiles() {
+    List<File> entryFiles = new ArrayList<>();
+    File[] files = mDirectory.listFiles();
+    if( files != null ) {
+      for( File file : files ) {
+        if( isEntryFile( file ) ) {
+          entryFiles.add( file );
+        }
+      }
+    }
+    return entryFiles;
+  }
+
+  private static boolean isEntryFile( File file ) {
+    return hasCacheName( file.getName(), ENTRY_SUFFIX );
+  }
+
+  // left by an interrupted write, or an older version of the cache
+  private static boolean isLeftoverFile( File file ) {
+    String name = file.getName();
+    if( hasCacheName( name, ENTRY_SUFFIX + TEMP_SUFFIX ) ) {
+      return true;
+    }
+    for( String suffix : OBSOLETE_SUFFIXES ) {
+      if( hasCacheName( name, suffix ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // true for a name from getFileName followed by the suffix, so files the cache didn't write are never touched
+  private static boolean hasCacheName( String name, String suffix ) {
+    if( !name.endsWith( suffix ) || name.length() == suffix.length() ) {
+      return false;
+    }
+    for( int i = name.length() - suffix.length() - 1; i >= 0; i-- ) {
+      if( Character.digit( name.charAt( i ), 16 ) < 0 ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private File getFile( String key ) {
+    return new File( mDirectory, getFileName( key ) + ENTRY_SUFFIX );
+  }
+
+  // called holding the lock
+  private void write( String key, byte[] data, String eTag, String lastModified, long expiration ) throws IOException {
+    measure();
+    File file = getFile( key );
+    File tempFile = new File( file.getPath() + TEMP_SUFFIX );
+    DataOutputStream outputStream = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+    try {
+      outputStream.writeInt( VERSION );
+      outputStream.writeUTF( key );
+      outputStream.writeUTF( eTag == null ? "" : eTag );
+      outputStream.writeUTF( lastModified == null ? "" : lastModified );
+      outputStream.writeLong( expiration );
+      outputStream.writeInt( data.length );
+      outputStream.write( data );
+    } finally {
+      outputStream.close();
+    }
+    long previousLength = file.length();
+    if( !tempFile.renameTo( file ) ) {
+      tempFile.delete();
+      throw new IOException( "Couldn't write " + file );
+    }
+    mSize += file.length() - previousLength;
+  }
+
+  /**
+   * @param shouldReadData False to read only the metadata, leaving the entry's data null.
+   * @return The entry, or null if the file is for another key, e.g., a hash collision, or another version.
+   */
+  private static Entry read( File file, String key, boolean shouldReadData ) throws IOException {
+    DataInputStream inputStream = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+    try {
+      if( inputStream.readInt() != VERSION || !key.equals( inputStream.readUTF() ) ) {
+        return null;
+      }
+      String eTag = toNullable( inputStream.readUTF() );
+      String lastModified = toNullable( inputStream.readUTF() );
+      long expiration = inputStream.readLong();
+      byte[] data = null;
+      if( shouldReadData ) {
+        data = new byte[inputStream.readInt()];
+        inputStream.readFully( data );
+      }
+      return new Entry( eTag, lastModified, expiration, data );
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private static String toNullable( String value ) {
+    return value.length() == 0 ? null : value;
+  }
+
+  private static String getFileName( String key ) {
+    try {
+      byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( key.getBytes( "UTF-8" ) );
+      StringBuilder name = new StringBuilder( digest.length * 2 );
+      for( byte b : digest ) {
+        name.append( Character.forDigit( (b >> 4) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+      }
+      return name.toString();
+    } catch( NoSuchAlgorithmException | IOException e ) {
+      // every platform has SHA-1 and UTF-8
+      return Integer.toHexString( key.hashCode() );
+    }
+  }
+
+  /**
+   * A cached tile: its encoded bytes and freshness metadata.
+   */
+  public static class Entry {
+
+    private final String mETag;
+    private final String mLastModified;
+    private final long mExpiration;
+    private final byte[] mData;
+
+    private Entry( String eTag, String lastModified, long expiration, byte[] data ) {
+      mETag = eTag;
+      mLastModified = lastModified;
+      mExpiration = expiration;
+      mData = data;
+    }
+
+    public byte[] getData() {
+      return mData;
+    }
+
+    public String getETag() {
+      return mETag;
+    }
+
+    public String getLastModified() {
+      return mLastModified;
+    }
+
+    public long getExpiration() {
+      return mExpiration;
+    }
+
+    /**
+     * @return True if the entry has expired, and should be revalidated with the server.
+     */
+    public boolean isStale() {
+      return System.currentTimeMillis() >= mExpiration;
+    }
+
+    private boolean hasSameMetadata( Entry entry ) {
+      return mExpiration == entry.mExpiration && equals( mETag, entry.mETag ) && equals( mLastModified, entry.mLastModified );
+    }
+
+    private static boolean equals( String lhs, String rhs ) {
+      return lhs == null ? rhs == null : lhs.equals( rhs );
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.qozix.tileview.tiles;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Signals that the decode of a Tile is no longer needed.  Cancellation is cooperative: no thread
+ * is interrupted, so BitmapProviders doing slow i/o should check {@link #isCancelled()} (or call
+ * {@link #throwIfCancelled()}) between steps, e.g., between reading chunks of a network stream.
+ * The token is available to providers from {@link Tile#getCancellationToken()}.
+ *
+ * Once the i/o for a tile is complete and decoding begins, the token is committed.  From then on
+ * the decode is allowed to finish even if the tile is cancelled, and its result is kept for a
+ * later tile at the same position rather than thrown away.
+ *
+ * Methods may be called from any thread.
+ */
+public class CancellationToken {
+
+  private static final int ACTIVE = 0;
+  private static final int COMMITTED = 1;
+  private static final int CANCELLED = 2;
+  private static final int COMMITTED_AND_CANCELLED = 3;
+
+  private final AtomicInteger mState = new AtomicInteger( ACTIVE );
+
+  private volatile boolean mIsSalvaged;
+
+  private final ConcurrentLinkedQueue<Runnable> mOnCancelListeners = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @return True if the work should stop; always false once the token is committed.
+   */
+  public boolean isCancelled() {
+    return mState.get() == CANCELLED;
+  }
+
+  /**
+   * @throws CancellationException If the work should stop.
+   */
+  public void throwIfCancelled() {
+    if( isCancelled() ) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * @return True if cancel was called, whether or not the token had been committed.
+   */
+  public boolean isCancelRequested() {
+    int state = mState.get();
+    return state == CANCELLED || state == COMMITTED_AND_CANCELLED;
+  }
+
+  public boolean isCommitted() {
+    int state = mState.get();
+    return state == COMMITTED || state == COMMITTED_AND_CANCELLED;
+  }
+
+  /**
+   * Registers work to run when the token is cancelled, e.g., to abort a request in flight.  It runs
+   * at most once, on the thread that cancels the token, so it should be quick; if the token is
+   * already cancelled, it runs immediately.  It doesn't run if the token was committed first.
+   */
+  public void addOnCancelListener( Runnable onCancelListener ) {
+    mOnCancelListeners.offer( onCancelListener );
+    if( isCancelled() ) {
+      runOnCancelListeners();
+    }
+  }
+
+  // polling hands each listener to exactly one caller
+  private void runOnCancelListeners() {
+    Runnable onCancelListener;
+    while( (onCancelListener = mOnCancelListeners.poll()) != null ) {
+      onCancelListener.run();
+    }
+  }
+
+  /**
+   * Marks the i/o stage as complete, so the decode will be allowed to finish.
+   *
+   * @return False if the token was already cancelled, and the work should stop.
+   */
+  boolean commit() {
+    return mState.compareAndSet( ACTIVE, COMMITTED ) || isCommitted();
+  }
+
+  /**
+   * @return True if the work finished after cancellation and its result was kept for reuse.
+   */
+  public boolean isSalvaged() {
+    return mIsSalvaged;
+  }
+
+  void setSalvaged() {
+    mIsSalvaged = true;
+  }
+
+  void cancel() {
+    while( true ) {
+      int state = mState.get();
+      if( state == CANCELLED || state == COMMITTED_AND_CANCELLED ) {
+        return;
+      }
+      int cancelled = state == COMMITTED ? COMMITTED_AND_CANCELLED : CANCELLED;
+      if( mState.compareAndSet( state, cancelled ) ) {
+        if( cancelled == CANCELLED ) {
+          runOnCancelListeners();
+        }
+        return;
+      }
+    }
+  }
+
+}
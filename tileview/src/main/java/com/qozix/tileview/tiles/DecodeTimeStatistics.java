@@ -0,0 +1,90 @@
+package com.qozix.tileview.tiles;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the times of the most recent tile decodes, and the number of decodes that exceeded their
+ * deadline, to help tune decode timeouts and spot a slow BitmapProvider.  Times include the
+ * provider's i/o as well as the decode itself.  Cancelled decodes aren't recorded, except those
+ * cancelled for exceeding their deadline, which are recorded with the time they took to return; a
+ * decode that never returns is only counted as a timeout.
+ *
+ * Methods may be called from any thread.
+ */
+public class DecodeTimeStatistics {
+
+  public static final int DEFAULT_SAMPLE_SIZE = 256;
+
+  private static final long NANOS_PER_MILLISECOND = 1000000;
+
+  private final long[] mSamples;
+  private int mSampleCount;
+  private int mNextSample;
+  private int mTimeoutCount;
+
+  public DecodeTimeStatistics() {
+    this( DEFAULT_SAMPLE_SIZE );
+  }
+
+  /**
+   * @param sampleSize The number of recent decodes percentiles are computed over.
+   */
+  public DecodeTimeStatistics( int sampleSize ) {
+    mSamples = new long[sampleSize];
+  }
+
+  synchronized void record( long elapsedNanos ) {
+    mSamples[mNextSample] = elapsedNanos;
+    mNextSample = (mNextSample + 1) % mSamples.length;
+    mSampleCount = Math.min( mSampleCount + 1, mSamples.length );
+  }
+
+  synchronized void recordTimeout() {
+    mTimeoutCount++;
+  }
+
+  public synchronized int getSampleCount() {
+    return mSampleCount;
+  }
+
+  /**
+   * @return The number of decodes that exceeded their deadline since the last reset.
+   */
+  public synchronized int getTimeoutCount() {
+    return mTimeoutCount;
+  }
+
+  /**
+   * @param percentile From 0 to 1, e.g., 0.99 for the 99th percentile.
+   * @return The decode time at the percentile, in milliseconds, over the recent decodes; 0 if there are none.
+   */
+  public synchronized float getPercentile( float percentile ) {
+    if( mSampleCount == 0 ) {
+      return 0;
+    }
+    long[] sorted = Arrays.copyOf( mSamples, mSampleCount );
+    Arrays.sort( sorted );
+    int index = Math.min( mSampleCount - 1, Math.max( 0, (int) Math.ceil( percentile * mSampleCount ) - 1 ) );
+    return sorted[index] / (float) NANOS_PER_MILLISECOND;
+  }
+
+  public float getMedian() {
+    return getPercentile( 0.5f );
+  }
+
+  public float get99thPercentile() {
+    return getPercentile( 0.99f );
+  }
+
+  public synchronized void reset() {
+    mSampleCount = 0;
+    mNextSample = 0;
+    mTimeoutCount = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "DecodeTimeStatistics(p50=" + getMedian() + "ms, p99=" + get99thPercentile() + "ms, timeouts=" + getTimeoutCount() + ")";
+  }
+
+}
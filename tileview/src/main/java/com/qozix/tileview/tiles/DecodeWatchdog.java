@@ -0,0 +1,87 @@
+package com.qozix.tileview.tiles;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches running decodes and reports those that pass their deadline.  Checks are posted to the
+ * UI thread only while decodes are running, a few times per timeout period.  Timed out decodes
+ * are reported on the UI thread.
+ */
+class DecodeWatchdog implements Runnable {
+
+  private static final long MINIMUM_CHECK_INTERVAL = 50;
+
+  private final Handler mHandler = new Handler( Looper.getMainLooper() );
+  private final Map<TileRenderRunnable, Long> mDeadlines = new ConcurrentHashMap<>();
+  private final AtomicBoolean mIsScheduled = new AtomicBoolean();
+
+  private volatile long mTimeout;
+
+  /**
+   * @param timeout Milliseconds a decode may run before it's timed out; 0 for no limit.
+   */
+  public void setTimeout( long timeout ) {
+    mTimeout = timeout;
+  }
+
+  public long getTimeout() {
+    return mTimeout;
+  }
+
+  /**
+   * Called from the decode thread as a decode starts.
+   *
+   * @return True if the decode is being watched.
+   */
+  public boolean start( TileRenderRunnable tileRenderRunnable ) {
+    long timeout = mTimeout;
+    if( timeout <= 0 ) {
+      return false;
+    }
+    mDeadlines.put( tileRenderRunnable, SystemClock.uptimeMillis() + timeout );
+    if( mIsScheduled.compareAndSet( false, true ) ) {
+      mHandler.postDelayed( this, getCheckInterval( timeout ) );
+    }
+    return true;
+  }
+
+  /**
+   * Called from the decode thread as a watched decode returns.
+   *
+   * @return True if the decode finished in time; false if it had already been timed out.
+   */
+  public boolean finish( TileRenderRunnable tileRenderRunnable ) {
+    return mDeadlines.remove( tileRenderRunnable ) != null;
+  }
+
+  public void clear() {
+    mDeadlines.clear();
+  }
+
+  @Override
+  public void run() {
+    long now = SystemClock.uptimeMillis();
+    for( Map.Entry<TileRenderRunnable, Long> entry : mDeadlines.entrySet() ) {
+      // removal decides the race with finish; only one of them can win
+      if( entry.getValue() <= now && mDeadlines.remove( entry.getKey(), entry.getValue() ) ) {
+        entry.getKey().onDeadlineExceeded();
+      }
+    }
+    mIsScheduled.set( false );
+    // a decode may have started after the entries were read; it has to be checked too
+    if( !mDeadlines.isEmpty() && mIsScheduled.compareAndSet( false, true ) ) {
+      mHandler.postDelayed( this, getCheckInterval( mTimeout ) );
+    }
+  }
+
+  private static long getCheckInterval( long timeout ) {
+    return Math.max( MINIMUM_CHECK_INTERVAL, timeout / 4 );
+  }
+
+}
@@ -0,0 +1,116 @@
+package com.qozix.tileview.tiles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A TileRenderExecutor that decodes on an executor the app already has, e.g., one shared with its
+ * other background work, rather than on threads of its own.  Waiting work is kept in a
+ * PendingTileQueue, so it can still be replaced, cancelled and reprioritised by tile; each submit
+ * hands the executor a runnable that takes whatever is at the head of that queue when it runs.
+ *
+ * The app's executor decides how many tiles decode at once.  Its threads aren't this executor's
+ * to add to, so a timed out task keeps holding its thread until it returns, and shutting this
+ * down drops waiting work without shutting down the executor.
+ */
+public class ExecutorTileRenderExecutor implements TileRenderExecutor {
+
+  private final Executor mExecutor;
+  private final PendingTileQueue mPendingTileQueue = new PendingTileQueue();
+
+  private volatile boolean mIsShutdown;
+
+  private final Runnable mRunNext = new Runnable() {
+    @Override
+    public void run() {
+      // there's a runnable for every submit, so there may be nothing left by the time this one runs
+      Runnable runnable = mPendingTileQueue.poll();
+      if( runnable != null ) {
+        runnable.run();
+      }
+    }
+  };
+
+  /**
+   * @param executor The executor to decode on.
+   */
+  public ExecutorTileRenderExecutor( Executor executor ) {
+    mExecutor = executor;
+  }
+
+  @Override
+  public Runnable submit( Tile tile, Runnable task ) {
+    if( mIsShutdown ) {
+      throw new RejectedExecutionException();
+    }
+    TileTask tileTask = new TileTask( tile, task );
+    Runnable replaced = mPendingTileQueue.remove( tile );
+    mPendingTileQueue.offer( tileTask );
+    try {
+      mExecutor.execute( mRunNext );
+    } catch( RejectedExecutionException e ) {
+      // if a runnable from an earlier submit took it, it's running, and so wasn't rejected
+      if( mPendingTileQueue.remove( tileTask ) ) {
+        // the task it replaced is still owed a run by the submit that queued it
+        if( replaced != null ) {
+          mPendingTileQueue.offer( replaced );
+        }
+        throw e;
+      }
+    }
+    return unwrap( replaced );
+  }
+
+  @Override
+  public Runnable cancel( Tile tile ) {
+    return unwrap( mPendingTileQueue.remove( tile ) );
+  }
+
+  @Override
+  public boolean prioritize( Tile tile ) {
+    return mPendingTileQueue.prioritize( tile );
+  }
+
+  @Override
+  public List<Runnable> cancelAll() {
+    List<Runnable> pending = new ArrayList<>();
+    mPendingTileQueue.drainTo( pending );
+    for( int i = 0; i < pending.size(); i++ ) {
+      pending.set( i, unwrap( pending.get( i ) ) );
+    }
+    return pending;
+  }
+
+  @Override
+  public void onRenderBatchComplete( RenderBatch renderBatch ) {
+    // the threads belong to the executor
+  }
+
+  @Override
+  public void onTaskTimedOut( Tile tile ) {
+    // the executor's threads can't be added to from here
+  }
+
+  @Override
+  public void onTimedOutTaskReturned( Tile tile ) {
+    // nothing was added for the task when it timed out
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    mIsShutdown = true;
+    return cancelAll();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return mIsShutdown;
+  }
+
+  private static Runnable unwrap( Runnable runnable ) {
+    return runnable instanceof TileTask ? ((TileTask) runnable).task : runnable;
+  }
+
+}
@@ -0,0 +1,16 @@
+package com.qozix.tileview.tiles;
+
+/**
+ * Thrown when a BitmapProvider has no bitmap for a tile, i.e., returns null.  Missing tiles are
+ * remembered for a short while by the TileFailurePolicy, rather than retried like failures.
+ *
+ * This extends NullPointerException because that's what was thrown for a null bitmap before, and
+ * TileRenderThrowableListeners may depend on it.
+ */
+public class MissingTileException extends NullPointerException {
+
+  public MissingTileException( String message ) {
+    super( message );
+  }
+
+}
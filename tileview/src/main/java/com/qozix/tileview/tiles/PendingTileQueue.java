@@ -0,0 +1,338 @@
+package com.qozix.tileview.tiles;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The work queue of a TileRenderPoolExecutor: a doubly linked list of pending runnables, indexed
+ * by Tile, so that cancelling, reprioritising and deduplicating the work for a tile take constant
+ * time however deep the queue is, rather than the linear scan of a LinkedBlockingDeque.  Decode
+ * threads take from the head.
+ *
+ * Tiles are indexed by identity; runnables that aren't TileTasks are indexed by themselves.
+ * Offering a task for a tile that already has one pending replaces it in place; callers that
+ * need to know what was replaced should remove it first.
+ */
+class PendingTileQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+  private final ReentrantLock mLock = new ReentrantLock();
+  private final Condition mNotEmpty = mLock.newCondition();
+
+  private final Map<Object, Node> mIndex = new IdentityHashMap<>();
+
+  private Node mHead;
+  private Node mTail;
+
+  /**
+   * Moves the work pending for the tile, if any, to the head of the queue.
+   *
+   * @return True if work for the tile was pending.
+   */
+  public boolean prioritize( Tile tile ) {
+    mLock.lock();
+    try {
+      Node node = mIndex.get( tile );
+      if( node == null ) {
+        return false;
+      }
+      if( node != mHead ) {
+        unlink( node );
+        linkFirst( node );
+      }
+      return true;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Removes the work pending for the tile, if any.
+   *
+   * @return The runnable removed, or null.
+   */
+  public Runnable remove( Tile tile ) {
+    mLock.lock();
+    try {
+      Node node = mIndex.remove( tile );
+      if( node == null ) {
+        return null;
+      }
+      unlink( node );
+      return node.runnable;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  public boolean contains( Tile tile ) {
+    mLock.lock();
+    try {
+      return mIndex.containsKey( tile );
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer( Runnable runnable ) {
+    if( runnable == null ) {
+      throw new NullPointerException();
+    }
+    Object key = getKey( runnable );
+    mLock.lock();
+    try {
+      Node node = mIndex.get( key );
+      if( node != null ) {
+        node.runnable = runnable;
+        return true;
+      }
+      node = new Node( key, runnable );
+      mIndex.put( key, node );
+      linkLast( node );
+      mNotEmpty.signal();
+      return true;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public void put( Runnable runnable ) {
+    offer( runnable );
+  }
+
+  @Override
+  public boolean offer( Runnable runnable, long timeout, TimeUnit unit ) {
+    return offer( runnable );
+  }
+
+  @Override
+  public Runnable poll() {
+    mLock.lock();
+    try {
+      return dequeue();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable take() throws InterruptedException {
+    mLock.lockInterruptibly();
+    try {
+      while( mHead == null ) {
+        mNotEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable poll( long timeout, TimeUnit unit ) throws InterruptedException {
+    long nanos = unit.toNanos( timeout );
+    mLock.lockInterruptibly();
+    try {
+      while( mHead == null ) {
+        if( nanos <= 0 ) {
+          return null;
+        }
+        nanos = mNotEmpty.awaitNanos( nanos );
+      }
+      return dequeue();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public Runnable peek() {
+    mLock.lock();
+    try {
+      return mHead == null ? null : mHead.runnable;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove( Object object ) {
+    if( !(object instanceof Runnable) ) {
+      return false;
+    }
+    Object key = getKey( (Runnable) object );
+    mLock.lock();
+    try {
+      Node node = mIndex.get( key );
+      if( node == null || node.runnable != object ) {
+        return false;
+      }
+      mIndex.remove( key );
+      unlink( node );
+      return true;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    mLock.lock();
+    try {
+      return mIndex.size();
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public void clear() {
+    mLock.lock();
+    try {
+      mIndex.clear();
+      mHead = mTail = null;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo( Collection<? super Runnable> collection ) {
+    return drainTo( collection, Integer.MAX_VALUE );
+  }
+
+  @Override
+  public int drainTo( Collection<? super Runnable> collection, int maxElements ) {
+    mLock.lock();
+    try {
+      int count = 0;
+      while( mHead != null && count < maxElements ) {
+        collection.add( dequeue() );
+        count++;
+      }
+      return count;
+    } finally {
+      mLock.unlock();
+    }
+  }
+
+  /**
+   * Iterates over a snapshot, head first; removal through the iterator removes from the queue.
+   */
+  @Override
+  public Iterator<Runnable> iterator() {
+    final List<Runnable> snapshot = new ArrayList<>();
+    mLock.lock();
+    try {
+      for( Node node = mHead; node != null; node = node.next ) {
+        snapshot.add( node.runnable );
+      }
+    } finally {
+      mLock.unlock();
+    }
+    return new Iterator<Runnable>() {
+      private int mIndex;
+      private Runnable mLast;
+
+      @Override
+      public boolean hasNext() {
+        return mIndex < snapshot.size();
+      }
+
+      @Override
+      public Runnable next() {
+        return mLast = snapshot.get( mIndex++ );
+      }
+
+      @Override
+      public void remove() {
+        if( mLast == null ) {
+          throw new IllegalStateException();
+        }
+        PendingTileQueue.this.remove( mLast );
+        mLast = null;
+      }
+    };
+  }
+
+  private static Object getKey( Runnable runnable ) {
+    if( runnable instanceof TileTask ) {
+      return ((TileTask) runnable).tile;
+    }
+    return runnable;
+  }
+
+  private Runnable dequeue() {
+    Node node = mHead;
+    if( node == null ) {
+      return null;
+    }
+    unlink( node );
+    mIndex.remove( node.key );
+    return node.runnable;
+  }
+
+  private void linkFirst( Node node ) {
+    node.previous = null;
+    node.next = mHead;
+    if( mHead == null ) {
+      mTail = node;
+    } else {
+      mHead.previous = node;
+    }
+    mHead = node;
+  }
+
+  private void linkLast( Node node ) {
+    node.next = null;
+    node.previous = mTail;
+    if( mTail == null ) {
+      mHead = node;
+    } else {
+      mTail.next = node;
+    }
+    mTail = node;
+  }
+
+  private void unlink( Node node ) {
+    if( node.previous == null ) {
+      mHead = node.next;
+    } else {
+      node.previous.next = node.next;
+    }
+    if( node.next == null ) {
+      mTail = node.previous;
+    } else {
+      node.next.previous = node.previous;
+    }
+    node.previous = node.next = null;
+  }
+
+  private static class Node {
+    public final Object key;
+    public Runnable runnable;
+    public Node previous;
+    public Node next;
+
+    public Node( Object key, Runnable runnable ) {
+      this.key = key;
+      this.runnable = runnable;
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+package com.qozix.tileview.tiles;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tiles queued by a single render pass, tracked with atomic counters so the batch is known to
+ * be finished exactly once, when the last of its tiles is decoded, fails, or is dropped, without
+ * any lock shared between decode threads.
+ *
+ * The batch holds one count of its own while tiles are being added, so it can't finish before
+ * it's sealed.
+ */
+public class RenderBatch {
+
+  private final int mGeneration;
+  private final long mStartTime = SystemClock.uptimeMillis();
+  private volatile long mEndTime;
+
+  private final AtomicInteger mOutstandingCount = new AtomicInteger( 1 );
+  private final AtomicInteger mTileCount = new AtomicInteger();
+  private final AtomicInteger mCompletedCount = new AtomicInteger();
+  private final AtomicInteger mFailedCount = new AtomicInteger();
+  private final AtomicInteger mDroppedCount = new AtomicInteger();
+
+  private volatile boolean mIsCancelled;
+
+  RenderBatch( int generation ) {
+    mGeneration = generation;
+  }
+
+  /**
+   * @return The number of this batch; each render pass has a higher generation than the one before.
+   */
+  public int getGeneration() {
+    return mGeneration;
+  }
+
+  /**
+   * @return Tiles queued for decoding by this batch.
+   */
+  public int getTileCount() {
+    return mTileCount.get();
+  }
+
+  public int getCompletedCount() {
+    return mCompletedCount.get();
+  }
+
+  public int getFailedCount() {
+    return mFailedCount.get();
+  }
+
+  /**
+   * @return Tiles that were cancelled, or dropped before decoding.
+   */
+  public int getDroppedCount() {
+    return mDroppedCount.get();
+  }
+
+  public boolean isCancelled() {
+    return mIsCancelled;
+  }
+
+  public boolean isFinished() {
+    return mOutstandingCount.get() == 0;
+  }
+
+  /**
+   * @return Milliseconds from the start of the batch until it finished, or until now if it hasn't.
+   */
+  public long getDuration() {
+    long endTime = mEndTime;
+    return (endTime == 0 ? SystemClock.uptimeMillis() : endTime) - mStartTime;
+  }
+
+  void add() {
+    mTileCount.incrementAndGet();
+    mOutstandingCount.incrementAndGet();
+  }
+
+  void cancel() {
+    mIsCancelled = true;
+  }
+
+  /**
+   * @return True if this call finished the batch.
+   */
+  boolean seal() {
+    return release();
+  }
+
+  /**
+   * Records the outcome of one tile.
+   *
+   * @return True if this was the last outstanding tile, and the batch is now finished.
+   */
+  boolean onTileFinished( TileRenderHandler.Status status ) {
+    switch( status ) {
+      case COMPLETE:
+        mCompletedCount.incrementAndGet();
+        break;
+      case ERROR:
+        mFailedCount.incrementAndGet();
+        break;
+      default:
+        mDroppedCount.incrementAndGet();
+    }
+    return release();
+  }
+
+  private boolean release() {
+    if( mOutstandingCount.decrementAndGet() == 0 ) {
+      mEndTime = SystemClock.uptimeMillis();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "RenderBatch(" + mGeneration + ": " + getTileCount() + " tiles, " + getCompletedCount() + " completed, "
+      + getFailedCount() + " failed, " + getDroppedCount() + " dropped, " + getDuration() + "ms)";
+  }
+
+}
@@ -0,0 +1,85 @@
+package com.qozix.tileview.tiles;
+
+import com.qozix.tileview.graphics.BitmapHandle;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds Bitmaps whose decode finished after their Tile was cancelled, keyed by tile position
+ * (column, row and detail level), so a tile requested again soon after, e.g., when panning back
+ * and forth, can use the finished work instead of decoding again.  The least recently salvaged
+ * entries are released once the capacity is reached.
+ *
+ * Methods may be called from any thread.
+ */
+class SalvagedBitmapCache {
+
+  public static final int DEFAULT_CAPACITY = 16;
+
+  private final int mCapacity;
+  private final LinkedHashMap<Tile, Entry> mEntries = new LinkedHashMap<>();
+
+  public SalvagedBitmapCache() {
+    this( DEFAULT_CAPACITY );
+  }
+
+  public SalvagedBitmapCache( int capacity ) {
+    mCapacity = capacity;
+  }
+
+  /**
+   * Takes ownership of the caller's reference to the handle.
+   */
+  public synchronized void put( Tile tile, int sampleSize, BitmapHandle bitmapHandle ) {
+    Entry previous = mEntries.remove( tile );
+    if( previous != null ) {
+      previous.bitmapHandle.release();
+    }
+    mEntries.put( tile, new Entry( sampleSize, bitmapHandle ) );
+    if( mEntries.size() > mCapacity ) {
+      Iterator<Map.Entry<Tile, Entry>> iterator = mEntries.entrySet().iterator();
+      Entry eldest = iterator.next().getValue();
+      iterator.remove();
+      eldest.bitmapHandle.release();
+    }
+  }
+
+  /**
+   * Removes and returns the handle for a tile at the same position, if one was decoded with the
+   * same sample size.  The caller owns the reference returned.
+   *
+   * @return The salvaged BitmapHandle, or null.
+   */
+  public synchronized BitmapHandle take( Tile tile, int sampleSize ) {
+    Entry entry = mEntries.get( tile );
+    if( entry == null || entry.sampleSize != sampleSize ) {
+      return null;
+    }
+    mEntries.remove( tile );
+    return entry.bitmapHandle;
+  }
+
+  public synchronized int size() {
+    return mEntries.size();
+  }
+
+  public synchronized void clear() {
+    for( Entry entry : mEntries.values() ) {
+      entry.bitmapHandle.release();
+    }
+    mEntries.clear();
+  }
+
+  private static class Entry {
+    public final int sampleSize;
+    public final BitmapHandle bitmapHandle;
+
+    public Entry( int sampleSize, BitmapHandle bitmapHandle ) {
+      this.sampleSize = sampleSize;
+      this.bitmapHandle = bitmapHandle;
+    }
+  }
+
+}
@@ -9,29 +9,53 @@ import android.view.animation.AnimationUtils;
 
 import com.qozix.tileview.detail.DetailLevel;
 import com.qozix.tileview.geom.FloatMathHelper;
+import com.qozix.tileview.graphics.AsyncBitmapProvider;
+import com.qozix.tileview.graphics.BitmapDeduplicator;
+import com.qozix.tileview.graphics.BitmapHandle;
 import com.qozix.tileview.graphics.BitmapProvider;
-import com.qozix.tileview.graphics.BitmapRecycler;
+import com.qozix.tileview.graphics.EncodedBitmapProvider;
+import com.qozix.tileview.graphics.SampledBitmapProvider;
 
 import java.lang.ref.WeakReference;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The lifecycle of a tile is a small state machine, advanced only by compare-and-set of an
+ * immutable record:
+ *
+ * <ul>
+ * <li>UNASSIGNED or RELEASED to PENDING_DECODE, on the UI thread, when the tile is executed.</li>
+ * <li>PENDING_DECODE to DECODED, on a decode thread, publishing the bitmap and its rects.</li>
+ * <li>any state to RELEASED, on the UI thread, when the tile is reset.</li>
+ * </ul>
+ *
+ * A decode that loses the race with a reset never becomes visible, and releases (or salvages)
+ * its own bitmap; a reset releases only a bitmap it took from a published record, so each
+ * bitmap is released exactly once.  Everything a decode thread produces is carried in the
+ * published record, so the UI thread never sees a half-updated tile.
+ */
 public class Tile {
 
   public enum State {
     UNASSIGNED,
     PENDING_DECODE,
-    DECODED
+    DECODED,
+    RELEASED
   }
 
   private static final int DEFAULT_TRANSITION_DURATION = 200;
 
-  private State mState = State.UNASSIGNED;
+  private static final StateRecord UNASSIGNED = new StateRecord( State.UNASSIGNED, null, 1, null );
+  private static final StateRecord RELEASED = new StateRecord( State.RELEASED, null, 1, null );
+
+  private final AtomicReference<StateRecord> mStateRecord = new AtomicReference<>( UNASSIGNED );
 
   private int mWidth;
   private int mHeight;
   private int mLeft;
   private int mTop;
-  private int mRight;
-  private int mBottom;
 
   private float mProgress;
 
@@ -40,12 +64,17 @@ public class Tile {
 
   private float mDetailLevelScale;
 
+  private boolean mIsBlank;
+  private int mBlankColor;
+  private Paint mBlankPaint;
+
+  private boolean mHasContentHash;
+  private long mContentHash;
+
   private Object mData;
-  private Bitmap mBitmap;
 
-  private Rect mIntrinsicRect = new Rect();
-  private Rect mBaseRect = new Rect();
-  private Rect mRelativeRect = new Rect();
+  private Rect mBaseRect;
+  private Rect mRelativeRect;
   private Rect mScaledRect = new Rect();
 
   public Long mRenderTimeStamp;
@@ -56,10 +85,22 @@ public class Tile {
 
   private Paint mPaint;
 
+  // only ever used on the UI thread, while drawing
+  private static final Paint UNFILTERED_PAINT = new Paint();
+
+  static {
+    UNFILTERED_PAINT.setFilterBitmap( false );
+  }
+
   private DetailLevel mDetailLevel;
 
   private WeakReference<TileRenderRunnable> mTileRenderRunnableWeakReference;
-  private WeakReference<BitmapRecycler> mBitmapRecyclerReference;
+
+  // the asynchronous request for the pending decode, if its provider can reprioritise it
+  private volatile AsyncBitmapProvider.Prioritizable mPrioritizableRequest;
+
+  // creates the handles of this tile's bitmaps, with whichever recycler the view has at the time
+  private volatile WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupReference;
 
   public Tile( int column, int row, int width, int height, Object data, DetailLevel detailLevel ) {
     mRow = row;
@@ -68,20 +109,25 @@ public class Tile {
     mHeight = height;
     mLeft = column * width;
     mTop = row * height;
-    mRight = mLeft + mWidth;
-    mBottom = mTop + mHeight;
     mData = data;
     mDetailLevel = detailLevel;
     mDetailLevelScale = mDetailLevel.getScale();
-    updateRects();
+    mBaseRect = new Rect( mLeft, mTop, mLeft + width, mTop + height );
+    mRelativeRect = getRelativeRect( mBaseRect );
+    mScaledRect.set( mRelativeRect );
   }
 
+  /**
+   * @return The width of the tile, or of its decoded bitmap once decoded, in detail level pixels.
+   */
   public int getWidth() {
-    return mWidth;
+    Decode decode = mStateRecord.get().decode;
+    return decode == null ? mWidth : decode.baseRect.width();
   }
 
   public int getHeight() {
-    return mHeight;
+    Decode decode = mStateRecord.get().decode;
+    return decode == null ? mHeight : decode.baseRect.height();
   }
 
   public int getLeft() {
@@ -105,19 +151,84 @@ public class Tile {
   }
 
   public Bitmap getBitmap() {
-    return mBitmap;
+    BitmapHandle bitmapHandle = getBitmapHandle();
+    return bitmapHandle == null ? null : bitmapHandle.getBitmap();
+  }
+
+  /**
+   * Returns the reference-counted handle of this tile's bitmap.  Anything that wants to keep
+   * using the bitmap after the tile is reset (a cache, a placeholder, another view) should
+   * {@link BitmapHandle#retain()} it, and release it when done.
+   *
+   * @return The handle of this tile's bitmap, or null if it has not been decoded.
+   */
+  public BitmapHandle getBitmapHandle() {
+    Decode decode = mStateRecord.get().decode;
+    return decode == null ? null : decode.bitmapHandle;
+  }
+
+  /**
+   * The sample size used (or to be used) to decode this tile's bitmap; 1 is full resolution.
+   *
+   * @return The sample size of this tile's bitmap.
+   */
+  public int getSampleSize() {
+    return mStateRecord.get().sampleSize;
+  }
+
+  /**
+   * Marks this tile as a solid color, so it will be filled rather than decoded.
+   *
+   * @param color The ARGB color to fill the tile with.
+   */
+  public void setBlankColor( int color ) {
+    mIsBlank = true;
+    mBlankColor = color;
+  }
+
+  public boolean getIsBlank() {
+    return mIsBlank;
+  }
+
+  /**
+   * @return True if this tile will cover its rect completely once faded in.
+   */
+  public boolean getIsOpaque() {
+    return !mIsBlank || (mBlankColor >>> 24) == 0xFF;
+  }
+
+  /**
+   * Supplies a hash of this tile's encoded bytes ahead of time (generally from a TileManifest),
+   * so that when tile deduplication is enabled, a matching resident Bitmap can be shared without
+   * reading the tile at all.
+   *
+   * @param contentHash A hash of the tile's encoded bytes, as computed by BitmapDeduplicator.
+   */
+  public void setContentHash( long contentHash ) {
+    mHasContentHash = true;
+    mContentHash = contentHash;
+  }
+
+  public boolean hasContentHash() {
+    return mHasContentHash;
+  }
+
+  public long getContentHash() {
+    return mContentHash;
   }
 
   public boolean hasBitmap() {
-    return mBitmap != null;
+    return mStateRecord.get().decode != null;
   }
 
   public Rect getBaseRect() {
-    return mBaseRect;
+    Decode decode = mStateRecord.get().decode;
+    return decode == null ? mBaseRect : decode.baseRect;
   }
 
   public Rect getRelativeRect() {
-    return mRelativeRect;
+    Decode decode = mStateRecord.get().decode;
+    return decode == null ? mRelativeRect : decode.relativeRect;
   }
 
   /**
@@ -136,25 +247,23 @@ public class Tile {
   }
 
   public Rect getScaledRect( float scale ) {
+    Rect relativeRect = getRelativeRect();
     mScaledRect.set(
-      (int) (mRelativeRect.left * scale),
-      (int) (mRelativeRect.top * scale),
-      (int) (mRelativeRect.right * scale),
-      (int) (mRelativeRect.bottom * scale)
+      (int) (relativeRect.left * scale),
+      (int) (relativeRect.top * scale),
+      (int) (relativeRect.right * scale),
+      (int) (relativeRect.bottom * scale)
     );
     return mScaledRect;
   }
 
-  private void updateRects() {
-    mIntrinsicRect.set( 0, 0, mWidth, mHeight );
-    mBaseRect.set( mLeft, mTop, mRight, mBottom );
-    mRelativeRect.set(
-      FloatMathHelper.unscale( mLeft, mDetailLevelScale ),
-      FloatMathHelper.unscale( mTop, mDetailLevelScale ),
-      FloatMathHelper.unscale( mRight, mDetailLevelScale ),
-      FloatMathHelper.unscale( mBottom, mDetailLevelScale )
+  private Rect getRelativeRect( Rect baseRect ) {
+    return new Rect(
+      FloatMathHelper.unscale( baseRect.left, mDetailLevelScale ),
+      FloatMathHelper.unscale( baseRect.top, mDetailLevelScale ),
+      FloatMathHelper.unscale( baseRect.right, mDetailLevelScale ),
+      FloatMathHelper.unscale( baseRect.bottom, mDetailLevelScale )
     );
-    mScaledRect.set( mRelativeRect );
   }
 
   public void setTransitionDuration( int transitionDuration ) {
@@ -162,28 +271,51 @@ public class Tile {
   }
 
   public State getState() {
-    return mState;
+    return mStateRecord.get().state;
   }
 
+  /**
+   * Resets the tile, discarding any decode, pending or finished.
+   *
+   * @param state UNASSIGNED or RELEASED.
+   * @throws IllegalArgumentException For PENDING_DECODE or DECODED, which only the tile can move itself to.
+   * @deprecated The state is managed by the tile; only a reset is supported.
+   */
+  @Deprecated
   public void setState( State state ) {
-    mState = state;
-  }
-
-  public void execute( TileRenderPoolExecutor tileRenderPoolExecutor ) {
-    execute( tileRenderPoolExecutor, null );
+    if( state != State.UNASSIGNED && state != State.RELEASED ) {
+      throw new IllegalArgumentException( "A tile can only be reset to UNASSIGNED or RELEASED, not " + state );
+    }
+    reset();
   }
 
-  public void execute( TileRenderPoolExecutor tileRenderPoolExecutor, BitmapRecycler recycler ) {
-    if(mState != State.UNASSIGNED){
+  void execute( TileRenderCoordinator tileRenderCoordinator ) {
+    StateRecord current = mStateRecord.get();
+    if( current.state != State.UNASSIGNED && current.state != State.RELEASED ) {
+      return;
+    }
+    // blank tiles have nothing to decode, and can be drawn immediately
+    if( mIsBlank ) {
+      mStateRecord.compareAndSet( current, new StateRecord( State.DECODED, null, 1, null ) );
+      return;
+    }
+    StateRecord pending = new StateRecord( State.PENDING_DECODE, new CancellationToken(), mDetailLevel.getSampleSize(), null );
+    if( !mStateRecord.compareAndSet( current, pending ) ) {
       return;
     }
-    mState = State.PENDING_DECODE;
+    // transitions are set up now, on the UI thread, so the tile fades in from the first frame it's drawn
+    TileCanvasViewGroup tileCanvasViewGroup = tileRenderCoordinator.getTileCanvasViewGroup();
+    mTileCanvasViewGroupReference = new WeakReference<>( tileCanvasViewGroup );
+    if( tileCanvasViewGroup != null ) {
+      setTransitionsEnabled( tileCanvasViewGroup.getTransitionsEnabled() );
+      setTransitionDuration( tileCanvasViewGroup.getTransitionDuration() );
+    }
     TileRenderRunnable runnable = new TileRenderRunnable();
     mTileRenderRunnableWeakReference = new WeakReference<>( runnable );
-    mBitmapRecyclerReference = new WeakReference<>( recycler );
     runnable.setTile( this );
-    runnable.setTileRenderPoolExecutor( tileRenderPoolExecutor );
-    tileRenderPoolExecutor.execute( runnable );
+    runnable.setCancellationToken( pending.cancellationToken );
+    runnable.setTileRenderCoordinator( tileRenderCoordinator );
+    tileRenderCoordinator.submit( this, runnable );
   }
 
   public void computeProgress(){
@@ -229,17 +361,346 @@ public class Tile {
     return mPaint;
   }
 
-  void generateBitmap( Context context, BitmapProvider bitmapProvider ) {
-    if( mBitmap != null ) {
-      return;
+  /**
+   * Returns the token that signals this tile's decode is no longer needed.  BitmapProviders doing
+   * slow i/o should check it periodically and give up early once it reports cancellation.
+   *
+   * @return The CancellationToken for the current decode, or null if the tile hasn't been queued.
+   */
+  public CancellationToken getCancellationToken() {
+    return mStateRecord.get().cancellationToken;
+  }
+
+  /**
+   * Decodes the bitmap for the pending decode identified by the token, and publishes it.
+   *
+   * @param bitmapDeduplicator  If not null, identical tiles will share a single Bitmap.
+   * @param salvagedBitmapCache If not null, decodes that finish after this tile is cancelled are kept here,
+   *                            and a salvaged decode for this position is used instead of decoding again.
+   * @param cancellationToken   The token of the pending decode this work was started for.
+   * @throws CancellationException If that decode was cancelled or superseded; the tile is left untouched.
+   */
+  void generateBitmap( Context context, BitmapProvider bitmapProvider, BitmapDeduplicator bitmapDeduplicator, SalvagedBitmapCache salvagedBitmapCache, CancellationToken cancellationToken ) {
+    StateRecord pending = getPendingRecord( cancellationToken );
+    int sampleSize = pending.sampleSize;
+    if( sampleSize > 1 && !(bitmapProvider instanceof SampledBitmapProvider) && !(bitmapProvider instanceof EncodedBitmapProvider) ) {
+      sampleSize = 1;
+    }
+    BitmapHandle bitmapHandle = salvagedBitmapCache == null ? null : salvagedBitmapCache.take( this, sampleSize );
+    if( bitmapHandle == null ) {
+      cancellationToken.throwIfCancelled();
+      if( bitmapDeduplicator == null ) {
+        bitmapHandle = obtainBitmapHandle( getBitmapFromProvider( context, bitmapProvider, cancellationToken, sampleSize ) );
+      } else {
+        bitmapHandle = getSharedBitmapHandle( context, bitmapProvider, bitmapDeduplicator, cancellationToken, sampleSize );
+      }
+    }
+    publish( pending, sampleSize, bitmapHandle, salvagedBitmapCache );
+  }
+
+  /**
+   * Starts an asynchronous request for the pending decode identified by the token.  The result is
+   * published as generateBitmap would, then reported to the runnable exactly once: with null on
+   * success, a CancellationException if the decode was cancelled or superseded, or the failure.
+   * Cancelling the token cancels the request, and reports it straight away, so a provider that
+   * never calls back after a cancel doesn't hold up the render batch.
+   */
+  void requestBitmap( Context context, AsyncBitmapProvider bitmapProvider, final SalvagedBitmapCache salvagedBitmapCache, final CancellationToken cancellationToken, final TileRenderRunnable tileRenderRunnable ) {
+    final AtomicBoolean isFinished = new AtomicBoolean();
+    try {
+      final StateRecord pending = getPendingRecord( cancellationToken );
+      final int sampleSize = pending.sampleSize;
+      BitmapHandle salvaged = salvagedBitmapCache == null ? null : salvagedBitmapCache.take( this, sampleSize );
+      if( salvaged != null ) {
+        publish( pending, sampleSize, salvaged, salvagedBitmapCache );
+        tileRenderRunnable.onRequestFinished( null );
+        return;
+      }
+      cancellationToken.throwIfCancelled();
+      final AsyncBitmapProvider.Cancellable cancellable = bitmapProvider.requestBitmap( this, context, sampleSize, new AsyncBitmapProvider.Callback() {
+        @Override
+        public void onBitmapLoaded( Bitmap bitmap ) {
+          onBitmapLoaded( bitmap, getDeliveredSampleSize( sampleSize, bitmap ) );
+        }
+
+        @Override
+        public void onBitmapLoaded( Bitmap bitmap, int deliveredSampleSize ) {
+          Throwable throwable = null;
+          try {
+            BitmapHandle bitmapHandle = obtainBitmapHandle( bitmap );
+            if( isFinished.get() ) {
+              // cancelled while loading; the work is done, so it's kept for the next tile at this position
+              if( salvagedBitmapCache != null ) {
+                salvagedBitmapCache.put( Tile.this, deliveredSampleSize, bitmapHandle );
+              } else {
+                bitmapHandle.release();
+              }
+              return;
+            }
+            publish( pending, deliveredSampleSize, bitmapHandle, salvagedBitmapCache );
+          } catch( Throwable t ) {
+            throwable = t;
+          }
+          if( isFinished.compareAndSet( false, true ) ) {
+            tileRenderRunnable.onRequestFinished( throwable );
+          }
+        }
+
+        @Override
+        public void onBitmapFailed( Throwable throwable ) {
+          if( isFinished.compareAndSet( false, true ) ) {
+            tileRenderRunnable.onRequestFinished( throwable == null ? new MissingTileException( "AsyncBitmapProvider failed without a cause for tile " + toShortString() ) : throwable );
+          }
+        }
+
+        @Override
+        public void onBitmapChanged( Bitmap bitmap ) {
+          onBitmapChanged( bitmap, getDeliveredSampleSize( sampleSize, bitmap ) );
+        }
+
+        @Override
+        public void onBitmapChanged( Bitmap bitmap, int deliveredSampleSize ) {
+          if( bitmap == null ) {
+            return;
+          }
+          BitmapHandle bitmapHandle = obtainBitmapHandle( bitmap );
+          TileRenderCoordinator tileRenderCoordinator = tileRenderRunnable.getTileRenderCoordinator();
+          TileCanvasViewGroup tileCanvasViewGroup = tileRenderCoordinator == null ? null : tileRenderCoordinator.getTileCanvasViewGroup();
+          if( tileCanvasViewGroup == null || !isBitmapInUse() ) {
+            bitmapHandle.release();
+            return;
+          }
+          tileCanvasViewGroup.onTileBitmapChanged( Tile.this, cancellationToken, bitmapHandle, deliveredSampleSize );
+        }
+
+        @Override
+        public boolean isBitmapInUse() {
+          StateRecord current = mStateRecord.get();
+          return current.state == State.DECODED && current.cancellationToken == cancellationToken;
+        }
+      } );
+      mPrioritizableRequest = cancellable instanceof AsyncBitmapProvider.Prioritizable ? (AsyncBitmapProvider.Prioritizable) cancellable : null;
+      cancellationToken.addOnCancelListener( new Runnable() {
+        @Override
+        public void run() {
+          if( mPrioritizableRequest == cancellable ) {
+            mPrioritizableRequest = null;
+          }
+          if( isFinished.compareAndSet( false, true ) ) {
+            if( cancellable != null ) {
+              cancellable.cancel();
+            }
+            tileRenderRunnable.onRequestFinished( new CancellationException() );
+          }
+        }
+      } );
+    } catch( Throwable throwable ) {
+      if( isFinished.compareAndSet( false, true ) ) {
+        tileRenderRunnable.onRequestFinished( throwable );
+      }
+    }
+  }
+
+  /**
+   * Moves the asynchronous request for the pending decode ahead of the provider's other waiting
+   * requests, for a tile whose render has left the executor but is still waiting on its provider.
+   *
+   * @return True if there's a pending request the provider can reprioritise.
+   */
+  boolean prioritizeBitmapRequest() {
+    AsyncBitmapProvider.Prioritizable prioritizableRequest = mPrioritizableRequest;
+    if( prioritizableRequest == null || mStateRecord.get().state != State.PENDING_DECODE ) {
+      return false;
     }
-    mBitmap = bitmapProvider.getBitmap( this, context );
-    mWidth = mBitmap.getWidth();
-    mHeight = mBitmap.getHeight();
-    mRight = mLeft + mWidth;
-    mBottom = mTop + mHeight;
-    updateRects();
-    mState = State.DECODED;
+    prioritizableRequest.prioritize();
+    return true;
+  }
+
+  /**
+   * Publishes a salvaged decode for the pending decode identified by the token, if there is one.
+   *
+   * @return True if a salvaged decode was published.
+   * @throws CancellationException If that decode was cancelled or superseded.
+   */
+  boolean publishSalvagedBitmap( SalvagedBitmapCache salvagedBitmapCache, CancellationToken cancellationToken ) {
+    StateRecord pending = getPendingRecord( cancellationToken );
+    BitmapHandle bitmapHandle = salvagedBitmapCache == null ? null : salvagedBitmapCache.take( this, pending.sampleSize );
+    if( bitmapHandle == null ) {
+      return false;
+    }
+    publish( pending, pending.sampleSize, bitmapHandle, salvagedBitmapCache );
+    return true;
+  }
+
+  /**
+   * Publishes a bitmap delivered for the pending decode identified by the token, e.g., by a BatchBitmapProvider.
+   *
+   * @param sampleSize The sample size the bitmap was asked for at.
+   * @throws CancellationException If that decode was cancelled or superseded; the bitmap has been salvaged or released.
+   * @throws MissingTileException  If the bitmap is null.
+   */
+  void publishBitmap( Bitmap bitmap, int sampleSize, SalvagedBitmapCache salvagedBitmapCache, CancellationToken cancellationToken ) {
+    BitmapHandle bitmapHandle = obtainBitmapHandle( bitmap );
+    int deliveredSampleSize = getDeliveredSampleSize( sampleSize, bitmap );
+    StateRecord pending;
+    try {
+      pending = getPendingRecord( cancellationToken );
+    } catch( CancellationException e ) {
+      if( salvagedBitmapCache != null ) {
+        salvagedBitmapCache.put( this, deliveredSampleSize, bitmapHandle );
+      } else {
+        bitmapHandle.release();
+      }
+      throw e;
+    }
+    publish( pending, deliveredSampleSize, bitmapHandle, salvagedBitmapCache );
+  }
+
+  /**
+   * Asynchronous providers may ignore the sample size they're asked for.  A bitmap that's wider or
+   * taller than the sampled tile could be, rounding up as decoders do, was delivered at full
+   * resolution.  Edge tiles may be smaller than the tile size, so one delivered at full resolution
+   * can still pass as sampled; providers that know should report the sample size they used.
+   */
+  private int getDeliveredSampleSize( int sampleSize, Bitmap bitmap ) {
+    if( sampleSize <= 1 || bitmap == null ) {
+      return sampleSize;
+    }
+    int sampledWidth = (mWidth + sampleSize - 1) / sampleSize;
+    int sampledHeight = (mHeight + sampleSize - 1) / sampleSize;
+    if( bitmap.getWidth() > sampledWidth || bitmap.getHeight() > sampledHeight ) {
+      return 1;
+    }
+    return sampleSize;
+  }
+
+  /**
+   * @throws CancellationException If the token isn't that of the tile's current pending decode.
+   */
+  private StateRecord getPendingRecord( CancellationToken cancellationToken ) {
+    StateRecord pending = mStateRecord.get();
+    if( cancellationToken == null || pending.state != State.PENDING_DECODE || pending.cancellationToken != cancellationToken ) {
+      throw new CancellationException();
+    }
+    return pending;
+  }
+
+  /**
+   * Publishes a decoded bitmap, unless the pending decode was cancelled or superseded meanwhile.
+   *
+   * @throws CancellationException If the bitmap couldn't be published; it's been salvaged or released.
+   */
+  private void publish( StateRecord pending, int sampleSize, BitmapHandle bitmapHandle, SalvagedBitmapCache salvagedBitmapCache ) {
+    CancellationToken cancellationToken = pending.cancellationToken;
+    StateRecord decoded = new StateRecord( State.DECODED, cancellationToken, sampleSize, createDecode( bitmapHandle, sampleSize ) );
+    if( cancellationToken.isCancelRequested() || !mStateRecord.compareAndSet( pending, decoded ) ) {
+      // reset before the result could be published; it was never visible, so it's still ours to dispose of
+      if( salvagedBitmapCache != null ) {
+        // the work is already done; keep it for the next tile at this position rather than discard it
+        salvagedBitmapCache.put( this, sampleSize, bitmapHandle );
+        cancellationToken.setSalvaged();
+      } else {
+        bitmapHandle.release();
+      }
+      throw new CancellationException();
+    }
+  }
+
+  private Decode createDecode( BitmapHandle bitmapHandle, int sampleSize ) {
+    Bitmap bitmap = bitmapHandle.getBitmap();
+    // a subsampled bitmap still covers the tile's full area
+    Rect baseRect = new Rect( mLeft, mTop, mLeft + bitmap.getWidth() * sampleSize, mTop + bitmap.getHeight() * sampleSize );
+    return new Decode( bitmapHandle, new Rect( 0, 0, bitmap.getWidth(), bitmap.getHeight() ), baseRect, getRelativeRect( baseRect ) );
+  }
+
+  /**
+   * Swaps a new bitmap in for the decode identified by the token, e.g., after the source's content
+   * changed.  Called on the UI thread, so the bitmap replaced isn't recycled mid-draw.
+   *
+   * @return False if the tile no longer holds that decode; the new bitmap has been released.
+   */
+  boolean replaceBitmap( CancellationToken cancellationToken, BitmapHandle bitmapHandle, int sampleSize ) {
+    StateRecord current = mStateRecord.get();
+    if( current.state != State.DECODED || current.cancellationToken != cancellationToken || current.decode == null ) {
+      bitmapHandle.release();
+      return false;
+    }
+    StateRecord replaced = new StateRecord( State.DECODED, cancellationToken, sampleSize, createDecode( bitmapHandle, sampleSize ) );
+    if( !mStateRecord.compareAndSet( current, replaced ) ) {
+      bitmapHandle.release();
+      return false;
+    }
+    current.decode.bitmapHandle.release();
+    return true;
+  }
+
+  private BitmapHandle obtainBitmapHandle( Bitmap bitmap ) {
+    if( bitmap == null ) {
+      throw new MissingTileException( "BitmapProvider returned a null Bitmap for tile " + toShortString() );
+    }
+    TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupReference == null ? null : mTileCanvasViewGroupReference.get();
+    // the view is gone; nothing will draw the bitmap, and the last release just lets it go
+    return tileCanvasViewGroup == null ? new BitmapHandle( bitmap, null ) : tileCanvasViewGroup.obtainBitmapHandle( bitmap );
+  }
+
+  private Bitmap getBitmapFromProvider( Context context, BitmapProvider bitmapProvider, CancellationToken cancellationToken, int sampleSize ) {
+    if( sampleSize > 1 ) {
+      if( bitmapProvider instanceof SampledBitmapProvider ) {
+        return ((SampledBitmapProvider) bitmapProvider).getBitmap( this, context, sampleSize );
+      }
+      EncodedBitmapProvider encodedBitmapProvider = (EncodedBitmapProvider) bitmapProvider;
+      byte[] encodedBitmap = encodedBitmapProvider.getEncodedBitmap( this, context );
+      commitOrThrow( cancellationToken );
+      return encodedBitmap == null ? null : encodedBitmapProvider.decodeBitmap( this, encodedBitmap, sampleSize );
+    }
+    return bitmapProvider.getBitmap( this, context );
+  }
+
+  // the i/o stage is over; once committed, the decode is allowed to finish even if cancelled
+  private static void commitOrThrow( CancellationToken cancellationToken ) {
+    if( !cancellationToken.commit() ) {
+      throw new CancellationException();
+    }
+  }
+
+  private BitmapHandle getSharedBitmapHandle( Context context, BitmapProvider bitmapProvider, BitmapDeduplicator bitmapDeduplicator, CancellationToken cancellationToken, int sampleSize ) {
+    // with a known hash, a matching resident bitmap can be used without any i/o
+    if( mHasContentHash ) {
+      BitmapHandle bitmapHandle = bitmapDeduplicator.acquire( mContentHash, sampleSize );
+      if( bitmapHandle != null ) {
+        return bitmapHandle;
+      }
+    }
+    Bitmap decoded;
+    if( bitmapProvider instanceof EncodedBitmapProvider ) {
+      // otherwise the hash is computed between the i/o and decode stages, so a match skips the decode
+      EncodedBitmapProvider encodedBitmapProvider = (EncodedBitmapProvider) bitmapProvider;
+      byte[] encodedBitmap = encodedBitmapProvider.getEncodedBitmap( this, context );
+      commitOrThrow( cancellationToken );
+      if( encodedBitmap == null ) {
+        return obtainBitmapHandle( null );
+      }
+      if( !mHasContentHash ) {
+        setContentHash( BitmapDeduplicator.computeContentHash( encodedBitmap ) );
+        BitmapHandle bitmapHandle = bitmapDeduplicator.acquire( mContentHash, sampleSize );
+        if( bitmapHandle != null ) {
+          return bitmapHandle;
+        }
+      }
+      decoded = encodedBitmapProvider.decodeBitmap( this, encodedBitmap, sampleSize );
+    } else {
+      decoded = getBitmapFromProvider( context, bitmapProvider, cancellationToken, sampleSize );
+    }
+    BitmapHandle bitmapHandle = obtainBitmapHandle( decoded );
+    if( !mHasContentHash ) {
+      return bitmapHandle;
+    }
+    BitmapHandle shared = bitmapDeduplicator.share( mContentHash, sampleSize, bitmapHandle );
+    if( shared != bitmapHandle ) {
+      // another thread decoded the same data first
+      bitmapHandle.release();
+    }
+    return shared;
   }
 
   /**
@@ -251,31 +712,53 @@ public class Tile {
   }
 
   void reset() {
-    if( mState == State.PENDING_DECODE ) {
+    mRenderTimeStamp = null;
+    StateRecord previous = mStateRecord.getAndSet( RELEASED );
+    if( previous.state == State.PENDING_DECODE ) {
+      previous.cancellationToken.cancel();
       if ( mTileRenderRunnableWeakReference != null ) {
         TileRenderRunnable runnable = mTileRenderRunnableWeakReference.get();
         if( runnable != null ) {
-          runnable.cancel( true );
+          runnable.cancel( false );
         }
       }
     }
-    mState = State.UNASSIGNED;
-    mRenderTimeStamp = null;
-    if( mBitmap != null ) {
-      BitmapRecycler recycler = mBitmapRecyclerReference.get();
-      if( recycler != null ) {
-        recycler.recycleBitmap( mBitmap );
-      }
+    if( previous.decode != null ) {
+      // the bitmap is only recycled once every holder, e.g., other tiles sharing it, has let go
+      previous.decode.bitmapHandle.release();
     }
-    mBitmap = null;
   }
 
   /**
    * @param canvas The canvas the tile's bitmap should be drawn into
    */
   public void draw( Canvas canvas ) {
-    if( mBitmap != null && !mBitmap.isRecycled() ) {
-      canvas.drawBitmap( mBitmap, mIntrinsicRect, mRelativeRect, getPaint() );
+    draw( canvas, true );
+  }
+
+  /**
+   * @param canvas       The canvas the tile's bitmap should be drawn into
+   * @param filterBitmap False to draw the bitmap with nearest-neighbour sampling and no fade, e.g., while moving.
+   */
+  public void draw( Canvas canvas, boolean filterBitmap ) {
+    StateRecord current = mStateRecord.get();
+    if( mIsBlank ) {
+      if( current.state == State.DECODED ) {
+        if( mBlankPaint == null ) {
+          mBlankPaint = new Paint();
+          mBlankPaint.setColor( mBlankColor );
+        }
+        canvas.drawRect( mRelativeRect, mBlankPaint );
+      }
+      return;
+    }
+    Decode decode = current.decode;
+    if( decode == null ) {
+      return;
+    }
+    Bitmap bitmap = decode.bitmapHandle.getBitmap();
+    if( bitmap != null && !bitmap.isRecycled() ) {
+      canvas.drawBitmap( bitmap, decode.intrinsicRect, decode.relativeRect, filterBitmap ? getPaint() : UNFILTERED_PAINT );
     }
   }
 
@@ -306,4 +789,38 @@ public class Tile {
     return mColumn + ":" + mRow;
   }
 
+  /**
+   * An immutable snapshot of the lifecycle; a new record is published for each transition.
+   */
+  private static class StateRecord {
+    public final State state;
+    public final CancellationToken cancellationToken;
+    public final int sampleSize;
+    public final Decode decode;
+
+    public StateRecord( State state, CancellationToken cancellationToken, int sampleSize, Decode decode ) {
+      this.state = state;
+      this.cancellationToken = cancellationToken;
+      this.sampleSize = sampleSize;
+      this.decode = decode;
+    }
+  }
+
+  /**
+   * The result of a decode: the bitmap and the rects it's drawn with.  Never modified once published.
+   */
+  private static class Decode {
+    public final BitmapHandle bitmapHandle;
+    public final Rect intrinsicRect;
+    public final Rect baseRect;
+    public final Rect relativeRect;
+
+    public Decode( BitmapHandle bitmapHandle, Rect intrinsicRect, Rect baseRect, Rect relativeRect ) {
+      this.bitmapHandle = bitmapHandle;
+      this.intrinsicRect = intrinsicRect;
+      this.baseRect = baseRect;
+      this.relativeRect = relativeRect;
+    }
+  }
+
 }
@@ -0,0 +1,112 @@
+package com.qozix.tileview.tiles;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.qozix.tileview.graphics.BatchBitmapProvider;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Loads a group of pending tiles through a BatchBitmapProvider in a single call, on the thread of
+ * the runnable that leads the batch.  Each tile is published and finished as its bitmap arrives,
+ * so it doesn't wait on the rest of the batch.
+ */
+class TileBatchRequest implements BatchBitmapProvider.Callback {
+
+  private final List<TileRenderRunnable> mTileRenderRunnables;
+  private final SalvagedBitmapCache mSalvagedBitmapCache;
+  private final int mSampleSize;
+
+  // guarded by itself; a tile is only finished by whoever removes it
+  private final Map<Tile, TileRenderRunnable> mOutstanding = new IdentityHashMap<>();
+
+  /**
+   * @param tileRenderRunnables The runnables of the tiles in the batch, the leader's first.
+   */
+  public TileBatchRequest( List<TileRenderRunnable> tileRenderRunnables, SalvagedBitmapCache salvagedBitmapCache, int sampleSize ) {
+    mTileRenderRunnables = tileRenderRunnables;
+    mSalvagedBitmapCache = salvagedBitmapCache;
+    mSampleSize = sampleSize;
+  }
+
+  /**
+   * Returns once the provider has returned; every tile in the batch is finished by then.
+   */
+  public void execute( Context context, BatchBitmapProvider batchBitmapProvider ) {
+    List<Tile> tiles = new ArrayList<>( mTileRenderRunnables.size() );
+    for( TileRenderRunnable tileRenderRunnable : mTileRenderRunnables ) {
+      Tile tile = tileRenderRunnable.getTile();
+      if( tile == null ) {
+        tileRenderRunnable.onRequestFinished( new CancellationException() );
+        continue;
+      }
+      try {
+        if( tile.publishSalvagedBitmap( mSalvagedBitmapCache, tileRenderRunnable.getCancellationToken() ) ) {
+          tileRenderRunnable.onRequestFinished( null );
+          continue;
+        }
+      } catch( CancellationException e ) {
+        tileRenderRunnable.onRequestFinished( e );
+        continue;
+      }
+      synchronized( mOutstanding ) {
+        mOutstanding.put( tile, tileRenderRunnable );
+      }
+      tiles.add( tile );
+    }
+    if( tiles.isEmpty() ) {
+      return;
+    }
+    Throwable failure = null;
+    try {
+      batchBitmapProvider.getBitmaps( tiles, context, mSampleSize, this );
+    } catch( Throwable throwable ) {
+      failure = throwable;
+    }
+    List<TileRenderRunnable> unreported;
+    synchronized( mOutstanding ) {
+      unreported = new ArrayList<>( mOutstanding.values() );
+      mOutstanding.clear();
+    }
+    for( TileRenderRunnable tileRenderRunnable : unreported ) {
+      Tile tile = tileRenderRunnable.getTile();
+      tileRenderRunnable.onRequestFinished( failure != null ? failure : new MissingTileException( "BatchBitmapProvider didn't deliver tile " + (tile == null ? null : tile.toShortString()) ) );
+    }
+  }
+
+  private TileRenderRunnable remove( Tile tile ) {
+    synchronized( mOutstanding ) {
+      return mOutstanding.remove( tile );
+    }
+  }
+
+  @Override
+  public void onBitmapLoaded( Tile tile, Bitmap bitmap ) {
+    TileRenderRunnable tileRenderRunnable = remove( tile );
+    if( tileRenderRunnable == null ) {
+      // reported twice, or after the batch returned
+      return;
+    }
+    Throwable throwable = null;
+    try {
+      tile.publishBitmap( bitmap, mSampleSize, mSalvagedBitmapCache, tileRenderRunnable.getCancellationToken() );
+    } catch( Throwable t ) {
+      throwable = t;
+    }
+    tileRenderRunnable.onRequestFinished( throwable );
+  }
+
+  @Override
+  public void onBitmapFailed( Tile tile, Throwable throwable ) {
+    TileRenderRunnable tileRenderRunnable = remove( tile );
+    if( tileRenderRunnable != null ) {
+      tileRenderRunnable.onRequestFinished( throwable == null ? new MissingTileException( "BatchBitmapProvider failed without a cause for tile " + tile.toShortString() ) : throwable );
+    }
+  }
+
+}
@@ -1,15 +1,17 @@
 package com.qozix.tileview.tiles;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.graphics.Region;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
+import android.os.SystemClock;
 import android.view.ViewGroup;
 
 import com.qozix.tileview.detail.DetailLevel;
+import com.qozix.tileview.graphics.BitmapDeduplicator;
+import com.qozix.tileview.graphics.BitmapHandle;
 import com.qozix.tileview.graphics.BitmapRecyclerDefault;
 import com.qozix.tileview.graphics.BitmapRecycler;
 import com.qozix.tileview.graphics.BitmapProvider;
@@ -19,6 +21,11 @@ import java.lang.ref.WeakReference;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class extends ViewGroup for legacy reasons, and may be changed to extend View at
@@ -26,10 +33,9 @@ import java.util.Set;
  */
 public class TileCanvasViewGroup extends ViewGroup {
 
-  private static final int RENDER_FLAG = 1;
-
   public static final int DEFAULT_RENDER_BUFFER = 250;
   public static final int FAST_RENDER_BUFFER = 15;
+  public static final int DEFAULT_TILE_BATCH_SIZE = 16;
 
   private static final int DEFAULT_TRANSITION_DURATION = 200;
 
@@ -37,6 +43,7 @@ public class TileCanvasViewGroup extends ViewGroup {
 
   private BitmapProvider mBitmapProvider;
   private BitmapRecycler mBitmapRecycler;
+  private BitmapDeduplicator mBitmapDeduplicator;
 
   private DetailLevel mDetailLevelToRender;
 
@@ -47,29 +54,69 @@ public class TileCanvasViewGroup extends ViewGroup {
   private boolean mShouldRecycleBitmaps = true;
 
   private boolean mTransitionsEnabled = true;
+
+  private boolean mShouldReduceQualityInMotion;
+  private boolean mIsInMotion;
+  private boolean mIsFlinging;
   private int mTransitionDuration = DEFAULT_TRANSITION_DURATION;
 
-  private TileRenderThrottleHandler mTileRenderThrottleHandler;
+  private TileRenderScheduler mTileRenderScheduler;
+  private Handler mHandler;
   private TileRenderListener mTileRenderListener;
   private TileRenderThrowableListener mTileRenderThrowableListener;
+  private TileRenderLatencyListener mTileRenderLatencyListener;
+  private TileRenderBatchListener mTileRenderBatchListener;
+
+  private ConcurrentLinkedQueue<RenderBatch> mFinishedRenderBatches = new ConcurrentLinkedQueue<>();
 
   private int mRenderBuffer = DEFAULT_RENDER_BUFFER;
 
-  private TileRenderPoolExecutor mTileRenderPoolExecutor;
+  private TileRenderCoordinator mTileRenderCoordinator;
+
+  private SalvagedBitmapCache mSalvagedBitmapCache = new SalvagedBitmapCache();
+  private AtomicLong mWastedDecodeNanos = new AtomicLong();
+  private AtomicInteger mWastedDecodeCount = new AtomicInteger();
+  private AtomicInteger mSalvagedDecodeCount = new AtomicInteger();
+
+  private DecodeTimeStatistics mDecodeTimeStatistics = new DecodeTimeStatistics();
+
+  private TileFailurePolicy mTileFailurePolicy = new TileFailurePolicy();
+
+  private volatile int mTileBatchSize = DEFAULT_TILE_BATCH_SIZE;
+  private volatile long mTileBatchWait;
+  private boolean mHasTilesToRetry;
+  private long mRetryTime;
 
   private Set<Tile> mTilesInCurrentViewport = new HashSet<>();
   private Set<Tile> mPreviouslyDrawnTiles = new HashSet<>();
   private Set<Tile> mDecodedTilesInCurrentViewport = new HashSet<>();
 
-  private Region mDirtyRegion = new Region();
+  private TileCoverageMask mTileCoverageMask = new TileCoverageMask();
+  private Rect mViewport = new Rect();
 
   private boolean mHasInvalidatedOnCleanOnce;
 
+  private Rect mAddedTilesRect = new Rect();
+  private Rect mDirtyTilesRect = new Rect();
+  private Rect mDrawnPreviousTilesRect = new Rect();
+  private Rect mClipBounds = new Rect();
+
+  private int mFrameTileDrawCount;
+  private long mFrameDrawnArea;
+  private int mLastFrameTileDrawCount;
+  private float mLastFrameOverdraw;
+
+  private int mBurstMessageCountAtStart;
+  private int mBurstDrainCountAtStart;
+  private int mBurstTileCount;
+  private int mBurstFrameCount;
+
   public TileCanvasViewGroup( Context context ) {
     super( context );
     setWillNotDraw( false );
-    mTileRenderThrottleHandler = new TileRenderThrottleHandler( this );
-    mTileRenderPoolExecutor = new TileRenderPoolExecutor();
+    mTileRenderScheduler = new TileRenderScheduler( this );
+    mHandler = new Handler( Looper.getMainLooper() );
+    mTileRenderCoordinator = new TileRenderCoordinator( new TileRenderPoolExecutor() );
   }
 
   @Override
@@ -98,6 +145,55 @@ public class TileCanvasViewGroup extends ViewGroup {
     mTransitionsEnabled = enabled;
   }
 
+  /**
+   * When enabled, tiles are drawn with nearest-neighbour sampling and without fade transitions
+   * while the TileView is being dragged, flung or scaled, and tiles from the previous detail
+   * level aren't drawn under the current ones.  Full quality is restored when motion ends.
+   *
+   * @param shouldReduceQualityInMotion True to trade drawing quality for smoother frames while moving.
+   */
+  public void setShouldReduceQualityInMotion( boolean shouldReduceQualityInMotion ) {
+    mShouldReduceQualityInMotion = shouldReduceQualityInMotion;
+    invalidate();
+  }
+
+  public boolean getShouldReduceQualityInMotion() {
+    return mShouldReduceQualityInMotion;
+  }
+
+  /**
+   * Informs the TileCanvasViewGroup whether the content is currently being dragged, flung or scaled.
+   *
+   * @param isInMotion True if the content is moving.
+   */
+  public void setIsInMotion( boolean isInMotion ) {
+    if( mIsInMotion == isInMotion ) {
+      return;
+    }
+    mIsInMotion = isInMotion;
+    if( mShouldReduceQualityInMotion ) {
+      invalidate();
+    }
+  }
+
+  /**
+   * Informs the TileCanvasViewGroup whether the content is being flung.  Render requests made
+   * during a fling are held until it ends, since starting a render mid-fling makes it stutter.
+   *
+   * @param isFlinging True if the content is being flung.
+   */
+  public void setIsFlinging( boolean isFlinging ) {
+    mIsFlinging = isFlinging;
+  }
+
+  public boolean getIsFlinging() {
+    return mIsFlinging;
+  }
+
+  private boolean getIsDrawingReducedQuality() {
+    return mIsInMotion && mShouldReduceQualityInMotion;
+  }
+
   public int getTransitionDuration() {
     return mTransitionDuration;
   }
@@ -128,18 +224,127 @@ public class TileCanvasViewGroup extends ViewGroup {
     mBitmapRecycler = bitmapRecycler;
   }
 
+  /**
+   * Wraps a newly decoded tile bitmap in a handle holding its first reference.  Every tile bitmap
+   * goes through here, so the current BitmapRecycler is the one run when its last holder, among
+   * the current, previous and cached tile sets, releases it.  May be called from any thread.
+   *
+   * @param bitmap The decoded bitmap.
+   * @return A handle owned by the caller.
+   */
+  BitmapHandle obtainBitmapHandle( Bitmap bitmap ) {
+    return new BitmapHandle( bitmap, getBitmapRecycler() );
+  }
+
+  /**
+   * When enabled, tiles whose encoded bytes are identical share a single decoded Bitmap.  Matches
+   * are found by a content hash, either supplied by a TileManifest or computed after the tile is
+   * read, which requires a BitmapProvider that implements EncodedBitmapProvider.
+   *
+   * @param enabled True to share Bitmaps between identical tiles.
+   */
+  public void setTileDeduplicationEnabled( boolean enabled ) {
+    if( enabled == (mBitmapDeduplicator != null) ) {
+      return;
+    }
+    // tiles already holding shared bitmaps keep their own reference to the deduplicator
+    mBitmapDeduplicator = enabled ? new BitmapDeduplicator() : null;
+  }
+
+  public boolean getTileDeduplicationEnabled() {
+    return mBitmapDeduplicator != null;
+  }
+
+  /**
+   * @return The BitmapDeduplicator used to share tile Bitmaps, or null if deduplication is disabled.
+   */
+  public BitmapDeduplicator getBitmapDeduplicator() {
+    return mBitmapDeduplicator;
+  }
+
   public void setTileRenderListener( TileRenderListener tileRenderListener ) {
     mTileRenderListener = tileRenderListener;
   }
 
+  /**
+   * Receives each render batch once all its tiles are decoded, failed or dropped, with its duration and tile counts.
+   */
+  public void setTileRenderBatchListener( TileRenderBatchListener tileRenderBatchListener ) {
+    mTileRenderBatchListener = tileRenderBatchListener;
+  }
+
+  /**
+   * Replaces the executor tiles are decoded on.  Outstanding renders are cancelled, the previous
+   * executor is shut down, and rendering starts again on the new one.
+   *
+   * @param tileRenderExecutor The executor to decode tiles with; a TileRenderPoolExecutor by default.
+   */
+  public void setTileRenderExecutor( TileRenderExecutor tileRenderExecutor ) {
+    if( tileRenderExecutor == mTileRenderCoordinator.getTileRenderExecutor() ) {
+      return;
+    }
+    cancelRender();
+    mTileRenderCoordinator.shutdownNow();
+    mTileRenderCoordinator.setTileRenderExecutor( tileRenderExecutor );
+    // tiles that were waiting have been released; de-list them so they're queued on the new executor
+    Iterator<Tile> tilesInCurrentViewportIterator = mTilesInCurrentViewport.iterator();
+    while( tilesInCurrentViewportIterator.hasNext() ) {
+      Tile tile = tilesInCurrentViewportIterator.next();
+      if( tile.getState() != Tile.State.DECODED ) {
+        tile.reset();
+        tilesInCurrentViewportIterator.remove();
+      }
+    }
+    requestRender();
+  }
+
+  public TileRenderExecutor getTileRenderExecutor() {
+    return mTileRenderCoordinator.getTileRenderExecutor();
+  }
+
   public int getRenderBuffer() {
     return mRenderBuffer;
   }
 
+  /**
+   * The longest time, in milliseconds, a render request will wait for the viewport to settle
+   * before starting anyway.  Renders normally start as soon as the viewport has been still for
+   * the number of frames set with setRenderSettleFrames.
+   *
+   * @param renderBuffer Maximum delay between a render request and the render, in milliseconds.
+   */
   public void setRenderBuffer( int renderBuffer ) {
     mRenderBuffer = renderBuffer;
   }
 
+  /**
+   * Sets how many consecutive vsync frames the viewport has to be unchanged before a requested
+   * render starts.  Viewport recomputation and tile queueing happen at most once per frame.
+   *
+   * @param settleFrames Number of still frames to wait for; 0 renders on the next frame.
+   */
+  public void setRenderSettleFrames( int settleFrames ) {
+    mTileRenderScheduler.setSettleFrames( settleFrames );
+  }
+
+  public int getRenderSettleFrames() {
+    return mTileRenderScheduler.getSettleFrames();
+  }
+
+  /**
+   * Returns the time, in milliseconds, between the viewport last settling (e.g., a scroll
+   * stopping) and the first tile being drawn afterwards.
+   *
+   * @return The latency of the last settle, or -1 if none has been measured.
+   */
+  public long getSettleToFirstTileLatency() {
+    return mTileRenderScheduler.getLastSettleLatency();
+  }
+
+  public void setTileRenderLatencyListener( TileRenderLatencyListener tileRenderLatencyListener ) {
+    mTileRenderLatencyListener = tileRenderLatencyListener;
+  }
+
   /**
    * @return True if tile bitmaps should be recycled.
    * @deprecated This value is no longer considered - bitmaps are always recycled when they're no longer used.
@@ -172,19 +377,24 @@ public class TileCanvasViewGroup extends ViewGroup {
     if( mDetailLevelToRender == null ) {
       return;
     }
-    if( !mTileRenderThrottleHandler.hasMessages( RENDER_FLAG ) ) {
-      mTileRenderThrottleHandler.sendEmptyMessageDelayed( RENDER_FLAG, mRenderBuffer );
-    }
+    mTileRenderScheduler.schedule();
+  }
+
+  /**
+   * Drops a pending render request that has not started yet.
+   */
+  public void clearRenderRequest() {
+    mTileRenderScheduler.cancel();
   }
 
   /**
-   * Prevent new render tasks from starting, attempts to interrupt ongoing tasks, and will
+   * Prevent new render tasks from starting, signals ongoing tasks to stop through their CancellationTokens, and will
    * prevent queued tiles from begin decoded or rendered.
    */
   public void cancelRender() {
     mRenderIsCancelled = true;
-    if( mTileRenderPoolExecutor != null ) {
-      mTileRenderPoolExecutor.cancel();
+    if( mTileRenderCoordinator != null ) {
+      mTileRenderCoordinator.cancel();
     }
   }
 
@@ -216,11 +426,19 @@ public class TileCanvasViewGroup extends ViewGroup {
    */
   public void clear() {
     cancelRender();
-    mTilesInCurrentViewport.clear();
-    mPreviouslyDrawnTiles.clear();
+    resetTiles( mTilesInCurrentViewport );
+    resetTiles( mPreviouslyDrawnTiles );
+    mSalvagedBitmapCache.clear();
     invalidate();
   }
 
+  private void resetTiles( Set<Tile> tiles ) {
+    for( Tile tile : tiles ) {
+      tile.reset();
+    }
+    tiles.clear();
+  }
+
   /**
    * This function is now a no-op
    *
@@ -231,9 +449,22 @@ public class TileCanvasViewGroup extends ViewGroup {
     // noop
   }
 
-  void renderTiles() {
+  /**
+   * @return True if new tiles were queued.
+   */
+  boolean renderTiles() {
     if( !mRenderIsCancelled && !mRenderIsSuppressed && mDetailLevelToRender != null ) {
-      beginRenderTask();
+      return beginRenderTask();
+    }
+    return false;
+  }
+
+  void getViewport( Rect viewport ) {
+    Rect computedViewport = getComputedViewport();
+    if( computedViewport == null ) {
+      viewport.setEmpty();
+    } else {
+      viewport.set( computedViewport );
     }
   }
 
@@ -244,17 +475,19 @@ public class TileCanvasViewGroup extends ViewGroup {
     return mDetailLevelToRender.getDetailLevelManager().getComputedScaledViewport( getInvertedScale() );
   }
 
-  private boolean establishDirtyRegion() {
+  private boolean establishCoverage() {
     boolean shouldInvalidate = false;
-    mDirtyRegion.set( getComputedViewport() );
+    mViewport.set( getComputedViewport() );
+    mTileCoverageMask.reset( mDetailLevelToRender, mViewport );
     for( Tile tile : mTilesInCurrentViewport ) {
       if( tile.getState() == Tile.State.DECODED ) {
         tile.computeProgress();
         mDecodedTilesInCurrentViewport.add( tile );
         if( tile.getIsDirty() ) {
           shouldInvalidate = true;
-        } else {
-          mDirtyRegion.op( tile.getRelativeRect(), Region.Op.DIFFERENCE );
+          mDirtyTilesRect.union( tile.getScaledRect( mScale ) );
+        } else if( tile.getIsOpaque() ) {
+          mTileCoverageMask.markOpaque( tile.getColumn(), tile.getRow() );
         }
       }
     }
@@ -267,40 +500,68 @@ public class TileCanvasViewGroup extends ViewGroup {
     while( tilesFromLastDetailLevelIterator.hasNext() ) {
       Tile tile = tilesFromLastDetailLevelIterator.next();
       Rect rect = tile.getRelativeRect();
-      if( mDirtyRegion.quickReject( rect ) ) {
+      // out of the viewport, or hidden under fully opaque current tiles
+      if( !Rect.intersects( mViewport, rect ) || mTileCoverageMask.covers( rect ) ) {
         tilesFromLastDetailLevelIterator.remove();
+        tile.reset();
       } else {
         tile.computeProgress();
-        tile.draw( canvas );
-        shouldInvalidate |= tile.getIsDirty();
+        if( tile.getIsDirty() ) {
+          shouldInvalidate = true;
+          mDirtyTilesRect.union( tile.getScaledRect( mScale ) );
+        }
+        mDrawnPreviousTilesRect.union( tile.getScaledRect( mScale ) );
+        drawTileIfInClip( tile, canvas );
       }
     }
     return shouldInvalidate;
   }
 
-  private boolean drawAndClearCurrentDecodedTiles( Canvas canvas ) {
-    boolean shouldInvalidate = false;
+  private void drawTileIfInClip( Tile tile, Canvas canvas ) {
+    Rect rect = tile.getRelativeRect();
+    if( Rect.intersects( mClipBounds, rect ) ) {
+      tile.draw( canvas, !getIsDrawingReducedQuality() );
+      mFrameTileDrawCount++;
+      mFrameDrawnArea += (long) rect.width() * rect.height();
+    }
+  }
+
+  private void drawAndClearCurrentDecodedTiles( Canvas canvas ) {
     for( Tile tile : mDecodedTilesInCurrentViewport ) {
       // these tiles should already have progress computed by the time they get here
-      tile.draw( canvas );
-      shouldInvalidate |= tile.getIsDirty();
+      drawTileIfInClip( tile, canvas );
     }
     mDecodedTilesInCurrentViewport.clear();
-    return shouldInvalidate;
   }
 
+  /**
+   * Only the tiles still fading in are invalidated, rather than the whole view.
+   *
+   * @param shouldInvalidate True if any tile drawn is still fading in.
+   */
   private void handleInvalidation( boolean shouldInvalidate ) {
     if( shouldInvalidate ) {
       // there's more work to do, partially opaque tiles were drawn
       mHasInvalidatedOnCleanOnce = false;
-      invalidate();
+      invalidateTilesRect( mDirtyTilesRect );
     } else {
       // if all tiles were fully opaque, we need another pass to clear our tiles from last level
       if( !mHasInvalidatedOnCleanOnce ) {
         mHasInvalidatedOnCleanOnce = true;
-        invalidate();
+        invalidateTilesRect( mDrawnPreviousTilesRect );
       }
     }
+    mDirtyTilesRect.setEmpty();
+    mDrawnPreviousTilesRect.setEmpty();
+  }
+
+  private void invalidateTilesRect( Rect rect ) {
+    if( rect.isEmpty() ) {
+      return;
+    }
+    // scaled rects are truncated, so allow for the partial pixel on each edge
+    rect.inset( -1, -1 );
+    invalidate( rect );
   }
 
   private void drawTilesWithoutConsideringPreviouslyDrawnLevel( Canvas canvas ) {
@@ -308,20 +569,37 @@ public class TileCanvasViewGroup extends ViewGroup {
     for( Tile tile : mTilesInCurrentViewport ) {
       if( tile.getState() == Tile.State.DECODED ) {
         tile.computeProgress();
-        tile.draw( canvas );
-        shouldInvalidate |= tile.getIsDirty();
+        if( tile.getIsDirty() ) {
+          shouldInvalidate = true;
+          mDirtyTilesRect.union( tile.getScaledRect( mScale ) );
+        }
+        drawTileIfInClip( tile, canvas );
       }
     }
     handleInvalidation( shouldInvalidate );
   }
 
+  private void drawTilesInMotion( Canvas canvas ) {
+    for( Tile tile : mTilesInCurrentViewport ) {
+      if( tile.getState() == Tile.State.DECODED ) {
+        // any fade in progress is finished immediately
+        if( tile.getIsDirty() ) {
+          tile.setTransitionsEnabled( false );
+        }
+        drawTileIfInClip( tile, canvas );
+      }
+    }
+    // previous tiles are kept, and need a clean pass once motion ends
+    mHasInvalidatedOnCleanOnce = false;
+  }
+
   private void drawTilesConsideringPreviouslyDrawnLevel( Canvas canvas ) {
-    // compute states, populate opaque region
-    boolean shouldInvalidate = establishDirtyRegion();
+    // compute states, mark opaque cells
+    boolean shouldInvalidate = establishCoverage();
     // draw any previous tiles that are in viewport and not under full opaque current tiles
     shouldInvalidate |= drawPreviousTiles( canvas );
     // draw the current tile set
-    shouldInvalidate |= drawAndClearCurrentDecodedTiles( canvas );
+    drawAndClearCurrentDecodedTiles( canvas );
     // depending on transition states and previous tile draw ops, add'l invalidation might be needed
     handleInvalidation( shouldInvalidate );
   }
@@ -332,11 +610,20 @@ public class TileCanvasViewGroup extends ViewGroup {
    * @param canvas The Canvas instance to draw tile bitmaps into.
    */
   private void drawTiles( Canvas canvas ) {
-    if( mPreviouslyDrawnTiles.size() > 0 ) {
+    // tiles outside the area being redrawn are skipped, but still tracked for invalidation
+    canvas.getClipBounds( mClipBounds );
+    mFrameTileDrawCount = 0;
+    mFrameDrawnArea = 0;
+    if( getIsDrawingReducedQuality() ) {
+      drawTilesInMotion( canvas );
+    } else if( mPreviouslyDrawnTiles.size() > 0 && mDetailLevelToRender != null ) {
       drawTilesConsideringPreviouslyDrawnLevel( canvas );
     } else {
       drawTilesWithoutConsideringPreviouslyDrawnLevel( canvas );
     }
+    mLastFrameTileDrawCount = mFrameTileDrawCount;
+    long clipArea = (long) mClipBounds.width() * mClipBounds.height();
+    mLastFrameOverdraw = clipArea == 0 ? 0 : mFrameDrawnArea / (float) clipArea;
   }
 
   public void updateTileSet( DetailLevel detailLevel ) {
@@ -354,18 +641,25 @@ public class TileCanvasViewGroup extends ViewGroup {
 
   private void markTilesAsPrevious() {
     for( Tile tile : mTilesInCurrentViewport ) {
-      if( tile.getState() == Tile.State.DECODED ) {
-        mPreviouslyDrawnTiles.add( tile );
+      // anything not kept for drawing has to let go of its bitmap
+      if( tile.getState() != Tile.State.DECODED || !mPreviouslyDrawnTiles.add( tile ) ) {
+        tile.reset();
       }
     }
     mTilesInCurrentViewport.clear();
   }
 
-  private void beginRenderTask() {
+  private boolean beginRenderTask() {
     // if visible columns and rows are same as previously computed, fast-fail
     boolean changed = mDetailLevelToRender.computeCurrentState();
+    // tiles decoded at a reduced resolution need to be replaced if the scale has since increased
+    changed |= retireOversampledTiles();
+    // tiles that failed are still listed, but have been reset, and are now due to be queued again
+    boolean hasTilesToRetry = mHasTilesToRetry;
+    mHasTilesToRetry = false;
+    changed |= hasTilesToRetry;
     if( !changed && mTilesInCurrentViewport.size() > 0 ) {
-      return;
+      return false;
     }
     // determine tiles are mathematically within the current viewport; force re-computation
     mDetailLevelToRender.computeVisibleTilesFromViewport();
@@ -374,9 +668,47 @@ public class TileCanvasViewGroup extends ViewGroup {
     // are there any new tiles the Executor isn't already aware of?
     boolean wereTilesAdded = mTilesInCurrentViewport.addAll( mDetailLevelToRender.getVisibleTilesFromLastViewportComputation() );
     // if so, start up a new batch
-    if( wereTilesAdded ) {
-      mTileRenderPoolExecutor.queue( this, mTilesInCurrentViewport );
+    if( wereTilesAdded || hasTilesToRetry ) {
+      mTileRenderCoordinator.queue( this, mTilesInCurrentViewport );
+      // blank tiles are marked decoded as they're queued, without ever reaching a render thread
+      for( Tile tile : mTilesInCurrentViewport ) {
+        if( tile.getIsBlank() ) {
+          mAddedTilesRect.union( tile.getScaledRect( mScale ) );
+        }
+      }
+      onTilesAddedToCanvas();
     }
+    return wereTilesAdded;
+  }
+
+  /**
+   * Tiles that were decoded with a larger sample size than the current scale allows are moved to
+   * the previously drawn set, so they're still shown until a sharper copy of the same tile is
+   * decoded and drawn over them.
+   *
+   * @return True if any tiles were retired.
+   */
+  private boolean retireOversampledTiles() {
+    int sampleSize = mDetailLevelToRender.getSampleSize();
+    boolean retired = false;
+    Iterator<Tile> tilesInCurrentViewportIterator = mTilesInCurrentViewport.iterator();
+    while( tilesInCurrentViewportIterator.hasNext() ) {
+      Tile tile = tilesInCurrentViewportIterator.next();
+      if( tile.getState() == Tile.State.DECODED && tile.getSampleSize() > sampleSize ) {
+        tilesInCurrentViewportIterator.remove();
+        // an even coarser copy of this tile might still be waiting to be covered
+        for( Tile previous : mPreviouslyDrawnTiles ) {
+          if( previous.equals( tile ) ) {
+            mPreviouslyDrawnTiles.remove( previous );
+            previous.reset();
+            break;
+          }
+        }
+        mPreviouslyDrawnTiles.add( tile );
+        retired = true;
+      }
+    }
+    return retired;
   }
 
   /**
@@ -403,11 +735,242 @@ public class TileCanvasViewGroup extends ViewGroup {
   // this tile has been decoded by the time it gets passed here
   void addTileToCanvas( final Tile tile ) {
     if( mTilesInCurrentViewport.contains( tile ) ) {
-      invalidate();
+      mTileRenderScheduler.onTileAdded();
+      mAddedTilesRect.union( tile.getScaledRect( mScale ) );
+      mBurstTileCount++;
+    }
+  }
+
+  // called once per frame, after every tile that arrived since the last frame has been added
+  void onTilesAddedToCanvas() {
+    invalidateTilesRect( mAddedTilesRect );
+    mAddedTilesRect.setEmpty();
+  }
+
+  /**
+   * Returns the number of Messages render threads sent to the UI thread to deliver decoded tiles
+   * during the current or most recent render.  Tiles that finish together share a single Message.
+   *
+   * @return The number of Messages sent for the render.
+   */
+  public int getRenderMessageCount() {
+    return mTileRenderCoordinator.getTileRenderHandler().getMessageCount() - mBurstMessageCountAtStart;
+  }
+
+  /**
+   * @return The number of frames on which decoded tiles were delivered during the current or most recent render.
+   */
+  public int getRenderDeliveryFrameCount() {
+    return mTileRenderCoordinator.getTileRenderHandler().getDrainCount() - mBurstDrainCountAtStart;
+  }
+
+  /**
+   * @return The number of times tiles were drawn since the current or most recent render started,
+   * including frames spent fading tiles in after the last one was delivered.
+   */
+  public int getRenderFrameCount() {
+    return mBurstFrameCount;
+  }
+
+  /**
+   * Debug counter: the number of tiles drawn on the last frame.
+   *
+   * @return The number of tile draw operations on the last frame.
+   */
+  public int getLastFrameTileDrawCount() {
+    return mLastFrameTileDrawCount;
+  }
+
+  /**
+   * Debug counter: the area of the tiles drawn on the last frame, as a multiple of the area that
+   * was redrawn.  A value of 1 means each pixel was covered by one tile; values above 1 indicate
+   * overdraw, usually from previous-level tiles drawn under the current ones.  Tiles are counted
+   * in full even if they're only partially within the redrawn area.
+   *
+   * @return The overdraw ratio of the last frame.
+   */
+  public float getLastFrameOverdraw() {
+    return mLastFrameOverdraw;
+  }
+
+  /**
+   * @return The number of decoded tiles delivered during the current or most recent render.
+   */
+  public int getRenderTileCount() {
+    return mBurstTileCount;
+  }
+
+  SalvagedBitmapCache getSalvagedBitmapCache() {
+    return mSalvagedBitmapCache;
+  }
+
+  // called from render threads
+  void onDecodeCancelled( long elapsedNanos, boolean salvaged ) {
+    if( salvaged ) {
+      mSalvagedDecodeCount.incrementAndGet();
+    } else {
+      mWastedDecodeCount.incrementAndGet();
+      mWastedDecodeNanos.addAndGet( elapsedNanos );
+    }
+  }
+
+  /**
+   * Returns the total time render threads spent on decodes that were cancelled and discarded.
+   * Decodes that finished after cancellation and were kept for reuse aren't counted.
+   *
+   * @return Wasted decode time, in milliseconds.
+   */
+  public long getWastedDecodeTime() {
+    return TimeUnit.NANOSECONDS.toMillis( mWastedDecodeNanos.get() );
+  }
+
+  /**
+   * @return The number of decodes abandoned because their tile was cancelled.
+   */
+  public int getWastedDecodeCount() {
+    return mWastedDecodeCount.get();
+  }
+
+  /**
+   * @return The number of decodes that finished after their tile was cancelled, and were kept for reuse.
+   */
+  public int getSalvagedDecodeCount() {
+    return mSalvagedDecodeCount.get();
+  }
+
+  public void resetDecodeCancellationMetrics() {
+    mWastedDecodeNanos.set( 0 );
+    mWastedDecodeCount.set( 0 );
+    mSalvagedDecodeCount.set( 0 );
+  }
+
+  /**
+   * Sets how long a single tile's decode, including the BitmapProvider's i/o, may run before it's
+   * abandoned.  A timed out tile counts as a failure for the TileFailurePolicy, and its render
+   * thread is replaced until the provider call returns, so a hung read doesn't hold up the rest
+   * of the viewport.  Providers should check the tile's CancellationToken to return early.
+   *
+   * @param timeout The deadline for each tile decode, in milliseconds; 0 for none (the default).
+   */
+  public void setDecodeTimeout( long timeout ) {
+    mTileRenderCoordinator.getDecodeWatchdog().setTimeout( timeout );
+  }
+
+  public long getDecodeTimeout() {
+    return mTileRenderCoordinator.getDecodeWatchdog().getTimeout();
+  }
+
+  /**
+   * @return Decode times of recent tiles, and the number of timed out decodes.
+   */
+  public DecodeTimeStatistics getDecodeTimeStatistics() {
+    return mDecodeTimeStatistics;
+  }
+
+  /**
+   * Sets the most tiles a BatchBitmapProvider is asked for in one call.  Only used when the
+   * BitmapProvider is a BatchBitmapProvider.
+   *
+   * @param tileBatchSize The maximum number of tiles per batch; 1 loads tiles one at a time.
+   */
+  public void setTileBatchSize( int tileBatchSize ) {
+    mTileBatchSize = Math.max( 1, tileBatchSize );
+  }
+
+  public int getTileBatchSize() {
+    return mTileBatchSize;
+  }
+
+  /**
+   * Sets how long a render thread waits for more tiles to be queued before it sends a batch that
+   * isn't full, e.g., to gather the tiles of a strip entering the viewport over several frames.
+   * The thread is held while it waits.
+   *
+   * @param tileBatchWait The longest wait, in milliseconds; 0 (the default) sends whatever is queued.
+   */
+  public void setTileBatchWait( long tileBatchWait ) {
+    mTileBatchWait = tileBatchWait;
+  }
+
+  public long getTileBatchWait() {
+    return mTileBatchWait;
+  }
+
+  /**
+   * @return The policy deciding when failed and missing tiles are tried again.
+   */
+  public TileFailurePolicy getTileFailurePolicy() {
+    return mTileFailurePolicy;
+  }
+
+  // called on the UI thread when a decode has passed its deadline
+  void onDecodeTimedOut( TileRenderRunnable tileRenderRunnable ) {
+    mDecodeTimeStatistics.recordTimeout();
+    onTileRenderFailed( tileRenderRunnable, new TimeoutException( "Decode timed out after " + getDecodeTimeout() + "ms" ) );
+  }
+
+  // called on the UI thread when a decode threw, timed out, or the provider had no bitmap
+  void onTileRenderFailed( TileRenderRunnable tileRenderRunnable, Throwable throwable ) {
+    Tile tile = tileRenderRunnable.getTile();
+    if( tile == null ) {
+      return;
+    }
+    long retryDelay = mTileFailurePolicy.onTileFailed( tile, throwable );
+    // the tile is left pending by a failed decode; unless it has moved on to another attempt, it's reset so it can be queued again
+    if( tile.getCancellationToken() == tileRenderRunnable.getCancellationToken() ) {
+      tile.reset();
+    }
+    if( mTilesInCurrentViewport.contains( tile ) ) {
+      scheduleRetry( retryDelay );
+    }
+  }
+
+  // called on the UI thread when a decode succeeded
+  void onTileRenderSucceeded( Tile tile ) {
+    mTileFailurePolicy.onTileDecoded( tile );
+  }
+
+  // called from any thread when an AsyncBitmapProvider replaced a tile's bitmap; the swap is made on the UI thread, between frames
+  void onTileBitmapChanged( final Tile tile, final CancellationToken cancellationToken, final BitmapHandle bitmapHandle, final int sampleSize ) {
+    mHandler.post( new Runnable() {
+      @Override
+      public void run() {
+        if( tile.replaceBitmap( cancellationToken, bitmapHandle, sampleSize )
+          && (mTilesInCurrentViewport.contains( tile ) || mPreviouslyDrawnTiles.contains( tile )) ) {
+          invalidateTilesRect( new Rect( tile.getScaledRect( mScale ) ) );
+        }
+      }
+    } );
+  }
+
+  /**
+   * Requests a render once the delay has passed, which queues the listed tiles that were reset.
+   * Only the earliest pending retry is kept; tiles not yet due then schedule their own.
+   */
+  void scheduleRetry( long delay ) {
+    long retryTime = SystemClock.uptimeMillis() + delay;
+    if( mRetryTime != 0 && mRetryTime <= retryTime ) {
+      return;
+    }
+    mRetryTime = retryTime;
+    mHandler.removeCallbacks( mRetryRunnable );
+    mHandler.postAtTime( mRetryRunnable, retryTime );
+  }
+
+  void onSettleLatencyMeasured( long latency ) {
+    if( mTileRenderLatencyListener != null ) {
+      mTileRenderLatencyListener.onSettleToFirstTile( latency );
     }
   }
 
   void onRenderTaskPreExecute() {
+    if( !mIsRendering ) {
+      TileRenderHandler tileRenderHandler = mTileRenderCoordinator.getTileRenderHandler();
+      mBurstMessageCountAtStart = tileRenderHandler.getMessageCount();
+      mBurstDrainCountAtStart = tileRenderHandler.getDrainCount();
+      mBurstTileCount = 0;
+      mBurstFrameCount = 0;
+    }
     mIsRendering = true;
     if( mTileRenderListener != null ) {
       mTileRenderListener.onRenderStart();
@@ -421,9 +984,10 @@ public class TileCanvasViewGroup extends ViewGroup {
     mIsRendering = false;
   }
 
-  void onRenderTaskPostExecute() {
-    mIsRendering = false;
-    mTileRenderThrottleHandler.post( mRenderPostExecuteRunnable );
+  // called once per batch, on whichever thread settled its last tile
+  void onRenderBatchFinished( RenderBatch renderBatch ) {
+    mFinishedRenderBatches.add( renderBatch );
+    mHandler.post( mRenderPostExecuteRunnable );
   }
 
   void handleTileRenderException( Throwable throwable ) {
@@ -437,11 +1001,11 @@ public class TileCanvasViewGroup extends ViewGroup {
   }
 
   public void destroy() {
-    mTileRenderPoolExecutor.shutdownNow();
+    mTileRenderCoordinator.shutdownNow();
     clear();
-    if( !mTileRenderThrottleHandler.hasMessages( RENDER_FLAG ) ) {
-      mTileRenderThrottleHandler.removeMessages( RENDER_FLAG );
-    }
+    mTileRenderScheduler.cancel();
+    mHandler.removeCallbacks( mRenderPostExecuteRunnable );
+    mHandler.removeCallbacks( mRetryRunnable );
   }
 
   @Override
@@ -451,24 +1015,7 @@ public class TileCanvasViewGroup extends ViewGroup {
     canvas.scale( mScale, mScale );
     drawTiles( canvas );
     canvas.restore();
-  }
-
-  private static class TileRenderThrottleHandler extends Handler {
-
-    private final WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupWeakReference;
-
-    public TileRenderThrottleHandler( TileCanvasViewGroup tileCanvasViewGroup ) {
-      super( Looper.getMainLooper() );
-      mTileCanvasViewGroupWeakReference = new WeakReference<>( tileCanvasViewGroup );
-    }
-
-    @Override
-    public final void handleMessage( Message message ) {
-      final TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupWeakReference.get();
-      if( tileCanvasViewGroup != null ) {
-        tileCanvasViewGroup.renderTiles();
-      }
-    }
+    mBurstFrameCount++;
   }
 
   /**
@@ -485,13 +1032,45 @@ public class TileCanvasViewGroup extends ViewGroup {
     void onRenderThrow( Throwable throwable );
   }
 
+  public interface TileRenderLatencyListener {
+    /**
+     * @param latency Milliseconds between the viewport settling and the first tile drawn afterwards.
+     */
+    void onSettleToFirstTile( long latency );
+  }
+
+  public interface TileRenderBatchListener {
+    void onRenderBatchComplete( RenderBatch renderBatch );
+  }
+
+  private Runnable mRetryRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mRetryTime = 0;
+      mHasTilesToRetry = true;
+      requestRender();
+    }
+  };
+
   // This runnable is required to run on UI thread
   private Runnable mRenderPostExecuteRunnable = new Runnable() {
     @Override
     public void run() {
+      RenderBatch renderBatch = mFinishedRenderBatches.poll();
+      if( renderBatch == null ) {
+        return;
+      }
+      mIsRendering = mTileRenderCoordinator.getActiveRenderBatchCount() > 0;
       cleanup();
-      if( mTileRenderListener != null ) {
-        mTileRenderListener.onRenderComplete();
+      while( renderBatch != null ) {
+        // cancelled batches were already reported through onRenderCancelled
+        if( mTileRenderListener != null && !renderBatch.isCancelled() ) {
+          mTileRenderListener.onRenderComplete();
+        }
+        if( mTileRenderBatchListener != null ) {
+          mTileRenderBatchListener.onRenderBatchComplete( renderBatch );
+        }
+        renderBatch = mFinishedRenderBatches.poll();
       }
       requestRender();
     }
@@ -0,0 +1,94 @@
+package com.qozix.tileview.tiles;
+
+import android.graphics.Rect;
+
+import com.qozix.tileview.detail.DetailLevel;
+
+/**
+ * One bit per cell of the current DetailLevel's tile grid, over the cells within the viewport,
+ * set when the tile in that cell is drawn fully opaque.  Answers whether an arbitrary rect
+ * (e.g., a tile from the previous DetailLevel) is entirely covered by opaque tiles by testing the
+ * handful of cells it spans, replacing the per-frame android.graphics.Region arithmetic.
+ *
+ * All coordinates are relative (unscaled) pixels, as in Tile.getRelativeRect.
+ */
+class TileCoverageMask {
+
+  // relative rects are rounded independently on each level, so allow for a pixel of slop
+  private static final int EDGE_TOLERANCE = 1;
+
+  private long[] mBits = new long[0];
+
+  private float mCellWidth;
+  private float mCellHeight;
+  private int mColumnStart;
+  private int mRowStart;
+  private int mColumnCount;
+  private int mRowCount;
+
+  /**
+   * Clears the mask and sizes it to the cells of the DetailLevel that fall within the viewport.
+   *
+   * @param detailLevel The DetailLevel whose grid the mask describes.
+   * @param viewport    The viewport, in relative pixels.
+   */
+  public void reset( DetailLevel detailLevel, Rect viewport ) {
+    mCellWidth = detailLevel.getTileWidth() / detailLevel.getScale();
+    mCellHeight = detailLevel.getTileHeight() / detailLevel.getScale();
+    mColumnStart = (int) Math.floor( Math.max( viewport.left, 0 ) / mCellWidth );
+    mRowStart = (int) Math.floor( Math.max( viewport.top, 0 ) / mCellHeight );
+    mColumnCount = Math.max( 0, (int) Math.ceil( viewport.right / mCellWidth ) - mColumnStart );
+    mRowCount = Math.max( 0, (int) Math.ceil( viewport.bottom / mCellHeight ) - mRowStart );
+    int words = (mColumnCount * mRowCount + 63) >>> 6;
+    if( mBits.length < words ) {
+      mBits = new long[words];
+    } else {
+      for( int i = 0; i < words; i++ ) {
+        mBits[i] = 0;
+      }
+    }
+  }
+
+  public void markOpaque( int column, int row ) {
+    int index = getIndex( column, row );
+    if( index != -1 ) {
+      mBits[index >>> 6] |= 1L << (index & 63);
+    }
+  }
+
+  /**
+   * Returns true if every cell the rect touches is marked opaque.  A tile from an adjacent level
+   * spans at most a few cells, so this is constant time in practice.
+   *
+   * @param rect A rect in relative pixels.
+   * @return True if the rect is entirely covered by opaque cells.
+   */
+  public boolean covers( Rect rect ) {
+    int columnStart = (int) Math.floor( (rect.left + EDGE_TOLERANCE) / mCellWidth );
+    int columnEnd = (int) Math.ceil( (rect.right - EDGE_TOLERANCE) / mCellWidth );
+    int rowStart = (int) Math.floor( (rect.top + EDGE_TOLERANCE) / mCellHeight );
+    int rowEnd = (int) Math.ceil( (rect.bottom - EDGE_TOLERANCE) / mCellHeight );
+    if( columnEnd <= columnStart || rowEnd <= rowStart ) {
+      return false;
+    }
+    for( int row = rowStart; row < rowEnd; row++ ) {
+      for( int column = columnStart; column < columnEnd; column++ ) {
+        int index = getIndex( column, row );
+        if( index == -1 || (mBits[index >>> 6] & (1L << (index & 63))) == 0 ) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private int getIndex( int column, int row ) {
+    int x = column - mColumnStart;
+    int y = row - mRowStart;
+    if( x < 0 || y < 0 || x >= mColumnCount || y >= mRowCount ) {
+      return -1;
+    }
+    return y * mColumnCount + x;
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.qozix.tileview.tiles;
+
+import android.os.Process;
+
+import com.qozix.tileview.graphics.DecodeBuffers;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the render pool's threads: named for debugging, at background priority, and with
+ * their DecodeBuffers allocated before the first tile arrives, so none of that is repeated for
+ * each tile.
+ */
+class TileDecodeThreadFactory implements ThreadFactory {
+
+  private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+  private final String mNamePrefix = "TileView-decode-" + POOL_NUMBER.incrementAndGet() + "-";
+  private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+  @Override
+  public Thread newThread( final Runnable runnable ) {
+    Thread thread = new Thread( new Runnable() {
+      @Override
+      public void run() {
+        // Android priorities apply to the calling thread, so this has to run on the new thread
+        Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+        DecodeBuffers.get();
+        runnable.run();
+      }
+    }, mNamePrefix + mThreadNumber.incrementAndGet() );
+    thread.setDaemon( true );
+    return thread;
+  }
+
+}
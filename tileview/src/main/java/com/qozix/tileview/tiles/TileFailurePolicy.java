@@ -0,0 +1,305 @@
+package com.qozix.tileview.tiles;
+
+import android.os.SystemClock;
+
+import java.io.FileNotFoundException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides when tiles whose decode failed may be queued again, so a broken source isn't asked for
+ * the same tiles on every render:
+ *
+ * 1. Each failing tile backs off exponentially, from the initial retry delay up to the maximum.
+ * 2. Missing tiles (the provider returned null, or threw FileNotFoundException) are kept in a
+ *    short-lived negative cache, and aren't asked for again until it expires.
+ * 3. After a number of consecutive failures across all tiles, the circuit opens and no new tiles
+ *    are queued for a while.  After that, requests resume; the next failure opens the circuit
+ *    again, and the next success closes it.
+ *
+ * Missing tiles are answers from a working source, so they count as successes for the circuit.
+ * Tiles are matched by position and detail level, so a tile keeps its record when it leaves the
+ * viewport and comes back.
+ *
+ * Only used on the UI thread.
+ */
+public class TileFailurePolicy {
+
+  public static final long DEFAULT_INITIAL_RETRY_DELAY = 500;
+  public static final long DEFAULT_MAXIMUM_RETRY_DELAY = 30000;
+  public static final long DEFAULT_MISSING_TILE_RETRY_DELAY = 30000;
+  public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 8;
+  public static final long DEFAULT_CIRCUIT_BREAKER_DURATION = 10000;
+
+  private static final int MAXIMUM_RECORDS = 512;
+
+  private static final Clock UPTIME_CLOCK = new Clock() {
+    @Override
+    public long uptimeMillis() {
+      return SystemClock.uptimeMillis();
+    }
+  };
+
+  private final Clock mClock;
+
+  private long mInitialRetryDelay = DEFAULT_INITIAL_RETRY_DELAY;
+  private long mMaximumRetryDelay = DEFAULT_MAXIMUM_RETRY_DELAY;
+  private long mMissingTileRetryDelay = DEFAULT_MISSING_TILE_RETRY_DELAY;
+  private int mCircuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+  private long mCircuitBreakerDuration = DEFAULT_CIRCUIT_BREAKER_DURATION;
+
+  private TileFailureListener mTileFailureListener;
+
+  // oldest records are dropped first; a dropped tile is simply tried again
+  private final Map<Tile, FailureRecord> mFailureRecords = new LinkedHashMap<Tile, FailureRecord>( 16, 0.75f, true ) {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<Tile, FailureRecord> eldest ) {
+      return size() > MAXIMUM_RECORDS;
+    }
+  };
+
+  private int mConsecutiveFailureCount;
+  private long mCircuitClosesAt;
+  private boolean mIsCircuitOpen;
+
+  private int mFailureCount;
+  private int mMissingTileCount;
+  private int mDeferredCount;
+  private int mCircuitOpenCount;
+
+  public TileFailurePolicy() {
+    this( UPTIME_CLOCK );
+  }
+
+  /**
+   * @param clock The source of the current time, e.g., a fake one in tests.
+   */
+  TileFailurePolicy( Clock clock ) {
+    mClock = clock;
+  }
+
+  /**
+   * @param initialRetryDelay Milliseconds before a tile that failed once is tried again; doubled with each further failure.
+   */
+  public void setInitialRetryDelay( long initialRetryDelay ) {
+    mInitialRetryDelay = initialRetryDelay;
+  }
+
+  public long getInitialRetryDelay() {
+    return mInitialRetryDelay;
+  }
+
+  /**
+   * @param maximumRetryDelay The longest a failing tile waits between attempts, in milliseconds.
+   */
+  public void setMaximumRetryDelay( long maximumRetryDelay ) {
+    mMaximumRetryDelay = maximumRetryDelay;
+  }
+
+  public long getMaximumRetryDelay() {
+    return mMaximumRetryDelay;
+  }
+
+  /**
+   * @param missingTileRetryDelay Milliseconds a missing tile is remembered as missing; 0 to always ask again.
+   */
+  public void setMissingTileRetryDelay( long missingTileRetryDelay ) {
+    mMissingTileRetryDelay = missingTileRetryDelay;
+  }
+
+  public long getMissingTileRetryDelay() {
+    return mMissingTileRetryDelay;
+  }
+
+  /**
+   * @param circuitBreakerThreshold Consecutive failures that open the circuit; 0 to never open it.
+   */
+  public void setCircuitBreakerThreshold( int circuitBreakerThreshold ) {
+    mCircuitBreakerThreshold = circuitBreakerThreshold;
+  }
+
+  public int getCircuitBreakerThreshold() {
+    return mCircuitBreakerThreshold;
+  }
+
+  /**
+   * @param circuitBreakerDuration Milliseconds no new tiles are queued once the circuit opens.
+   */
+  public void setCircuitBreakerDuration( long circuitBreakerDuration ) {
+    mCircuitBreakerDuration = circuitBreakerDuration;
+  }
+
+  public long getCircuitBreakerDuration() {
+    return mCircuitBreakerDuration;
+  }
+
+  public void setTileFailureListener( TileFailureListener tileFailureListener ) {
+    mTileFailureListener = tileFailureListener;
+  }
+
+  /**
+   * @return Milliseconds until the tile may be queued, or 0 if it may be queued now.
+   */
+  long getRetryDelay( Tile tile ) {
+    long now = mClock.uptimeMillis();
+    long delay = 0;
+    if( mIsCircuitOpen && now < mCircuitClosesAt ) {
+      delay = mCircuitClosesAt - now;
+    }
+    FailureRecord failureRecord = mFailureRecords.get( tile );
+    if( failureRecord != null ) {
+      delay = Math.max( delay, failureRecord.retryAt - now );
+    }
+    if( delay > 0 ) {
+      mDeferredCount++;
+      return delay;
+    }
+    return 0;
+  }
+
+  /**
+   * @return Milliseconds until the tile should be tried again.
+   */
+  long onTileFailed( Tile tile, Throwable throwable ) {
+    long now = mClock.uptimeMillis();
+    FailureRecord failureRecord = mFailureRecords.get( tile );
+    if( failureRecord == null ) {
+      failureRecord = new FailureRecord();
+      mFailureRecords.put( tile, failureRecord );
+    }
+    failureRecord.attempts++;
+    long delay;
+    if( isMissing( throwable ) ) {
+      mMissingTileCount++;
+      delay = mMissingTileRetryDelay;
+      failureRecord.retryAt = now + delay;
+      onSourceResponded();
+      if( mTileFailureListener != null ) {
+        mTileFailureListener.onTileMissing( tile, delay );
+      }
+      return delay;
+    }
+    mFailureCount++;
+    // doubles from the initial delay with each failure, without overflowing
+    int doublings = Math.min( failureRecord.attempts - 1, 30 );
+    delay = Math.min( mMaximumRetryDelay, mInitialRetryDelay << doublings );
+    failureRecord.retryAt = now + delay;
+    mConsecutiveFailureCount++;
+    // while half-open, i.e., just after the circuit's duration is up, a single failure is enough
+    boolean shouldOpen = mCircuitBreakerThreshold > 0 && (mConsecutiveFailureCount >= mCircuitBreakerThreshold || mIsCircuitOpen);
+    if( shouldOpen ) {
+      mCircuitClosesAt = now + mCircuitBreakerDuration;
+      if( !mIsCircuitOpen ) {
+        mIsCircuitOpen = true;
+        mCircuitOpenCount++;
+        if( mTileFailureListener != null ) {
+          mTileFailureListener.onCircuitOpened( mCircuitBreakerDuration );
+        }
+      }
+    }
+    if( mTileFailureListener != null ) {
+      mTileFailureListener.onTileFailed( tile, throwable, delay );
+    }
+    return delay;
+  }
+
+  void onTileDecoded( Tile tile ) {
+    mFailureRecords.remove( tile );
+    onSourceResponded();
+  }
+
+  private void onSourceResponded() {
+    mConsecutiveFailureCount = 0;
+    if( mIsCircuitOpen ) {
+      mIsCircuitOpen = false;
+      if( mTileFailureListener != null ) {
+        mTileFailureListener.onCircuitClosed();
+      }
+    }
+  }
+
+  private static boolean isMissing( Throwable throwable ) {
+    return throwable instanceof MissingTileException || throwable instanceof FileNotFoundException;
+  }
+
+  /**
+   * @return True if no new tiles are being queued because of consecutive failures.
+   */
+  public boolean isCircuitOpen() {
+    return mIsCircuitOpen && mClock.uptimeMillis() < mCircuitClosesAt;
+  }
+
+  public int getConsecutiveFailureCount() {
+    return mConsecutiveFailureCount;
+  }
+
+  /**
+   * @return The number of failed decodes, not counting missing tiles.
+   */
+  public int getFailureCount() {
+    return mFailureCount;
+  }
+
+  public int getMissingTileCount() {
+    return mMissingTileCount;
+  }
+
+  /**
+   * @return The number of times a tile wasn't queued because it was backing off, missing, or the circuit was open.
+   */
+  public int getDeferredCount() {
+    return mDeferredCount;
+  }
+
+  public int getCircuitOpenCount() {
+    return mCircuitOpenCount;
+  }
+
+  public void resetCounters() {
+    mFailureCount = 0;
+    mMissingTileCount = 0;
+    mDeferredCount = 0;
+    mCircuitOpenCount = 0;
+  }
+
+  /**
+   * Forgets all failures, and closes the circuit, e.g., after the source has been fixed or replaced.
+   */
+  public void clear() {
+    mFailureRecords.clear();
+    mConsecutiveFailureCount = 0;
+    mIsCircuitOpen = false;
+  }
+
+  interface Clock {
+    /**
+     * @return Milliseconds since some fixed point, not counting deep sleep, like SystemClock.uptimeMillis.
+     */
+    long uptimeMillis();
+  }
+
+  private static class FailureRecord {
+    public int attempts;
+    public long retryAt;
+  }
+
+  public interface TileFailureListener {
+    /**
+     * @param retryDelay Milliseconds before the tile will be tried again.
+     */
+    void onTileFailed( Tile tile, Throwable throwable, long retryDelay );
+
+    /**
+     * @param retryDelay Milliseconds the tile is remembered as missing.
+     */
+    void onTileMissing( Tile tile, long retryDelay );
+
+    /**
+     * @param duration Milliseconds before requests resume.
+     */
+    void onCircuitOpened( long duration );
+
+    void onCircuitClosed();
+  }
+
+}
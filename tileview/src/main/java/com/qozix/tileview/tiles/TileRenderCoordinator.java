@@ -0,0 +1,293 @@
+package com.qozix.tileview.tiles;
+
+import android.os.SystemClock;
+
+import com.qozix.tileview.graphics.BatchBitmapProvider;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues tile renders for a TileCanvasViewGroup on a TileRenderExecutor, tracks each render pass
+ * as a RenderBatch, and hands decoded tiles back to the UI thread.  The executor only runs the
+ * work; everything tile-specific lives here, so executors can be swapped freely.
+ */
+class TileRenderCoordinator {
+
+  private TileRenderExecutor mTileRenderExecutor;
+
+  private WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupWeakReference;
+
+  private TileRenderHandler mHandler = new TileRenderHandler();
+
+  private final DecodeWatchdog mDecodeWatchdog = new DecodeWatchdog();
+
+  // waiting renders a batch leader may claim, in the order they were submitted; guarded by itself
+  private final Map<Tile, TileRenderRunnable> mBatchCandidates = new LinkedHashMap<>();
+
+  private final AtomicInteger mGeneration = new AtomicInteger();
+  private final Set<RenderBatch> mActiveRenderBatches = Collections.newSetFromMap( new ConcurrentHashMap<RenderBatch, Boolean>() );
+  // only touched on the UI thread, while queueing
+  private RenderBatch mQueueingRenderBatch;
+
+  public TileRenderCoordinator( TileRenderExecutor tileRenderExecutor ) {
+    mTileRenderExecutor = tileRenderExecutor;
+  }
+
+  public TileRenderExecutor getTileRenderExecutor() {
+    return mTileRenderExecutor;
+  }
+
+  /**
+   * Replaces the executor; the caller should cancel outstanding work first.
+   */
+  public void setTileRenderExecutor( TileRenderExecutor tileRenderExecutor ) {
+    mTileRenderExecutor = tileRenderExecutor;
+  }
+
+  /**
+   * Queues every tile in the render set that isn't already decoded or pending.  Tiles that are
+   * still pending from an earlier batch are moved ahead of older work, so the latest viewport is
+   * served first.  Tiles that left the viewport are expected to have been reset already, which
+   * removes their pending work directly.  Tiles the TileFailurePolicy is holding back are
+   * skipped, and a retry is scheduled for when they're due.
+   */
+  public void queue( TileCanvasViewGroup tileCanvasViewGroup, Set<Tile> renderSet ) {
+    mTileCanvasViewGroupWeakReference = new WeakReference<>( tileCanvasViewGroup );
+    mHandler.setTileCanvasViewGroup( tileCanvasViewGroup );
+    tileCanvasViewGroup.onRenderTaskPreExecute();
+    RenderBatch renderBatch = new RenderBatch( mGeneration.incrementAndGet() );
+    mActiveRenderBatches.add( renderBatch );
+    mQueueingRenderBatch = renderBatch;
+    try {
+      for( Tile tile : renderSet ) {
+        if( mTileRenderExecutor.isShutdown() ) {
+          return;
+        }
+        Tile.State state = tile.getState();
+        if( state == Tile.State.PENDING_DECODE ) {
+          prioritize( tile );
+        } else if( state != Tile.State.DECODED ) {
+          long retryDelay = tile.getIsBlank() ? 0 : tileCanvasViewGroup.getTileFailurePolicy().getRetryDelay( tile );
+          if( retryDelay > 0 ) {
+            tileCanvasViewGroup.scheduleRetry( retryDelay );
+          } else {
+            tile.execute( this );
+          }
+        }
+      }
+    } finally {
+      mQueueingRenderBatch = null;
+      if( renderBatch.seal() ) {
+        onRenderBatchFinished( renderBatch );
+      }
+    }
+  }
+
+  /**
+   * Submits a tile's render; renders submitted while queueing are counted against the batch being queued.
+   */
+  void submit( Tile tile, TileRenderRunnable tileRenderRunnable ) {
+    RenderBatch renderBatch = mQueueingRenderBatch;
+    if( renderBatch != null ) {
+      renderBatch.add();
+      tileRenderRunnable.setRenderBatch( renderBatch );
+    }
+    Runnable replaced;
+    try {
+      replaced = mTileRenderExecutor.submit( tile, tileRenderRunnable );
+    } catch( RejectedExecutionException e ) {
+      tileRenderRunnable.discard();
+      return;
+    }
+    discard( replaced );
+    TileCanvasViewGroup tileCanvasViewGroup = getTileCanvasViewGroup();
+    if( tileCanvasViewGroup != null && tileCanvasViewGroup.getBitmapProvider() instanceof BatchBitmapProvider ) {
+      synchronized( mBatchCandidates ) {
+        mBatchCandidates.put( tile, tileRenderRunnable );
+        mBatchCandidates.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Claims waiting renders of tiles from the same detail level as the leader's, so they can be
+   * loaded together; claimed renders are removed from the executor, and are the leader's to
+   * finish.  If the batch isn't full, waits up to maximumWait for more renders to be submitted.
+   *
+   * @return The batch, the leader first.
+   */
+  List<TileRenderRunnable> claimBatch( TileRenderRunnable leader, int maximumSize, long maximumWait ) {
+    List<TileRenderRunnable> batch = new ArrayList<>();
+    batch.add( leader );
+    Tile leaderTile = leader.getTile();
+    if( leaderTile == null ) {
+      return batch;
+    }
+    long deadline = SystemClock.uptimeMillis() + maximumWait;
+    synchronized( mBatchCandidates ) {
+      if( mBatchCandidates.get( leaderTile ) == leader ) {
+        mBatchCandidates.remove( leaderTile );
+      }
+      while( true ) {
+        Iterator<Tile> iterator = mBatchCandidates.keySet().iterator();
+        while( batch.size() < maximumSize && iterator.hasNext() ) {
+          Tile tile = iterator.next();
+          if( tile.getDetailLevel() != leaderTile.getDetailLevel() ) {
+            continue;
+          }
+          iterator.remove();
+          // whatever is waiting for the tile, if anything; it may have started, or been replaced, since it was listed
+          Runnable claimed = mTileRenderExecutor.cancel( tile );
+          if( claimed instanceof TileRenderRunnable ) {
+            batch.add( (TileRenderRunnable) claimed );
+          }
+        }
+        long remaining = deadline - SystemClock.uptimeMillis();
+        if( batch.size() >= maximumSize || remaining <= 0 ) {
+          return batch;
+        }
+        try {
+          mBatchCandidates.wait( remaining );
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          return batch;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return True if the render was waiting, and now never will run.
+   */
+  boolean remove( Tile tile, TileRenderRunnable tileRenderRunnable ) {
+    synchronized( mBatchCandidates ) {
+      mBatchCandidates.remove( tile );
+    }
+    Runnable removed = mTileRenderExecutor.cancel( tile );
+    if( removed != null && removed != tileRenderRunnable ) {
+      // the work of another render of the same tile; it has been dropped all the same
+      discard( removed );
+      return false;
+    }
+    return removed != null;
+  }
+
+  /**
+   * Moves a tile's pending render ahead of other waiting work: in the executor if it hasn't run
+   * yet, or else in its AsyncBitmapProvider, if the request is waiting there.
+   *
+   * @return True if the render was still waiting in the executor, or has a request its provider can reprioritise.
+   */
+  public boolean prioritize( Tile tile ) {
+    return mTileRenderExecutor.prioritize( tile ) || tile.prioritizeBitmapRequest();
+  }
+
+  /**
+   * @return The number of the most recent render batch.
+   */
+  public int getRenderGeneration() {
+    return mGeneration.get();
+  }
+
+  /**
+   * @return The number of render batches with tiles still outstanding.
+   */
+  public int getActiveRenderBatchCount() {
+    return mActiveRenderBatches.size();
+  }
+
+  // called exactly once per batch, from whichever thread settled its last tile
+  void onRenderBatchFinished( RenderBatch renderBatch ) {
+    mActiveRenderBatches.remove( renderBatch );
+    mTileRenderExecutor.onRenderBatchComplete( renderBatch );
+    TileCanvasViewGroup tileCanvasViewGroup = getTileCanvasViewGroup();
+    if( tileCanvasViewGroup != null ) {
+      tileCanvasViewGroup.onRenderBatchFinished( renderBatch );
+    }
+  }
+
+  DecodeWatchdog getDecodeWatchdog() {
+    return mDecodeWatchdog;
+  }
+
+  /**
+   * Called on the UI thread by the watchdog, after the runnable has marked itself timed out.
+   *
+   * @param isTileTimedOut False if the runnable's own tile was delivered, but its thread is still
+   *                       held by the rest of its batch.
+   */
+  void onDecodeTimedOut( TileRenderRunnable tileRenderRunnable, boolean isTileTimedOut ) {
+    Tile tile = tileRenderRunnable.getTile();
+    // an asynchronous request or a tile in another's batch doesn't hold a thread, so there's nothing to stand in for
+    if( tile != null && tileRenderRunnable.isHoldingThread() ) {
+      mTileRenderExecutor.onTaskTimedOut( tile );
+    }
+    TileCanvasViewGroup tileCanvasViewGroup = getTileCanvasViewGroup();
+    if( tileCanvasViewGroup != null && isTileTimedOut ) {
+      tileCanvasViewGroup.onDecodeTimedOut( tileRenderRunnable );
+    }
+  }
+
+  void onTimedOutDecodeReturned( Tile tile ) {
+    mTileRenderExecutor.onTimedOutTaskReturned( tile );
+  }
+
+  TileRenderHandler getTileRenderHandler() {
+    return mHandler;
+  }
+
+  public TileCanvasViewGroup getTileCanvasViewGroup() {
+    if( mTileCanvasViewGroupWeakReference == null ) {
+      return null;
+    }
+    return mTileCanvasViewGroupWeakReference.get();
+  }
+
+  public void cancel() {
+    synchronized( mBatchCandidates ) {
+      mBatchCandidates.clear();
+    }
+    for( RenderBatch renderBatch : mActiveRenderBatches ) {
+      renderBatch.cancel();
+    }
+    for( Runnable runnable : mTileRenderExecutor.cancelAll() ) {
+      if( runnable instanceof TileRenderRunnable ) {
+        TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) runnable;
+        tileRenderRunnable.cancel( false );
+        tileRenderRunnable.discard();
+        Tile tile = tileRenderRunnable.getTile();
+        if( tile != null ) {
+          tile.reset();
+        }
+      }
+    }
+    TileCanvasViewGroup tileCanvasViewGroup = getTileCanvasViewGroup();
+    if( tileCanvasViewGroup != null ) {
+      tileCanvasViewGroup.onRenderTaskCancelled();
+    }
+  }
+
+  public void shutdownNow() {
+    mDecodeWatchdog.clear();
+    for( Runnable runnable : mTileRenderExecutor.shutdownNow() ) {
+      discard( runnable );
+    }
+  }
+
+  private static void discard( Runnable runnable ) {
+    if( runnable instanceof TileRenderRunnable ) {
+      ((TileRenderRunnable) runnable).discard();
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package com.qozix.tileview.tiles;
+
+import java.util.List;
+
+/**
+ * Runs the decode work for tiles on background threads.  A TileCanvasViewGroup only depends on
+ * this interface, so the thread pool it renders with can be replaced, e.g., with
+ * {@link WorkStealingTileRenderExecutor}, a single thread for low-memory devices
+ * ({@code new TileRenderPoolExecutor( 1 )}), or an {@link ExecutorTileRenderExecutor} over an
+ * app-wide executor.
+ *
+ * Work is keyed by tile.  Every task submitted must eventually either run, or be returned from
+ * {@link #submit}, {@link #cancel} or {@link #cancelAll} as dropped; render batches are only
+ * known to be complete because of this, so a task must never be lost silently.
+ *
+ * All methods may be called from any thread.
+ */
+public interface TileRenderExecutor {
+
+  /**
+   * Queues work for a tile.  If work for the same tile is already waiting, it is replaced.
+   *
+   * @param tile The tile the work is for.
+   * @param task The work, generally a decode.
+   * @return The task that was replaced, which will never run, or null.
+   * @throws java.util.concurrent.RejectedExecutionException If the executor has been shut down, or
+   *     can't take the work; any work already waiting for the tile is left waiting.
+   */
+  Runnable submit( Tile tile, Runnable task );
+
+  /**
+   * Removes the work waiting for a tile.  Work that has already started is not affected.
+   *
+   * @return The task removed, which will never run, or null if none was waiting.
+   */
+  Runnable cancel( Tile tile );
+
+  /**
+   * Moves the work waiting for a tile ahead of other waiting work.
+   *
+   * @return True if work for the tile was waiting.
+   */
+  boolean prioritize( Tile tile );
+
+  /**
+   * Removes all waiting work.
+   *
+   * @return The tasks removed, none of which will run.
+   */
+  List<Runnable> cancelAll();
+
+  /**
+   * Called once for each render batch, when all of its tiles are decoded, failed or dropped;
+   * e.g., to let idle threads go.  Called from whichever thread finished the batch.
+   */
+  void onRenderBatchComplete( RenderBatch renderBatch );
+
+  /**
+   * Called from the UI thread when a running task has passed its decode deadline.  Its thread is
+   * still held by the task, e.g., in a read that won't return, so the executor should run another
+   * thread in its place until {@link #onTimedOutTaskReturned} is called for the same task.
+   */
+  void onTaskTimedOut( Tile tile );
+
+  /**
+   * Called from the task's thread when a task that timed out finally returns.
+   */
+  void onTimedOutTaskReturned( Tile tile );
+
+  /**
+   * Stops accepting work and drops waiting work.
+   *
+   * @return The tasks dropped, none of which will run.
+   */
+  List<Runnable> shutdownNow();
+
+  boolean isShutdown();
+
+}
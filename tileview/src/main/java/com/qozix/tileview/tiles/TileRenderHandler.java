@@ -1,10 +1,16 @@
 package com.qozix.tileview.tiles;
 
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.view.Choreographer;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Mike Dunn, 3/10/16.
@@ -15,6 +21,8 @@ class TileRenderHandler extends Handler {
   public static final int RENDER_INCOMPLETE = 0;
   public static final int RENDER_COMPLETE = 1;
 
+  private static final int DRAIN_COMPLETED_RENDERS = 2;
+
   public enum Status {
 
     ERROR( RENDER_ERROR ),
@@ -35,6 +43,14 @@ class TileRenderHandler extends Handler {
 
   private WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupWeakReference;
 
+  // render threads add to this without locking; it's emptied on the handler's thread once per frame
+  private final ConcurrentLinkedQueue<TileRenderRunnable> mCompletedRenders = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean mIsDrainPending = new AtomicBoolean();
+  private final AtomicInteger mMessageCount = new AtomicInteger();
+  private int mDrainCount;
+
+  private Object mFrameCallback;
+
   public TileRenderHandler() {
     this( Looper.getMainLooper() );
   }
@@ -54,24 +70,99 @@ class TileRenderHandler extends Handler {
     return mTileCanvasViewGroupWeakReference.get();
   }
 
+  /**
+   * Hands a finished TileRenderRunnable to the handler's thread.  Completions are collected and
+   * delivered together on the next frame, so a burst of tiles costs a single Message and a
+   * single invalidation rather than one of each per tile.  May be called from any thread.
+   *
+   * @param tileRenderRunnable A runnable whose status is COMPLETE or ERROR.
+   */
+  public void submit( TileRenderRunnable tileRenderRunnable ) {
+    mCompletedRenders.offer( tileRenderRunnable );
+    if( mIsDrainPending.compareAndSet( false, true ) ) {
+      mMessageCount.incrementAndGet();
+      sendEmptyMessage( DRAIN_COMPLETED_RENDERS );
+    }
+  }
+
+  /**
+   * @return The number of Messages sent to the handler's thread for completed renders.
+   */
+  public int getMessageCount() {
+    return mMessageCount.get();
+  }
+
+  /**
+   * @return The number of frames on which completed renders were delivered.
+   */
+  public int getDrainCount() {
+    return mDrainCount;
+  }
+
   @Override
   public void handleMessage( Message message ) {
-    TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) message.obj;
+    if( message.what != DRAIN_COMPLETED_RENDERS ) {
+      return;
+    }
+    if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ) {
+      postFrameCallback();
+    } else {
+      drain();
+    }
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private void postFrameCallback() {
+    if( mFrameCallback == null ) {
+      mFrameCallback = new FrameCallback( this );
+    }
+    Choreographer.getInstance().postFrameCallback( (Choreographer.FrameCallback) mFrameCallback );
+  }
+
+  private void drain() {
+    // anything submitted after this point sends a new Message, so nothing can be stranded
+    mIsDrainPending.set( false );
     TileCanvasViewGroup tileCanvasViewGroup = getTileCanvasViewGroup();
     if( tileCanvasViewGroup == null ) {
+      mCompletedRenders.clear();
       return;
     }
-    Tile tile = tileRenderRunnable.getTile();
-    if( tile == null ) {
-      return;
+    mDrainCount++;
+    TileRenderRunnable tileRenderRunnable;
+    while( (tileRenderRunnable = mCompletedRenders.poll()) != null ) {
+      Tile tile = tileRenderRunnable.getTile();
+      if( tile == null ) {
+        continue;
+      }
+      switch( tileRenderRunnable.getStatus() ) {
+        case ERROR:
+          tileCanvasViewGroup.onTileRenderFailed( tileRenderRunnable, tileRenderRunnable.getThrowable() );
+          tileCanvasViewGroup.handleTileRenderException( tileRenderRunnable.getThrowable() );
+          break;
+        case COMPLETE:
+          tileCanvasViewGroup.onTileRenderSucceeded( tile );
+          tileCanvasViewGroup.addTileToCanvas( tile );
+          break;
+      }
     }
-    switch( message.what ) {
-      case RENDER_ERROR:
-        tileCanvasViewGroup.handleTileRenderException( tileRenderRunnable.getThrowable() );
-        break;
-      case RENDER_COMPLETE:
-        tileCanvasViewGroup.addTileToCanvas( tile );
-        break;
+    tileCanvasViewGroup.onTilesAddedToCanvas();
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private static class FrameCallback implements Choreographer.FrameCallback {
+
+    private final WeakReference<TileRenderHandler> mTileRenderHandlerWeakReference;
+
+    public FrameCallback( TileRenderHandler tileRenderHandler ) {
+      mTileRenderHandlerWeakReference = new WeakReference<>( tileRenderHandler );
+    }
+
+    @Override
+    public void doFrame( long frameTimeNanos ) {
+      TileRenderHandler tileRenderHandler = mTileRenderHandlerWeakReference.get();
+      if( tileRenderHandler != null ) {
+        tileRenderHandler.drain();
+      }
     }
   }
 }
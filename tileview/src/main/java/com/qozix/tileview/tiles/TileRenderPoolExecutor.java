@@ -1,110 +1,119 @@
 package com.qozix.tileview.tiles;
 
-import android.os.Handler;
-
-import java.lang.ref.WeakReference;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-public class TileRenderPoolExecutor extends ThreadPoolExecutor {
+/**
+ * The default TileRenderExecutor: a fixed pool of decode threads taking work from a
+ * PendingTileQueue, most recently prioritised tiles first.
+ */
+public class TileRenderPoolExecutor extends ThreadPoolExecutor implements TileRenderExecutor {
 
   private static final int KEEP_ALIVE_TIME = 1;
   private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
 
   private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
-  private static final int INITIAL_POOL_SIZE = AVAILABLE_PROCESSORS >> 1;
+  private static final int INITIAL_POOL_SIZE = Math.max( 1, AVAILABLE_PROCESSORS >> 1 );
   private static final int MAXIMUM_POOL_SIZE = AVAILABLE_PROCESSORS;
 
-  private WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupWeakReference;
+  private final PendingTileQueue mPendingTileQueue;
 
-  private TileRenderHandler mHandler = new TileRenderHandler();
+  private int mStalledCount;
 
   public TileRenderPoolExecutor() {
+    this( INITIAL_POOL_SIZE );
+  }
+
+  /**
+   * @param threadCount The number of decode threads, e.g., 1 on low-memory devices.
+   */
+  public TileRenderPoolExecutor( int threadCount ) {
+    this( threadCount, new PendingTileQueue() );
+  }
+
+  private TileRenderPoolExecutor( int threadCount, PendingTileQueue pendingTileQueue ) {
     super(
-      INITIAL_POOL_SIZE,
-      MAXIMUM_POOL_SIZE,
+      threadCount,
+      Math.max( threadCount, MAXIMUM_POOL_SIZE ),
       KEEP_ALIVE_TIME,
       KEEP_ALIVE_TIME_UNIT,
-      new LinkedBlockingDeque<Runnable>()
+      pendingTileQueue,
+      new TileDecodeThreadFactory()
     );
+    mPendingTileQueue = pendingTileQueue;
   }
 
-  public void queue( TileCanvasViewGroup tileCanvasViewGroup, Set<Tile> renderSet ) {
-    mTileCanvasViewGroupWeakReference = new WeakReference<>( tileCanvasViewGroup );
-    mHandler.setTileCanvasViewGroup( tileCanvasViewGroup );
-    tileCanvasViewGroup.onRenderTaskPreExecute();
-    for( Runnable runnable : getQueue() ) {
-      if( runnable instanceof TileRenderRunnable ) {
-        TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) runnable;
-        if( tileRenderRunnable.isDone() || tileRenderRunnable.isCancelled() ) {
-          continue;
-        }
-        Tile tile = tileRenderRunnable.getTile();
-        if( tile != null &&  !renderSet.contains( tile ) ) {
-          tile.reset();
-        }
-      }
-    }
-    for( Tile tile : renderSet ) {
-      if( isShutdownOrTerminating() ) {
-        return;
-      }
-      tile.execute( this, tileCanvasViewGroup.getBitmapRecycler() );
-    }
+  @Override
+  public Runnable submit( Tile tile, Runnable task ) {
+    Runnable replaced = cancel( tile );
+    execute( new TileTask( tile, task ) );
+    return replaced;
   }
 
-  public Handler getHandler(){
-    return mHandler;
+  @Override
+  public Runnable cancel( Tile tile ) {
+    Runnable removed = mPendingTileQueue.remove( tile );
+    return removed instanceof TileTask ? ((TileTask) removed).task : removed;
   }
 
-  public TileCanvasViewGroup getTileCanvasViewGroup(){
-    if( mTileCanvasViewGroupWeakReference == null ) {
-      return null;
-    }
-    return mTileCanvasViewGroupWeakReference.get();
+  @Override
+  public boolean prioritize( Tile tile ) {
+    return mPendingTileQueue.prioritize( tile );
   }
 
-  private void broadcastCancel() {
-    if( mTileCanvasViewGroupWeakReference != null ) {
-      TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupWeakReference.get();
-      if( tileCanvasViewGroup != null ) {
-        tileCanvasViewGroup.onRenderTaskCancelled();
-      }
+  @Override
+  public List<Runnable> cancelAll() {
+    List<Runnable> pending = new ArrayList<>();
+    mPendingTileQueue.drainTo( pending );
+    return unwrap( pending );
+  }
+
+  @Override
+  public void onRenderBatchComplete( RenderBatch renderBatch ) {
+    // threads are kept for the next batch
+  }
+
+  // an extra core thread stands in for each thread held by a timed out task
+  @Override
+  public synchronized void onTaskTimedOut( Tile tile ) {
+    mStalledCount++;
+    int corePoolSize = getCorePoolSize() + 1;
+    if( corePoolSize > getMaximumPoolSize() ) {
+      setMaximumPoolSize( corePoolSize );
     }
+    setCorePoolSize( corePoolSize );
   }
 
-  public void cancel() {
-    for( Runnable runnable : getQueue() ) {
-      if( runnable instanceof TileRenderRunnable ) {
-        TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) runnable;
-        tileRenderRunnable.cancel( true );
-        Tile tile = tileRenderRunnable.getTile();
-        if( tile != null ) {
-          tile.reset();
-        }
-      }
+  @Override
+  public synchronized void onTimedOutTaskReturned( Tile tile ) {
+    // the task may have timed out on an executor since replaced
+    if( mStalledCount == 0 ) {
+      return;
     }
-    getQueue().clear();
-    broadcastCancel();
+    mStalledCount--;
+    // the surplus thread is let go once idle
+    setCorePoolSize( getCorePoolSize() - 1 );
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return unwrap( super.shutdownNow() );
   }
 
   public boolean isShutdownOrTerminating() {
     return isShutdown() || isTerminating() || isTerminated();
   }
 
-  @Override
-  protected void afterExecute( Runnable runnable, Throwable throwable ) {
-    synchronized( this ) {
-      super.afterExecute( runnable, throwable );
-      if( getQueue().size() == 0 && getActiveCount() == 1 ) {
-        TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupWeakReference.get();
-        if( tileCanvasViewGroup != null ) {
-          tileCanvasViewGroup.onRenderTaskPostExecute();
-        }
+  private static List<Runnable> unwrap( List<Runnable> runnables ) {
+    for( int i = 0; i < runnables.size(); i++ ) {
+      Runnable runnable = runnables.get( i );
+      if( runnable instanceof TileTask ) {
+        runnables.set( i, ((TileTask) runnable).task );
       }
     }
+    return runnables;
   }
 
 }
@@ -1,10 +1,13 @@
 package com.qozix.tileview.tiles;
 
-import android.os.Handler;
-import android.os.Message;
-import android.os.Process;
+import com.qozix.tileview.graphics.AsyncBitmapProvider;
+import com.qozix.tileview.graphics.BatchBitmapProvider;
+import com.qozix.tileview.graphics.BitmapProvider;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Mike Dunn, 3/10/16.
@@ -12,25 +15,46 @@ import java.lang.ref.WeakReference;
 class TileRenderRunnable implements Runnable {
 
   private WeakReference<Tile> mTileWeakReference;
-  private WeakReference<TileRenderPoolExecutor> mTileRenderPoolExecutorWeakReference;
+  private WeakReference<TileRenderCoordinator> mTileRenderCoordinatorWeakReference;
+
+  private CancellationToken mCancellationToken;
+
+  private RenderBatch mRenderBatch;
+  private final AtomicBoolean mIsSettled = new AtomicBoolean();
 
   private boolean mCancelled = false;
   private boolean mComplete = false;
 
-  private volatile Thread mThread;
+  private volatile boolean mIsTimedOut;
+
+  // set once the decode is handed to an AsyncBitmapProvider or a batch; it's then finished by a callback, not by run
+  private volatile boolean mIsFinishedByCallback;
+  // false for asynchronous requests, and for tiles loaded on the thread of another tile's batch
+  private volatile boolean mIsHoldingThread = true;
+  private volatile long mRequestStartTime;
+  // the other tiles of the batch this runnable leads, if any
+  private volatile List<TileRenderRunnable> mBatchFollowers;
 
   private Throwable mThrowable;
 
+  private volatile TileRenderHandler.Status mStatus;
+
+  /**
+   * Removes this runnable from the executor if it hasn't started.  Threads are never interrupted;
+   * a decode in progress stops when it next checks its Tile's CancellationToken.
+   *
+   * @param mayInterrupt Ignored; kept for compatibility.
+   * @return True if this call cancelled the runnable.
+   */
   public boolean cancel( boolean mayInterrupt ) {
-    if( mayInterrupt && mThread != null ) {
-      mThread.interrupt();
-    }
     boolean cancelled = mCancelled;
     mCancelled = true;
-    if( mTileRenderPoolExecutorWeakReference != null ) {
-      TileRenderPoolExecutor tileRenderPoolExecutor = mTileRenderPoolExecutorWeakReference.get();
-      if(tileRenderPoolExecutor != null){
-        tileRenderPoolExecutor.remove( this );
+    if( mTileRenderCoordinatorWeakReference != null ) {
+      TileRenderCoordinator tileRenderCoordinator = mTileRenderCoordinatorWeakReference.get();
+      Tile tile = getTile();
+      if( tileRenderCoordinator != null && tile != null && tileRenderCoordinator.remove( tile, this ) ) {
+        // it will never run, so it has to be accounted for here
+        discard();
       }
     }
     return !cancelled;
@@ -44,14 +68,92 @@ class TileRenderRunnable implements Runnable {
     return mComplete;
   }
 
-  public void setTileRenderPoolExecutor(TileRenderPoolExecutor tileRenderPoolExecutor ) {
-    mTileRenderPoolExecutorWeakReference = new WeakReference<>(tileRenderPoolExecutor);
+  public void setTileRenderCoordinator( TileRenderCoordinator tileRenderCoordinator ) {
+    mTileRenderCoordinatorWeakReference = new WeakReference<>( tileRenderCoordinator );
   }
 
   public void setTile( Tile tile ) {
     mTileWeakReference = new WeakReference<>( tile );
   }
 
+  /**
+   * @param cancellationToken The token of the tile's pending decode this runnable was created for.
+   */
+  public void setCancellationToken( CancellationToken cancellationToken ) {
+    mCancellationToken = cancellationToken;
+  }
+
+  CancellationToken getCancellationToken() {
+    return mCancellationToken;
+  }
+
+  TileRenderCoordinator getTileRenderCoordinator() {
+    return mTileRenderCoordinatorWeakReference == null ? null : mTileRenderCoordinatorWeakReference.get();
+  }
+
+  void setRenderBatch( RenderBatch renderBatch ) {
+    mRenderBatch = renderBatch;
+  }
+
+  /**
+   * Called when this runnable is dropped without running, e.g., removed from the queue.
+   */
+  void discard() {
+    settle( TileRenderHandler.Status.INCOMPLETE );
+  }
+
+  // counts this runnable's outcome against its batch, once, whichever path gets here first
+  private void settle( TileRenderHandler.Status status ) {
+    RenderBatch renderBatch = mRenderBatch;
+    if( renderBatch == null || !mIsSettled.compareAndSet( false, true ) ) {
+      return;
+    }
+    if( renderBatch.onTileFinished( status ) ) {
+      TileRenderCoordinator tileRenderCoordinator = mTileRenderCoordinatorWeakReference == null ? null : mTileRenderCoordinatorWeakReference.get();
+      if( tileRenderCoordinator != null ) {
+        tileRenderCoordinator.onRenderBatchFinished( renderBatch );
+      }
+    }
+  }
+
+  /**
+   * @return False if the decode was handed to an AsyncBitmapProvider, or is part of another tile's batch.
+   */
+  public boolean isHoldingThread() {
+    return mIsHoldingThread;
+  }
+
+  public boolean isTimedOut() {
+    return mIsTimedOut;
+  }
+
+  /**
+   * Called on the UI thread by the DecodeWatchdog when this runnable's decode has run past its
+   * deadline.  The decode is asked to stop, the batch stops waiting for it, and the tile is reset
+   * to be queued again once the TileFailurePolicy allows; the thread is only given back when the decode returns.
+   */
+  void onDeadlineExceeded() {
+    mIsTimedOut = true;
+    // a batch leader's own tile may have been delivered while the rest of its batch is still loading
+    boolean isTileTimedOut = mStatus == null;
+    if( isTileTimedOut && mCancellationToken != null ) {
+      mCancellationToken.cancel();
+    }
+    settle( TileRenderHandler.Status.INCOMPLETE );
+    List<TileRenderRunnable> batchFollowers = mBatchFollowers;
+    if( batchFollowers != null ) {
+      for( TileRenderRunnable batchFollower : batchFollowers ) {
+        if( batchFollower.getStatus() == null ) {
+          batchFollower.onDeadlineExceeded();
+        }
+      }
+    }
+    TileRenderCoordinator tileRenderCoordinator = mTileRenderCoordinatorWeakReference.get();
+    if( tileRenderCoordinator != null ) {
+      tileRenderCoordinator.onDecodeTimedOut( this, isTileTimedOut );
+    }
+  }
+
   public Tile getTile() {
     if( mTileWeakReference != null ) {
       return mTileWeakReference.get();
@@ -63,62 +165,173 @@ class TileRenderRunnable implements Runnable {
     return mThrowable;
   }
 
+  public TileRenderHandler.Status getStatus() {
+    return mStatus;
+  }
+
   public TileRenderHandler.Status renderTile() {
     if( mCancelled ) {
       return TileRenderHandler.Status.INCOMPLETE;
     }
-    android.os.Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
-    if( mThread.isInterrupted() ) {
-      return TileRenderHandler.Status.INCOMPLETE;
-    }
     Tile tile = getTile();
     if( tile == null ) {
       return TileRenderHandler.Status.INCOMPLETE;
     }
-    TileRenderPoolExecutor tileRenderPoolExecutor = mTileRenderPoolExecutorWeakReference.get();
-    if( tileRenderPoolExecutor == null ) {
+    TileRenderCoordinator tileRenderCoordinator = mTileRenderCoordinatorWeakReference.get();
+    if( tileRenderCoordinator == null ) {
       return TileRenderHandler.Status.INCOMPLETE;
     }
-    TileCanvasViewGroup tileCanvasViewGroup = tileRenderPoolExecutor.getTileCanvasViewGroup();
+    TileCanvasViewGroup tileCanvasViewGroup = tileRenderCoordinator.getTileCanvasViewGroup();
     if(tileCanvasViewGroup == null ) {
       return TileRenderHandler.Status.INCOMPLETE;
     }
+    DecodeWatchdog decodeWatchdog = tileRenderCoordinator.getDecodeWatchdog();
+    BitmapProvider bitmapProvider = tileCanvasViewGroup.getBitmapProvider();
+    if( bitmapProvider instanceof AsyncBitmapProvider ) {
+      // the thread is free as soon as the request is started
+      mIsFinishedByCallback = true;
+      mIsHoldingThread = false;
+      mRequestStartTime = System.nanoTime();
+      decodeWatchdog.start( this );
+      tile.requestBitmap( tileCanvasViewGroup.getContext(), (AsyncBitmapProvider) bitmapProvider, tileCanvasViewGroup.getSalvagedBitmapCache(), mCancellationToken, this );
+      return TileRenderHandler.Status.INCOMPLETE;
+    }
+    if( bitmapProvider instanceof BatchBitmapProvider ) {
+      renderBatch( tile, tileRenderCoordinator, tileCanvasViewGroup, (BatchBitmapProvider) bitmapProvider );
+      return TileRenderHandler.Status.INCOMPLETE;
+    }
+    boolean isWatched = decodeWatchdog.start( this );
+    long start = System.nanoTime();
     try {
-      tile.generateBitmap( tileCanvasViewGroup.getContext(), tileCanvasViewGroup.getBitmapProvider() );
+      tile.generateBitmap( tileCanvasViewGroup.getContext(), bitmapProvider, tileCanvasViewGroup.getBitmapDeduplicator(), tileCanvasViewGroup.getSalvagedBitmapCache(), mCancellationToken );
+      tileCanvasViewGroup.getDecodeTimeStatistics().record( System.nanoTime() - start );
+    } catch( CancellationException e ) {
+      long elapsed = System.nanoTime() - start;
+      if( mIsTimedOut ) {
+        // cancelled for running past its deadline; how long it really took is what the timeout should be tuned with
+        tileCanvasViewGroup.getDecodeTimeStatistics().record( elapsed );
+      }
+      boolean salvaged = mCancellationToken != null && mCancellationToken.isSalvaged();
+      tileCanvasViewGroup.onDecodeCancelled( elapsed, salvaged );
+      return TileRenderHandler.Status.INCOMPLETE;
     } catch( Throwable throwable ) {
+      tileCanvasViewGroup.getDecodeTimeStatistics().record( System.nanoTime() - start );
       mThrowable = throwable;
       return TileRenderHandler.Status.ERROR;
+    } finally {
+      if( isWatched && !decodeWatchdog.finish( this ) ) {
+        // timed out while we were away; the thread that stood in for this one can go
+        tileRenderCoordinator.onTimedOutDecodeReturned( tile );
+      }
     }
-    if( mCancelled || tile.getBitmap() == null || mThread.isInterrupted() ) {
-      tile.reset();
+    if( tile.getBitmap() == null ) {
       return TileRenderHandler.Status.INCOMPLETE;
     }
     return TileRenderHandler.Status.COMPLETE;
   }
 
+  /**
+   * Leads a batch: claims other waiting tiles from the same detail level, and loads them all on
+   * this thread with a single call to the provider.  Only the leader is watched for a timeout,
+   * and it times out the rest of the batch with it.
+   */
+  private void renderBatch( Tile tile, TileRenderCoordinator tileRenderCoordinator, TileCanvasViewGroup tileCanvasViewGroup, BatchBitmapProvider batchBitmapProvider ) {
+    mIsFinishedByCallback = true;
+    List<TileRenderRunnable> batch = tileRenderCoordinator.claimBatch( this, tileCanvasViewGroup.getTileBatchSize(), tileCanvasViewGroup.getTileBatchWait() );
+    long start = System.nanoTime();
+    for( TileRenderRunnable tileRenderRunnable : batch ) {
+      tileRenderRunnable.mRequestStartTime = start;
+      if( tileRenderRunnable != this ) {
+        tileRenderRunnable.mIsFinishedByCallback = true;
+        tileRenderRunnable.mIsHoldingThread = false;
+      }
+    }
+    mBatchFollowers = batch.subList( 1, batch.size() );
+    DecodeWatchdog decodeWatchdog = tileRenderCoordinator.getDecodeWatchdog();
+    boolean isWatched = decodeWatchdog.start( this );
+    try {
+      new TileBatchRequest( batch, tileCanvasViewGroup.getSalvagedBitmapCache(), tile.getSampleSize() ).execute( tileCanvasViewGroup.getContext(), batchBitmapProvider );
+    } finally {
+      if( isWatched && !decodeWatchdog.finish( this ) ) {
+        tileRenderCoordinator.onTimedOutDecodeReturned( tile );
+      }
+    }
+  }
+
+  /**
+   * Called exactly once when an AsyncBitmapProvider request finishes, or a tile in a batch is
+   * delivered, from any thread.
+   *
+   * @param throwable Null if the bitmap was published, a CancellationException if the request was
+   *                  cancelled or its result superseded, or the failure.
+   */
+  void onRequestFinished( Throwable throwable ) {
+    TileRenderHandler.Status status;
+    long elapsed = System.nanoTime() - mRequestStartTime;
+    TileRenderCoordinator tileRenderCoordinator = mTileRenderCoordinatorWeakReference.get();
+    TileCanvasViewGroup tileCanvasViewGroup = tileRenderCoordinator == null ? null : tileRenderCoordinator.getTileCanvasViewGroup();
+    if( tileRenderCoordinator != null && !mIsHoldingThread ) {
+      // no thread was held, so a timeout needs no stand-in; a batch leader is done when its thread returns
+      tileRenderCoordinator.getDecodeWatchdog().finish( this );
+    }
+    if( throwable == null ) {
+      Tile tile = getTile();
+      status = tile == null || tile.getBitmap() == null ? TileRenderHandler.Status.INCOMPLETE : TileRenderHandler.Status.COMPLETE;
+      if( tileCanvasViewGroup != null ) {
+        tileCanvasViewGroup.getDecodeTimeStatistics().record( elapsed );
+      }
+    } else if( throwable instanceof CancellationException ) {
+      status = TileRenderHandler.Status.INCOMPLETE;
+      if( tileCanvasViewGroup != null ) {
+        if( mIsTimedOut ) {
+          tileCanvasViewGroup.getDecodeTimeStatistics().record( elapsed );
+        }
+        tileCanvasViewGroup.onDecodeCancelled( elapsed, mCancellationToken != null && mCancellationToken.isSalvaged() );
+      }
+    } else {
+      mThrowable = throwable;
+      status = TileRenderHandler.Status.ERROR;
+      if( tileCanvasViewGroup != null ) {
+        tileCanvasViewGroup.getDecodeTimeStatistics().record( elapsed );
+      }
+    }
+    finish( status );
+  }
+
   @Override
   public void run() {
-    mThread = Thread.currentThread();
     TileRenderHandler.Status status = renderTile();
+    if( mIsFinishedByCallback ) {
+      return;
+    }
+    finish( status );
+  }
+
+  private void finish( TileRenderHandler.Status status ) {
+    mStatus = status;
+    try {
+      deliver( status );
+    } finally {
+      settle( status );
+    }
+  }
+
+  private void deliver( TileRenderHandler.Status status ) {
     if( status == TileRenderHandler.Status.INCOMPLETE ) {
       return;
     }
     if( status == TileRenderHandler.Status.COMPLETE ) {
       mComplete = true;
     }
-    TileRenderPoolExecutor tileRenderPoolExecutor = mTileRenderPoolExecutorWeakReference.get();
-    if( tileRenderPoolExecutor != null ) {
-      TileCanvasViewGroup tileCanvasViewGroup = tileRenderPoolExecutor.getTileCanvasViewGroup();
+    TileRenderCoordinator tileRenderCoordinator = mTileRenderCoordinatorWeakReference.get();
+    if( tileRenderCoordinator != null ) {
+      TileCanvasViewGroup tileCanvasViewGroup = tileRenderCoordinator.getTileCanvasViewGroup();
       if( tileCanvasViewGroup != null ) {
         Tile tile = getTile();
         if( tile != null ) {
-          Handler handler = tileRenderPoolExecutor.getHandler();
-          if( handler != null ) {
-            // need to stamp time now, since it'll be drawn before the handler posts
-            tile.setTransitionsEnabled( tileCanvasViewGroup.getTransitionsEnabled() );
-            tile.setTransitionDuration( tileCanvasViewGroup.getTransitionDuration() );
-            Message message = handler.obtainMessage( status.getMessageCode(), this );
-            message.sendToTarget();
+          TileRenderHandler tileRenderHandler = tileRenderCoordinator.getTileRenderHandler();
+          if( tileRenderHandler != null ) {
+            tileRenderHandler.submit( this );
           }
         }
       }
@@ -0,0 +1,206 @@
+package com.qozix.tileview.tiles;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Decides when a TileCanvasViewGroup should recompute its viewport and queue tiles.  Requests are
+ * checked at most once per frame, on the vsync callback from {@link Choreographer} (or a frame-length
+ * Handler delay before Jelly Bean), and a render is started once the viewport has been still for a
+ * few consecutive frames, or once the render buffer has elapsed if it never settles.  During a
+ * fling, the render buffer is ignored, so the render waits until the fling has ended.
+ *
+ * Also measures the time between the viewport settling and the first tile arriving afterwards.
+ *
+ * All methods must be called on the UI thread.
+ */
+class TileRenderScheduler {
+
+  public static final int DEFAULT_SETTLE_FRAMES = 2;
+
+  private static final long FALLBACK_FRAME_INTERVAL = 16;
+
+  private final WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupWeakReference;
+
+  private final Handler mHandler = new Handler( Looper.getMainLooper() );
+  private final Runnable mFallbackFrameRunnable = new Runnable() {
+    @Override
+    public void run() {
+      doFrame();
+    }
+  };
+  private Object mFrameCallback;
+
+  private boolean mIsScheduled;
+  private long mRequestTime = -1;
+
+  private int mSettleFrames = DEFAULT_SETTLE_FRAMES;
+  private int mStillFrames;
+
+  private Rect mLastViewport = new Rect();
+  private Rect mCurrentViewport = new Rect();
+  private float mLastScale;
+
+  private long mSettleTime = -1;
+  private long mLastSettleLatency = -1;
+
+  public TileRenderScheduler( TileCanvasViewGroup tileCanvasViewGroup ) {
+    mTileCanvasViewGroupWeakReference = new WeakReference<>( tileCanvasViewGroup );
+  }
+
+  /**
+   * Number of consecutive frames the viewport has to be unchanged before a render starts.
+   *
+   * @param settleFrames Number of still frames to wait for; 0 renders on the next frame.
+   */
+  public void setSettleFrames( int settleFrames ) {
+    mSettleFrames = settleFrames;
+  }
+
+  public int getSettleFrames() {
+    return mSettleFrames;
+  }
+
+  /**
+   * Requests a render; any number of requests before the render starts are served by that render.
+   */
+  public void schedule() {
+    if( mRequestTime == -1 ) {
+      mRequestTime = SystemClock.uptimeMillis();
+    }
+    postFrame();
+  }
+
+  /**
+   * Drops any pending request.
+   */
+  public void cancel() {
+    mRequestTime = -1;
+    if( !mIsScheduled ) {
+      return;
+    }
+    mIsScheduled = false;
+    if( mFrameCallback != null ) {
+      removeFrameCallback();
+    } else {
+      mHandler.removeCallbacks( mFallbackFrameRunnable );
+    }
+  }
+
+  public boolean isScheduled() {
+    return mIsScheduled;
+  }
+
+  private void postFrame() {
+    if( mIsScheduled ) {
+      return;
+    }
+    mIsScheduled = true;
+    if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ) {
+      postFrameCallback();
+    } else {
+      mHandler.postDelayed( mFallbackFrameRunnable, FALLBACK_FRAME_INTERVAL );
+    }
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private void postFrameCallback() {
+    if( mFrameCallback == null ) {
+      mFrameCallback = new FrameCallback( this );
+    }
+    Choreographer.getInstance().postFrameCallback( (Choreographer.FrameCallback) mFrameCallback );
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private void removeFrameCallback() {
+    Choreographer.getInstance().removeFrameCallback( (Choreographer.FrameCallback) mFrameCallback );
+  }
+
+  private void doFrame() {
+    mIsScheduled = false;
+    TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupWeakReference.get();
+    if( tileCanvasViewGroup == null || mRequestTime == -1 ) {
+      return;
+    }
+    long now = SystemClock.uptimeMillis();
+    trackMotion( tileCanvasViewGroup, now );
+    boolean settled = mStillFrames >= mSettleFrames;
+    // a render starting mid-fling makes the fling stutter, so a fling is always waited out
+    boolean expired = !tileCanvasViewGroup.getIsFlinging() && now - mRequestTime >= tileCanvasViewGroup.getRenderBuffer();
+    if( settled || expired ) {
+      mRequestTime = -1;
+      boolean queued = tileCanvasViewGroup.renderTiles();
+      if( !queued && settled && !tileCanvasViewGroup.getIsRendering() ) {
+        // nothing will arrive for this settle, so don't attribute a later tile to it
+        mSettleTime = -1;
+      }
+    } else {
+      postFrame();
+    }
+  }
+
+  private void trackMotion( TileCanvasViewGroup tileCanvasViewGroup, long now ) {
+    tileCanvasViewGroup.getViewport( mCurrentViewport );
+    float scale = tileCanvasViewGroup.getScale();
+    if( !mCurrentViewport.equals( mLastViewport ) || scale != mLastScale ) {
+      mLastViewport.set( mCurrentViewport );
+      mLastScale = scale;
+      mStillFrames = 0;
+      mSettleTime = -1;
+    } else {
+      if( mStillFrames == 0 ) {
+        mSettleTime = now;
+      }
+      mStillFrames++;
+    }
+  }
+
+  /**
+   * Called as each decoded tile is handed to the canvas.
+   */
+  void onTileAdded() {
+    if( mSettleTime == -1 ) {
+      return;
+    }
+    mLastSettleLatency = SystemClock.uptimeMillis() - mSettleTime;
+    mSettleTime = -1;
+    TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupWeakReference.get();
+    if( tileCanvasViewGroup != null ) {
+      tileCanvasViewGroup.onSettleLatencyMeasured( mLastSettleLatency );
+    }
+  }
+
+  /**
+   * @return Milliseconds between the viewport most recently settling and the first tile arriving
+   * afterwards, or -1 if no such latency has been measured.
+   */
+  public long getLastSettleLatency() {
+    return mLastSettleLatency;
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private static class FrameCallback implements Choreographer.FrameCallback {
+
+    private final WeakReference<TileRenderScheduler> mTileRenderSchedulerWeakReference;
+
+    public FrameCallback( TileRenderScheduler tileRenderScheduler ) {
+      mTileRenderSchedulerWeakReference = new WeakReference<>( tileRenderScheduler );
+    }
+
+    @Override
+    public void doFrame( long frameTimeNanos ) {
+      TileRenderScheduler tileRenderScheduler = mTileRenderSchedulerWeakReference.get();
+      if( tileRenderScheduler != null ) {
+        tileRenderScheduler.doFrame();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,21 @@
+package com.qozix.tileview.tiles;
+
+/**
+ * Work submitted to a TileRenderExecutor, paired with the tile it's keyed by.
+ */
+class TileTask implements Runnable {
+
+  public final Tile tile;
+  public final Runnable task;
+
+  public TileTask( Tile tile, Runnable task ) {
+    this.tile = tile;
+    this.task = task;
+  }
+
+  @Override
+  public void run() {
+    task.run();
+  }
+
+}
@@ -0,0 +1,323 @@
+package com.qozix.tileview.tiles;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TileRenderExecutor where each decode thread has its own deque of work, and a thread that runs
+ * out steals from the back of the others' deques.  Work is spread across the deques as it's
+ * submitted, so threads rarely contend for the same lock, and a thread held up by a slow read
+ * doesn't hold up the tiles queued behind it.
+ *
+ * Cancelled and reprioritised work is marked as claimed rather than unlinked from its deque, so
+ * both take constant time; threads skip claimed entries as they come to them.  This is a plain
+ * implementation rather than a ForkJoinPool, which isn't available before Lollipop.
+ */
+public class WorkStealingTileRenderExecutor implements TileRenderExecutor {
+
+  private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
+  private static final long SPARE_POLL_INTERVAL = 250;
+
+  private final Worker[] mWorkers;
+  private final Thread[] mThreads;
+  private final TileDecodeThreadFactory mThreadFactory = new TileDecodeThreadFactory();
+
+  // threads held by timed out tasks, and the spare threads standing in for them
+  private final AtomicInteger mStalledCount = new AtomicInteger();
+  private final AtomicInteger mSpareCount = new AtomicInteger();
+
+  // one permit for every entry in any deque, claimed or not
+  private final Semaphore mAvailable = new Semaphore( 0 );
+  private final Map<Tile, Entry> mIndex = new IdentityHashMap<>();
+  private final AtomicInteger mNextWorker = new AtomicInteger();
+
+  private volatile boolean mIsShutdown;
+
+  public WorkStealingTileRenderExecutor() {
+    this( Math.max( 1, AVAILABLE_PROCESSORS - 1 ) );
+  }
+
+  /**
+   * @param threadCount The number of decode threads.
+   */
+  public WorkStealingTileRenderExecutor( int threadCount ) {
+    mWorkers = new Worker[threadCount];
+    mThreads = new Thread[threadCount];
+    for( int i = 0; i < threadCount; i++ ) {
+      mWorkers[i] = new Worker( i );
+      mThreads[i] = mThreadFactory.newThread( mWorkers[i] );
+      mThreads[i].start();
+    }
+  }
+
+  @Override
+  public Runnable submit( Tile tile, Runnable task ) {
+    if( mIsShutdown ) {
+      throw new RejectedExecutionException();
+    }
+    Entry entry = new Entry( tile, task );
+    Runnable replaced = null;
+    synchronized( mIndex ) {
+      Entry previous = mIndex.put( tile, entry );
+      if( previous != null && previous.claim() ) {
+        replaced = previous.task;
+      }
+    }
+    nextWorker().push( entry, false );
+    mAvailable.release();
+    return replaced;
+  }
+
+  @Override
+  public Runnable cancel( Tile tile ) {
+    Entry entry;
+    synchronized( mIndex ) {
+      entry = mIndex.remove( tile );
+    }
+    return entry != null && entry.claim() ? entry.task : null;
+  }
+
+  @Override
+  public boolean prioritize( Tile tile ) {
+    Entry entry;
+    synchronized( mIndex ) {
+      Entry previous = mIndex.get( tile );
+      if( previous == null || !previous.claim() ) {
+        return false;
+      }
+      // the old entry is left in place, claimed, and a fresh one goes to the front
+      entry = new Entry( tile, previous.task );
+      mIndex.put( tile, entry );
+    }
+    nextWorker().push( entry, true );
+    mAvailable.release();
+    return true;
+  }
+
+  @Override
+  public List<Runnable> cancelAll() {
+    List<Runnable> cancelled = new ArrayList<>();
+    synchronized( mIndex ) {
+      for( Entry entry : mIndex.values() ) {
+        if( entry.claim() ) {
+          cancelled.add( entry.task );
+        }
+      }
+      mIndex.clear();
+    }
+    return cancelled;
+  }
+
+  @Override
+  public void onRenderBatchComplete( RenderBatch renderBatch ) {
+    // threads are kept for the next batch
+  }
+
+  @Override
+  public void onTaskTimedOut( Tile tile ) {
+    mStalledCount.incrementAndGet();
+    if( !mIsShutdown ) {
+      mSpareCount.incrementAndGet();
+      mThreadFactory.newThread( new SpareWorker() ).start();
+    }
+  }
+
+  @Override
+  public void onTimedOutTaskReturned( Tile tile ) {
+    // the next spare to come up for air lets itself go; the task may have timed out on an executor since replaced
+    int stalledCount;
+    do {
+      stalledCount = mStalledCount.get();
+    } while( stalledCount > 0 && !mStalledCount.compareAndSet( stalledCount, stalledCount - 1 ) );
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    mIsShutdown = true;
+    List<Runnable> cancelled = cancelAll();
+    for( Thread thread : mThreads ) {
+      thread.interrupt();
+    }
+    return cancelled;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return mIsShutdown;
+  }
+
+  public int getThreadCount() {
+    return mWorkers.length;
+  }
+
+  /**
+   * @return The number of tasks taken from another thread's deque.
+   */
+  public int getStealCount() {
+    int stealCount = 0;
+    for( Worker worker : mWorkers ) {
+      stealCount += worker.mStealCount;
+    }
+    return stealCount;
+  }
+
+  private Worker nextWorker() {
+    return mWorkers[(mNextWorker.getAndIncrement() & Integer.MAX_VALUE) % mWorkers.length];
+  }
+
+  private void run( Entry entry ) {
+    synchronized( mIndex ) {
+      if( mIndex.get( entry.tile ) == entry ) {
+        mIndex.remove( entry.tile );
+      }
+    }
+    try {
+      entry.task.run();
+    } catch( RuntimeException e ) {
+      // reported as if it were uncaught, as a pool thread's would be, but the worker and its deque carry on
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException( thread, e );
+    }
+  }
+
+  private static class Entry {
+    public final Tile tile;
+    public final Runnable task;
+    private final AtomicBoolean mIsClaimed = new AtomicBoolean();
+
+    public Entry( Tile tile, Runnable task ) {
+      this.tile = tile;
+      this.task = task;
+    }
+
+    /**
+     * @return True if the caller is the one to run or drop the task.
+     */
+    public boolean claim() {
+      return mIsClaimed.compareAndSet( false, true );
+    }
+  }
+
+  private class Worker implements Runnable {
+
+    private final int mIndex;
+    private final ArrayDeque<Entry> mDeque = new ArrayDeque<>();
+    private volatile int mStealCount;
+
+    public Worker( int index ) {
+      mIndex = index;
+    }
+
+    public void push( Entry entry, boolean first ) {
+      synchronized( mDeque ) {
+        if( first ) {
+          mDeque.addFirst( entry );
+        } else {
+          mDeque.addLast( entry );
+        }
+      }
+    }
+
+    private Entry pollFirst() {
+      synchronized( mDeque ) {
+        return mDeque.pollFirst();
+      }
+    }
+
+    private Entry pollLast() {
+      synchronized( mDeque ) {
+        return mDeque.pollLast();
+      }
+    }
+
+    // a permit has been acquired, so an entry is waiting in some deque
+    private Entry take() {
+      Entry entry = pollFirst();
+      if( entry != null ) {
+        return entry;
+      }
+      for( int i = 0; i < mWorkers.length; i++ ) {
+        Worker victim = mWorkers[(mIndex + i) % mWorkers.length];
+        if( victim == this ) {
+          continue;
+        }
+        entry = victim.pollLast();
+        if( entry != null ) {
+          mStealCount++;
+          return entry;
+        }
+      }
+      return null;
+    }
+
+    // called holding a permit
+    protected void runNext() {
+      Entry entry = take();
+      while( entry == null && !mIsShutdown ) {
+        // another thread is between taking its permit and its entry; ours is still out there
+        Thread.yield();
+        entry = take();
+      }
+      if( entry != null && entry.claim() ) {
+        WorkStealingTileRenderExecutor.this.run( entry );
+      }
+    }
+
+    @Override
+    public void run() {
+      while( !mIsShutdown ) {
+        try {
+          mAvailable.acquire();
+        } catch( InterruptedException e ) {
+          return;
+        }
+        runNext();
+      }
+    }
+  }
+
+  /**
+   * Stands in for a thread held by a timed out task.  It has no deque of its own, so it only
+   * steals, and it lets itself go once there are more spares than held threads.
+   */
+  private class SpareWorker extends Worker {
+
+    public SpareWorker() {
+      super( 0 );
+    }
+
+    private boolean retire() {
+      while( true ) {
+        int spareCount = mSpareCount.get();
+        if( spareCount <= mStalledCount.get() ) {
+          return false;
+        }
+        if( mSpareCount.compareAndSet( spareCount, spareCount - 1 ) ) {
+          return true;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      while( !mIsShutdown && !retire() ) {
+        try {
+          if( mAvailable.tryAcquire( SPARE_POLL_INTERVAL, TimeUnit.MILLISECONDS ) ) {
+            runNext();
+          }
+        } catch( InterruptedException e ) {
+          break;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,146 @@
+package com.qozix.tileview.view;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Measures the time between consecutive frames while running, using {@link Choreographer}
+ * frame callbacks.  Intended for measuring how smoothly a gesture was drawn, e.g., start at
+ * the beginning of a pan and stop at the end.  Frame times are only available from Jelly Bean;
+ * on earlier versions, start and stop do nothing and every statistic is 0.
+ *
+ * Must be used from the UI thread.
+ */
+public class FrameTimeMonitor {
+
+  public static final long DEFAULT_JANK_THRESHOLD_NANOS = 25000000;
+
+  private static final long NANOS_PER_MILLISECOND = 1000000;
+
+  private boolean mIsRunning;
+  private long mLastFrameTimeNanos;
+  private long mJankThresholdNanos = DEFAULT_JANK_THRESHOLD_NANOS;
+
+  private int mFrameCount;
+  private int mJankyFrameCount;
+  private long mTotalFrameTimeNanos;
+  private long mMaximumFrameTimeNanos;
+
+  private Object mFrameCallback;
+  private OnFrameListener mOnFrameListener;
+
+  /**
+   * Frames that take longer than this are counted as janky.
+   *
+   * @param jankThresholdNanos Frame time, in nanoseconds, above which a frame is janky.
+   */
+  public void setJankThreshold( long jankThresholdNanos ) {
+    mJankThresholdNanos = jankThresholdNanos;
+  }
+
+  public void setOnFrameListener( OnFrameListener onFrameListener ) {
+    mOnFrameListener = onFrameListener;
+  }
+
+  public boolean isRunning() {
+    return mIsRunning;
+  }
+
+  public void start() {
+    if( mIsRunning || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN ) {
+      return;
+    }
+    mIsRunning = true;
+    mLastFrameTimeNanos = 0;
+    postFrameCallback();
+  }
+
+  public void stop() {
+    if( !mIsRunning ) {
+      return;
+    }
+    mIsRunning = false;
+    removeFrameCallback();
+  }
+
+  /**
+   * Clears all statistics; does not start or stop the monitor.
+   */
+  public void reset() {
+    mFrameCount = 0;
+    mJankyFrameCount = 0;
+    mTotalFrameTimeNanos = 0;
+    mMaximumFrameTimeNanos = 0;
+  }
+
+  public int getFrameCount() {
+    return mFrameCount;
+  }
+
+  public int getJankyFrameCount() {
+    return mJankyFrameCount;
+  }
+
+  /**
+   * @return The mean time between frames, in milliseconds.
+   */
+  public float getAverageFrameTime() {
+    return mFrameCount == 0 ? 0 : mTotalFrameTimeNanos / (float) mFrameCount / NANOS_PER_MILLISECOND;
+  }
+
+  /**
+   * @return The longest time between two frames, in milliseconds.
+   */
+  public float getMaximumFrameTime() {
+    return mMaximumFrameTimeNanos / (float) NANOS_PER_MILLISECOND;
+  }
+
+  private void onFrame( long frameTimeNanos ) {
+    if( !mIsRunning ) {
+      return;
+    }
+    if( mLastFrameTimeNanos != 0 ) {
+      long frameTime = frameTimeNanos - mLastFrameTimeNanos;
+      mFrameCount++;
+      mTotalFrameTimeNanos += frameTime;
+      mMaximumFrameTimeNanos = Math.max( mMaximumFrameTimeNanos, frameTime );
+      if( frameTime > mJankThresholdNanos ) {
+        mJankyFrameCount++;
+      }
+      if( mOnFrameListener != null ) {
+        mOnFrameListener.onFrame( frameTime );
+      }
+    }
+    mLastFrameTimeNanos = frameTimeNanos;
+    postFrameCallback();
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private void postFrameCallback() {
+    if( mFrameCallback == null ) {
+      mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame( long frameTimeNanos ) {
+          onFrame( frameTimeNanos );
+        }
+      };
+    }
+    Choreographer.getInstance().postFrameCallback( (Choreographer.FrameCallback) mFrameCallback );
+  }
+
+  @TargetApi( Build.VERSION_CODES.JELLY_BEAN )
+  private void removeFrameCallback() {
+    if( mFrameCallback != null ) {
+      Choreographer.getInstance().removeFrameCallback( (Choreographer.FrameCallback) mFrameCallback );
+    }
+  }
+
+  public interface OnFrameListener {
+    /**
+     * @param frameTimeNanos Time since the previous frame, in nanoseconds.
+     */
+    void onFrame( long frameTimeNanos );
+  }
+
+}
@@ -0,0 +1,182 @@
+package com.qozix.tileview.view;
+
+import android.view.View;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Promotes registered views to a cached layer (hardware or software) while the content is
+ * moving, so that panning and flinging only composite the cached layer rather than redrawing
+ * every path or marker on each frame.  While promoted, scale changes are applied as a view
+ * transform of the cached layer, and the view is only re-rasterised (its real scale updated)
+ * once the scale has drifted beyond a threshold from the scale it was last drawn at.  Layers
+ * are released when motion ends.
+ *
+ * A layer is the size of the view, and the views this is used for are laid out at the size of the
+ * scaled image, so a view is only promoted while it's no wider or taller than the maximum layer
+ * dimension; a larger one is drawn as usual.  A promoted view that grows past the maximum during
+ * a zoom is released at its next re-rasterisation.  Views that aren't visible are not promoted.
+ *
+ * Only views whose content can be stretched without distortion should be managed; views that
+ * counter-scale their children, like a MarkerLayout, would have them stretched too.
+ *
+ * Must be used from the UI thread.
+ */
+public class MotionLayerController {
+
+  public static final float DEFAULT_RASTER_THRESHOLD = 0.25f;
+  public static final int DEFAULT_MAXIMUM_LAYER_DIMENSION = 4096;
+
+  private Map<View, LayerState> mLayerStates = new LinkedHashMap<>();
+
+  private float mRasterThreshold = DEFAULT_RASTER_THRESHOLD;
+  private int mMaximumLayerDimension = DEFAULT_MAXIMUM_LAYER_DIMENSION;
+
+  private boolean mIsInMotion;
+
+  /**
+   * Sets the layer type a view is given while the content is moving.
+   *
+   * @param view      The view to manage.
+   * @param layerType View.LAYER_TYPE_HARDWARE, View.LAYER_TYPE_SOFTWARE, or View.LAYER_TYPE_NONE to leave the view alone.
+   */
+  public void setLayerType( View view, int layerType ) {
+    LayerState layerState = mLayerStates.get( view );
+    if( layerState == null ) {
+      layerState = new LayerState();
+      mLayerStates.put( view, layerState );
+    }
+    if( layerState.isPromoted ) {
+      release( view, layerState );
+    }
+    layerState.layerType = layerType;
+  }
+
+  public int getLayerType( View view ) {
+    LayerState layerState = mLayerStates.get( view );
+    return layerState == null ? View.LAYER_TYPE_NONE : layerState.layerType;
+  }
+
+  /**
+   * While promoted, a view is re-rasterised once the current scale differs from the scale it was
+   * drawn at by more than this fraction, e.g., 0.25 for a 25% change in either direction.
+   *
+   * @param rasterThreshold Fraction of scale change tolerated before re-rasterising.
+   */
+  public void setRasterThreshold( float rasterThreshold ) {
+    mRasterThreshold = rasterThreshold;
+  }
+
+  public float getRasterThreshold() {
+    return mRasterThreshold;
+  }
+
+  /**
+   * @param maximumLayerDimension The widest or tallest, in pixels, a view may be and still be promoted.
+   */
+  public void setMaximumLayerDimension( int maximumLayerDimension ) {
+    mMaximumLayerDimension = maximumLayerDimension;
+  }
+
+  public int getMaximumLayerDimension() {
+    return mMaximumLayerDimension;
+  }
+
+  public boolean isInMotion() {
+    return mIsInMotion;
+  }
+
+  /**
+   * Promotes every view with a layer type set.
+   *
+   * @param scale The scale the views are currently drawn at.
+   */
+  public void onMotionBegin( float scale ) {
+    if( mIsInMotion ) {
+      return;
+    }
+    mIsInMotion = true;
+    for( Map.Entry<View, LayerState> entry : mLayerStates.entrySet() ) {
+      View view = entry.getKey();
+      LayerState layerState = entry.getValue();
+      if( layerState.layerType == View.LAYER_TYPE_NONE ) {
+        continue;
+      }
+      if( view.getVisibility() != View.VISIBLE || !fits( view ) ) {
+        continue;
+      }
+      layerState.previousLayerType = view.getLayerType();
+      layerState.rasterScale = scale;
+      layerState.isPromoted = true;
+      view.setPivotX( 0 );
+      view.setPivotY( 0 );
+      view.setLayerType( layerState.layerType, null );
+    }
+  }
+
+  /**
+   * Releases all promoted layers.  The caller should then apply the current scale to each view.
+   */
+  public void onMotionEnd() {
+    if( !mIsInMotion ) {
+      return;
+    }
+    mIsInMotion = false;
+    for( Map.Entry<View, LayerState> entry : mLayerStates.entrySet() ) {
+      if( entry.getValue().isPromoted ) {
+        release( entry.getKey(), entry.getValue() );
+      }
+    }
+  }
+
+  /**
+   * Called with each scale change of a managed view.  If the view is promoted and the scale is
+   * within the raster threshold of the scale it was drawn at, the cached layer is transformed
+   * and true is returned; the caller should not apply the scale to the view.  Otherwise, any
+   * transform is cleared and false is returned, and the caller should apply the scale as usual.
+   *
+   * @param view  The managed view.
+   * @param scale The new scale.
+   * @return True if the scale was applied as a transform of the cached layer.
+   */
+  public boolean deferScale( View view, float scale ) {
+    LayerState layerState = mLayerStates.get( view );
+    if( layerState == null || !layerState.isPromoted ) {
+      return false;
+    }
+    float relativeScale = scale / layerState.rasterScale;
+    if( Math.abs( relativeScale - 1 ) <= mRasterThreshold ) {
+      view.setScaleX( relativeScale );
+      view.setScaleY( relativeScale );
+      return true;
+    }
+    if( !fits( view ) ) {
+      release( view, layerState );
+      return false;
+    }
+    layerState.rasterScale = scale;
+    view.setScaleX( 1 );
+    view.setScaleY( 1 );
+    return false;
+  }
+
+  private boolean fits( View view ) {
+    return view.getWidth() <= mMaximumLayerDimension && view.getHeight() <= mMaximumLayerDimension;
+  }
+
+  private void release( View view, LayerState layerState ) {
+    layerState.isPromoted = false;
+    view.setScaleX( 1 );
+    view.setScaleY( 1 );
+    view.setLayerType( layerState.previousLayerType, null );
+  }
+
+  private static class LayerState {
+    public int layerType = View.LAYER_TYPE_NONE;
+    public int previousLayerType = View.LAYER_TYPE_NONE;
+    public float rasterScale;
+    public boolean isPromoted;
+  }
+
+}
@@ -3,6 +3,10 @@ package com.qozix.tileview.widgets;
 import android.animation.Animator;
 import android.animation.ValueAnimator;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
@@ -62,6 +66,17 @@ public class ZoomPanLayout extends ViewGroup implements
 
   private int mAnimationDuration = DEFAULT_ZOOM_PAN_ANIMATION_DURATION;
 
+  private boolean mShouldUseFastPinch;
+  private boolean mIsPinchSnapshotActive;
+  private Bitmap mPinchSnapshot;
+  private Matrix mPinchSnapshotMatrix = new Matrix();
+  private Paint mPinchSnapshotPaint = new Paint( Paint.FILTER_BITMAP_FLAG );
+  private float mPinchSnapshotScale;
+  private int mPinchSnapshotScrollX;
+  private int mPinchSnapshotScrollY;
+  private int mPinchSnapshotOffsetX;
+  private int mPinchSnapshotOffsetY;
+
   private HashSet<ZoomPanListener> mZoomPanListeners = new HashSet<ZoomPanListener>();
 
   private Scroller mScroller;
@@ -168,6 +183,33 @@ public class ZoomPanLayout extends ViewGroup implements
     mShouldLoopScale = shouldLoopScale;
   }
 
+  /**
+   * When enabled, a pinch captures what's on screen once when it begins, and only that snapshot
+   * is scaled and moved while the fingers are down.  Children aren't told about the new scale,
+   * laid out or redrawn until the pinch ends, so the cost of each pinch frame doesn't depend on
+   * how much content (tiles, markers, paths) is on screen.  The snapshot is a screen-sized
+   * ARGB_8888 Bitmap; if it can't be allocated, the pinch proceeds normally.
+   *
+   * @param shouldUseFastPinch True to scale a snapshot during pinch gestures.
+   */
+  public void setShouldUseFastPinch( boolean shouldUseFastPinch ) {
+    mShouldUseFastPinch = shouldUseFastPinch;
+  }
+
+  public boolean getShouldUseFastPinch() {
+    return mShouldUseFastPinch;
+  }
+
+  /**
+   * Returns whether a fast pinch is in progress, during which children still reflect the scale
+   * at the start of the pinch; see {@link #setShouldUseFastPinch(boolean)}.
+   *
+   * @return True if a pinch snapshot is being drawn in place of the children.
+   */
+  public boolean isPinchSnapshotActive() {
+    return mIsPinchSnapshotActive;
+  }
+
   /**
    * Set minimum and maximum mScale values for this ZoomPanLayout.
    * Note that if minimumScaleMode is set to {@link MinimumScaleMode#FIT} or {@link MinimumScaleMode#FILL}, the minimum value set here will be ignored
@@ -258,7 +300,10 @@ public class ZoomPanLayout extends ViewGroup implements
       updateScaledDimensions();
       constrainScrollToLimits();
       recalculateImagePadding();
-      onScaleChanged( scale, previous );
+      // children catch up once, when the pinch ends
+      if( !mIsPinchSnapshotActive ) {
+        onScaleChanged( scale, previous );
+      }
       invalidate();
     }
   }
@@ -828,6 +873,9 @@ public class ZoomPanLayout extends ViewGroup implements
   @Override
   public boolean onScaleBegin( ScaleGestureDetector scaleGestureDetector ) {
     mIsScaling = true;
+    if( mShouldUseFastPinch ) {
+      beginPinchSnapshot();
+    }
     broadcastPinchBegin();
     return true;
   }
@@ -835,9 +883,71 @@ public class ZoomPanLayout extends ViewGroup implements
   @Override
   public void onScaleEnd( ScaleGestureDetector scaleGestureDetector ) {
     mIsScaling = false;
+    endPinchSnapshot();
     broadcastPinchEnd();
   }
 
+  private void beginPinchSnapshot() {
+    int width = getWidth();
+    int height = getHeight();
+    if( width <= 0 || height <= 0 ) {
+      return;
+    }
+    // a screen-sized bitmap is only held for the length of the pinch
+    try {
+      mPinchSnapshot = Bitmap.createBitmap( width, height, Bitmap.Config.ARGB_8888 );
+    } catch( OutOfMemoryError e ) {
+      return;
+    }
+    Canvas canvas = new Canvas( mPinchSnapshot );
+    canvas.translate( -getScrollX(), -getScrollY() );
+    super.dispatchDraw( canvas );
+    mPinchSnapshotScale = mScale;
+    mPinchSnapshotScrollX = getScrollX();
+    mPinchSnapshotScrollY = getScrollY();
+    mPinchSnapshotOffsetX = mOffsetX;
+    mPinchSnapshotOffsetY = mOffsetY;
+    mIsPinchSnapshotActive = true;
+  }
+
+  private void endPinchSnapshot() {
+    if( !mIsPinchSnapshotActive ) {
+      return;
+    }
+    mIsPinchSnapshotActive = false;
+    // not recycled; a display list recorded during the pinch may still refer to it
+    mPinchSnapshot = null;
+    if( mScale != mPinchSnapshotScale ) {
+      onScaleChanged( mScale, mPinchSnapshotScale );
+    }
+    requestLayout();
+    invalidate();
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    mIsPinchSnapshotActive = false;
+    mPinchSnapshot = null;
+  }
+
+  @Override
+  protected void dispatchDraw( Canvas canvas ) {
+    if( !mIsPinchSnapshotActive ) {
+      super.dispatchDraw( canvas );
+      return;
+    }
+    // map the snapshot's screen pixels to where that content sits at the current scale and scroll;
+    // the canvas is already translated by the current scroll
+    float deltaScale = mScale / mPinchSnapshotScale;
+    int offsetX = mScaledWidth >= getWidth() ? 0 : getWidth() / 2 - mScaledWidth / 2;
+    int offsetY = mScaledHeight >= getHeight() ? 0 : getHeight() / 2 - mScaledHeight / 2;
+    mPinchSnapshotMatrix.setTranslate( mPinchSnapshotScrollX - mPinchSnapshotOffsetX, mPinchSnapshotScrollY - mPinchSnapshotOffsetY );
+    mPinchSnapshotMatrix.postScale( deltaScale, deltaScale );
+    mPinchSnapshotMatrix.postTranslate( offsetX, offsetY );
+    canvas.drawBitmap( mPinchSnapshot, mPinchSnapshotMatrix, mPinchSnapshotPaint );
+  }
+
   @Override
   public boolean onScale( ScaleGestureDetector scaleGestureDetector ) {
     float currentScale = mScale * mScaleGestureDetector.getScaleFactor();
@@ -0,0 +1,437 @@
+package com.qozix.tileview.graphics;
+
+import android.graphics.Bitmap;
+
+import com.qozix.tileview.detail.DetailLevel;
+import com.qozix.tileview.tiles.Tile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BitmapProviderHttpTest {
+
+  private static final long TIMEOUT = 5000;
+  private static final byte[] BODY = { 1, 2, 3, 4 };
+  private static final byte[] CHANGED_BODY = { 5, 6, 7, 8 };
+  // long enough for a request that shouldn't happen to have happened
+  private static final long SETTLE_TIME = 200;
+
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private TestTileServer mTestTileServer;
+  private DetailLevel mDetailLevel;
+
+  @Before
+  public void setUp() throws Exception {
+    mTestTileServer = new TestTileServer();
+    mTestTileServer.start();
+    mDetailLevel = new DetailLevel( null, 1, null, 256, 256 );
+  }
+
+  @After
+  public void tearDown() {
+    mTestTileServer.stop();
+  }
+
+  @Test
+  public void firstLoadIsRequestedAndDecoded() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    CountingBitmapProviderHttp bitmapProviderHttp = new CountingBitmapProviderHttp( 4 );
+    RecordingCallback callback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertNotNull( callback.loadedBitmap );
+    assertNull( callback.throwable );
+    assertEquals( 1, bitmapProviderHttp.decodeCount.get() );
+    assertArrayEquals( BODY, bitmapProviderHttp.lastDecodedData );
+    assertEquals( 1, bitmapProviderHttp.getRequestCount() );
+    assertEquals( 1, mTestTileServer.getRequestCount() );
+  }
+
+  @Test
+  public void missingTileLoadsNull() throws Exception {
+    CountingBitmapProviderHttp bitmapProviderHttp = new CountingBitmapProviderHttp( 4 );
+    RecordingCallback callback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertEquals( 1, callback.loadedCount.get() );
+    assertNull( callback.loadedBitmap );
+    assertNull( callback.throwable );
+    assertEquals( 0, bitmapProviderHttp.decodeCount.get() );
+  }
+
+  @Test
+  public void requestsPerHostAreCapped() throws Exception {
+    int tileCount = 6;
+    for( int i = 0; i < tileCount; i++ ) {
+      mTestTileServer.setTile( i, 0, BODY );
+    }
+    mTestTileServer.hold();
+    CountingBitmapProviderHttp bitmapProviderHttp = new CountingBitmapProviderHttp( 2 );
+    List<RecordingCallback> callbacks = new ArrayList<>();
+    for( int i = 0; i < tileCount; i++ ) {
+      RecordingCallback callback = new RecordingCallback();
+      bitmapProviderHttp.requestBitmap( createTile( i, 0 ), null, 1, callback );
+      callbacks.add( callback );
+    }
+    assertTrue( mTestTileServer.awaitActiveRequestCount( 2, TIMEOUT ) );
+    // give any request beyond the cap time to arrive
+    Thread.sleep( 200 );
+    assertEquals( 2, mTestTileServer.getActiveRequestCount() );
+    mTestTileServer.release();
+    for( RecordingCallback callback : callbacks ) {
+      assertTrue( callback.awaitFinished() );
+      assertNotNull( callback.loadedBitmap );
+    }
+    assertEquals( 2, mTestTileServer.getPeakActiveRequestCount() );
+    assertEquals( tileCount, bitmapProviderHttp.getRequestCount() );
+  }
+
+  @Test
+  public void cancelledRequestsAreDroppedOrAborted() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    mTestTileServer.setTile( 1, 0, BODY );
+    mTestTileServer.setTile( 2, 0, BODY );
+    mTestTileServer.hold();
+    CountingBitmapProviderHttp bitmapProviderHttp = new CountingBitmapProviderHttp( 1 );
+    RecordingCallback inFlightCallback = new RecordingCallback();
+    AsyncBitmapProvider.Cancellable inFlight = bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, inFlightCallback );
+    assertTrue( mTestTileServer.awaitActiveRequestCount( 1, TIMEOUT ) );
+    RecordingCallback waitingCallback = new RecordingCallback();
+    AsyncBitmapProvider.Cancellable waiting = bitmapProviderHttp.requestBitmap( createTile( 1, 0 ), null, 1, waitingCallback );
+    waiting.cancel();
+    assertEquals( 1, bitmapProviderHttp.getDroppedCount() );
+    assertEquals( 0, bitmapProviderHttp.getAbortedCount() );
+    inFlight.cancel();
+    // a second cancel is ignored
+    inFlight.cancel();
+    assertEquals( 1, bitmapProviderHttp.getAbortedCount() );
+    assertEquals( 1, bitmapProviderHttp.getDroppedCount() );
+    mTestTileServer.release();
+    // the aborted request gives its slot up, so the next one goes through
+    RecordingCallback nextCallback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 2, 0 ), null, 1, nextCallback );
+    assertTrue( nextCallback.awaitFinished() );
+    assertNotNull( nextCallback.loadedBitmap );
+    // cancelled tiles are never called back
+    assertFalse( inFlightCallback.isFinished() );
+    assertFalse( waitingCallback.isFinished() );
+    assertEquals( 2, bitmapProviderHttp.getRequestCount() );
+  }
+
+  @Test
+  public void waitingRequestsAreSentInOrderRequested() throws Exception {
+    List<String> paths = loadQueuedBehindFirst( 4, -1 );
+    assertEquals( Arrays.asList( getPath( 0 ), getPath( 1 ), getPath( 2 ), getPath( 3 ) ), paths );
+  }
+
+  @Test
+  public void prioritizedRequestIsSentNext() throws Exception {
+    List<String> paths = loadQueuedBehindFirst( 4, 3 );
+    assertEquals( Arrays.asList( getPath( 0 ), getPath( 3 ), getPath( 1 ), getPath( 2 ) ), paths );
+  }
+
+  @Test
+  public void notModifiedRevalidationDoesNotDecode() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    final CountingBitmapProviderHttp bitmapProviderHttp = createCachingBitmapProviderHttp();
+    loadFromNetwork( bitmapProviderHttp );
+    RecordingCallback callback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertNotNull( callback.loadedBitmap );
+    assertEquals( 1, bitmapProviderHttp.getDiskCacheHitCount() );
+    assertTrue( await( new Condition() {
+      @Override
+      public boolean isMet() {
+        return bitmapProviderHttp.getNotModifiedCount() == 1;
+      }
+    } ) );
+    Thread.sleep( SETTLE_TIME );
+    assertEquals( 1, mTestTileServer.getNotModifiedCount() );
+    // once from the network, once from disk, and not again for the 304
+    assertEquals( 2, bitmapProviderHttp.decodeCount.get() );
+    assertEquals( 0, callback.changedCount.get() );
+    assertEquals( 0, bitmapProviderHttp.getChangedCount() );
+  }
+
+  @Test
+  public void changedRevalidationSwapsBitmap() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    CountingBitmapProviderHttp bitmapProviderHttp = createCachingBitmapProviderHttp();
+    loadFromNetwork( bitmapProviderHttp );
+    mTestTileServer.setTile( 0, 0, CHANGED_BODY );
+    RecordingCallback callback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertTrue( callback.awaitChanged( TIMEOUT ) );
+    assertNotNull( callback.changedBitmap );
+    assertEquals( 1, callback.changedCount.get() );
+    assertEquals( 1, bitmapProviderHttp.getChangedCount() );
+    assertEquals( 3, bitmapProviderHttp.decodeCount.get() );
+    assertArrayEquals( CHANGED_BODY, bitmapProviderHttp.lastDecodedData );
+    // the cache now has the new bytes
+    assertArrayEquals( CHANGED_BODY, bitmapProviderHttp.getTileDiskCache().get( getUrl( 0, 0 ) ).getData() );
+  }
+
+  @Test
+  public void sameBytesUnderNewETagDoNotSwapBitmap() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    final CountingBitmapProviderHttp bitmapProviderHttp = createCachingBitmapProviderHttp();
+    loadFromNetwork( bitmapProviderHttp );
+    mTestTileServer.touchTile( 0, 0 );
+    RecordingCallback callback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertTrue( await( new Condition() {
+      @Override
+      public boolean isMet() {
+        return mTestTileServer.getRequestCount() == 2;
+      }
+    } ) );
+    assertFalse( callback.awaitChanged( SETTLE_TIME ) );
+    assertEquals( 2, bitmapProviderHttp.decodeCount.get() );
+    assertEquals( 0, bitmapProviderHttp.getChangedCount() );
+  }
+
+  @Test
+  public void revalidationIsDroppedOnceBitmapIsNoLongerInUse() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    final CountingBitmapProviderHttp bitmapProviderHttp = createCachingBitmapProviderHttp();
+    loadFromNetwork( bitmapProviderHttp );
+    RecordingCallback callback = new RecordingCallback();
+    // e.g., the tile was reset before its revalidation got a connection
+    callback.isBitmapInUse = false;
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertTrue( await( new Condition() {
+      @Override
+      public boolean isMet() {
+        return bitmapProviderHttp.getDroppedCount() == 1;
+      }
+    } ) );
+    Thread.sleep( SETTLE_TIME );
+    assertEquals( 1, mTestTileServer.getRequestCount() );
+    assertEquals( 1, bitmapProviderHttp.getRequestCount() );
+  }
+
+  @Test
+  public void urlIsRevalidatedOnceAtATime() throws Exception {
+    mTestTileServer.setTile( 0, 0, BODY );
+    final CountingBitmapProviderHttp bitmapProviderHttp = createCachingBitmapProviderHttp();
+    loadFromNetwork( bitmapProviderHttp );
+    mTestTileServer.hold();
+    RecordingCallback firstCallback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, firstCallback );
+    assertTrue( firstCallback.awaitFinished() );
+    assertTrue( mTestTileServer.awaitActiveRequestCount( 1, TIMEOUT ) );
+    // served from disk again while the first revalidation is on the wire
+    RecordingCallback secondCallback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, secondCallback );
+    assertTrue( secondCallback.awaitFinished() );
+    assertTrue( await( new Condition() {
+      @Override
+      public boolean isMet() {
+        return bitmapProviderHttp.getDroppedCount() == 1;
+      }
+    } ) );
+    mTestTileServer.release();
+    assertTrue( await( new Condition() {
+      @Override
+      public boolean isMet() {
+        return bitmapProviderHttp.getNotModifiedCount() == 1;
+      }
+    } ) );
+    Thread.sleep( SETTLE_TIME );
+    assertEquals( 2, mTestTileServer.getRequestCount() );
+  }
+
+  /**
+   * Loads tiles 0 to tileCount - 1 in a row, one at a time, while the first is held on the wire.
+   *
+   * @param prioritizedColumn The column of a waiting tile to prioritise once all are requested, or -1.
+   * @return The paths the server was asked for, in order.
+   */
+  private List<String> loadQueuedBehindFirst( int tileCount, int prioritizedColumn ) throws Exception {
+    for( int i = 0; i < tileCount; i++ ) {
+      mTestTileServer.setTile( i, 0, BODY );
+    }
+    mTestTileServer.hold();
+    CountingBitmapProviderHttp bitmapProviderHttp = new CountingBitmapProviderHttp( 1 );
+    List<RecordingCallback> callbacks = new ArrayList<>();
+    List<AsyncBitmapProvider.Cancellable> cancellables = new ArrayList<>();
+    for( int i = 0; i < tileCount; i++ ) {
+      RecordingCallback callback = new RecordingCallback();
+      cancellables.add( bitmapProviderHttp.requestBitmap( createTile( i, 0 ), null, 1, callback ) );
+      callbacks.add( callback );
+      if( i == 0 ) {
+        assertTrue( mTestTileServer.awaitActiveRequestCount( 1, TIMEOUT ) );
+      }
+    }
+    if( prioritizedColumn >= 0 ) {
+      ((AsyncBitmapProvider.Prioritizable) cancellables.get( prioritizedColumn )).prioritize();
+    }
+    mTestTileServer.release();
+    for( RecordingCallback callback : callbacks ) {
+      assertTrue( callback.awaitFinished() );
+    }
+    return mTestTileServer.getRequestedPaths();
+  }
+
+  private static String getPath( int column ) {
+    return "/tiles/" + column + "_0.jpg";
+  }
+
+  private CountingBitmapProviderHttp createCachingBitmapProviderHttp() throws Exception {
+    CountingBitmapProviderHttp bitmapProviderHttp = new CountingBitmapProviderHttp( 4 );
+    bitmapProviderHttp.setTileDiskCache( new TileDiskCache( mTemporaryFolder.newFolder(), 1024 * 1024 ) );
+    return bitmapProviderHttp;
+  }
+
+  // the server sends max-age=0, so the tile is cached already stale
+  private void loadFromNetwork( CountingBitmapProviderHttp bitmapProviderHttp ) throws Exception {
+    RecordingCallback callback = new RecordingCallback();
+    bitmapProviderHttp.requestBitmap( createTile( 0, 0 ), null, 1, callback );
+    assertTrue( callback.awaitFinished() );
+    assertNotNull( callback.loadedBitmap );
+    assertEquals( 0, bitmapProviderHttp.getDiskCacheHitCount() );
+    assertEquals( 1, bitmapProviderHttp.decodeCount.get() );
+    assertNotNull( bitmapProviderHttp.getTileDiskCache().get( getUrl( 0, 0 ) ) );
+  }
+
+  private String getUrl( int column, int row ) {
+    return String.format( mTestTileServer.getUrlTemplate(), column, row );
+  }
+
+  private static boolean await( Condition condition ) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+    while( !condition.isMet() ) {
+      if( System.currentTimeMillis() > deadline ) {
+        return false;
+      }
+      Thread.sleep( 5 );
+    }
+    return true;
+  }
+
+  private interface Condition {
+    boolean isMet();
+  }
+
+  private Tile createTile( int column, int row ) {
+    return new Tile( column, row, 256, 256, mTestTileServer.getUrlTemplate(), mDetailLevel );
+  }
+
+  /**
+   * Bitmaps can't be decoded off a device, so every decode returns a placeholder, and is counted.
+   */
+  static class CountingBitmapProviderHttp extends BitmapProviderHttp {
+
+    public final AtomicInteger decodeCount = new AtomicInteger();
+    public volatile byte[] lastDecodedData;
+
+    public CountingBitmapProviderHttp( int maximumRequestsPerHost ) {
+      super( maximumRequestsPerHost );
+    }
+
+    @Override
+    protected Bitmap decode( byte[] data, int sampleSize ) {
+      decodeCount.incrementAndGet();
+      lastDecodedData = data;
+      return createBitmap();
+    }
+  }
+
+  static class RecordingCallback implements AsyncBitmapProvider.Callback {
+
+    public final AtomicInteger loadedCount = new AtomicInteger();
+    public final AtomicInteger changedCount = new AtomicInteger();
+    public volatile Bitmap loadedBitmap;
+    public volatile Bitmap changedBitmap;
+    public volatile Throwable throwable;
+    public volatile boolean isBitmapInUse = true;
+
+    private final CountDownLatch mFinishedLatch = new CountDownLatch( 1 );
+    private volatile CountDownLatch mChangedLatch = new CountDownLatch( 1 );
+
+    public boolean awaitFinished() throws InterruptedException {
+      return mFinishedLatch.await( TIMEOUT, TimeUnit.MILLISECONDS );
+    }
+
+    public boolean isFinished() {
+      return mFinishedLatch.getCount() == 0;
+    }
+
+    public boolean awaitChanged( long timeout ) throws InterruptedException {
+      return mChangedLatch.await( timeout, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public void onBitmapLoaded( Bitmap bitmap ) {
+      onBitmapLoaded( bitmap, 1 );
+    }
+
+    @Override
+    public void onBitmapLoaded( Bitmap bitmap, int sampleSize ) {
+      loadedBitmap = bitmap;
+      loadedCount.incrementAndGet();
+      mFinishedLatch.countDown();
+    }
+
+    @Override
+    public void onBitmapFailed( Throwable throwable ) {
+      this.throwable = throwable;
+      mFinishedLatch.countDown();
+    }
+
+    @Override
+    public void onBitmapChanged( Bitmap bitmap ) {
+      onBitmapChanged( bitmap, 1 );
+    }
+
+    @Override
+    public void onBitmapChanged( Bitmap bitmap, int sampleSize ) {
+      changedBitmap = bitmap;
+      changedCount.incrementAndGet();
+      mChangedLatch.countDown();
+    }
+
+    @Override
+    public boolean isBitmapInUse() {
+      return isBitmapInUse;
+    }
+  }
+
+  // Bitmap has no public constructor; any instance will do as a placeholder
+  static Bitmap createBitmap() {
+    try {
+      Constructor<?> constructor = Bitmap.class.getDeclaredConstructors()[0];
+      constructor.setAccessible( true );
+      Class<?>[] parameterTypes = constructor.getParameterTypes();
+      Object[] arguments = new Object[parameterTypes.length];
+      for( int i = 0; i < parameterTypes.length; i++ ) {
+        // the default value of each type, e.g., 0 or null
+        arguments[i] = Array.get( Array.newInstance( parameterTypes[i], 1 ), 0 );
+      }
+      return (Bitmap) constructor.newInstance( arguments );
+    } catch( Exception e ) {
+      throw new AssertionError( e );
+    }
+  }
+
+}
@@ -0,0 +1,249 @@
+package com.qozix.tileview.graphics;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface, standing in for a remote tile server.
+ * Tiles are bodies set per path; each is served with an ETag derived from its revision, and a
+ * conditional request for the current revision is answered with a 304.  Responses can be held
+ * back until released, to see how many requests are on the wire at once.
+ */
+class TestTileServer {
+
+  private final ExecutorService mExecutorService = Executors.newCachedThreadPool();
+  private final Map<String, byte[]> mBodies = new ConcurrentHashMap<>();
+  private final Map<String, Integer> mRevisions = new ConcurrentHashMap<>();
+  // guarded by itself
+  private final List<String> mRequestedPaths = new ArrayList<>();
+
+  private ServerSocket mServerSocket;
+  private volatile String mCacheControl = "max-age=0";
+  private volatile CountDownLatch mGate = new CountDownLatch( 0 );
+
+  private final AtomicInteger mRequestCount = new AtomicInteger();
+  private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+  private final AtomicInteger mActiveRequestCount = new AtomicInteger();
+  private final AtomicInteger mPeakActiveRequestCount = new AtomicInteger();
+
+  public void start() throws IOException {
+    mServerSocket = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+    mExecutorService.execute( new Runnable() {
+      @Override
+      public void run() {
+        while( !mServerSocket.isClosed() ) {
+          try {
+            final Socket socket = mServerSocket.accept();
+            mExecutorService.execute( new Runnable() {
+              @Override
+              public void run() {
+                serve( socket );
+              }
+            } );
+          } catch( IOException e ) {
+            // closed
+          }
+        }
+      }
+    } );
+  }
+
+  public void stop() {
+    release();
+    try {
+      mServerSocket.close();
+    } catch( IOException e ) {
+      // nothing to do
+    }
+    mExecutorService.shutdownNow();
+  }
+
+  /**
+   * @return A URL template for BitmapProviderHttp, with the column and row in the path.
+   */
+  public String getUrlTemplate() {
+    return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/tiles/%d_%d.jpg";
+  }
+
+  /**
+   * Sets the body of a tile, and gives it a new ETag.
+   */
+  public void setTile( int column, int row, byte[] body ) {
+    String path = getPath( column, row );
+    Integer revision = mRevisions.get( path );
+    mRevisions.put( path, revision == null ? 0 : revision + 1 );
+    mBodies.put( path, body );
+  }
+
+  /**
+   * Gives a tile a new ETag without changing its body, as a server that rebuilt it might.
+   */
+  public void touchTile( int column, int row ) {
+    setTile( column, row, mBodies.get( getPath( column, row ) ) );
+  }
+
+  public void setCacheControl( String cacheControl ) {
+    mCacheControl = cacheControl;
+  }
+
+  /**
+   * Holds every response back until {@link #release} is called.
+   */
+  public void hold() {
+    mGate = new CountDownLatch( 1 );
+  }
+
+  public void release() {
+    mGate.countDown();
+  }
+
+  public int getRequestCount() {
+    return mRequestCount.get();
+  }
+
+  /**
+   * @return The path of each request received, in the order received.
+   */
+  public List<String> getRequestedPaths() {
+    synchronized( mRequestedPaths ) {
+      return new ArrayList<>( mRequestedPaths );
+    }
+  }
+
+  public int getNotModifiedCount() {
+    return mNotModifiedCount.get();
+  }
+
+  public int getActiveRequestCount() {
+    return mActiveRequestCount.get();
+  }
+
+  public int getPeakActiveRequestCount() {
+    return mPeakActiveRequestCount.get();
+  }
+
+  /**
+   * Waits for the number of requests being held to reach a count.
+   *
+   * @return False if it didn't within the timeout.
+   */
+  public boolean awaitActiveRequestCount( int count, long timeout ) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+    while( mActiveRequestCount.get() < count ) {
+      if( System.currentTimeMillis() > deadline ) {
+        return false;
+      }
+      Thread.sleep( 5 );
+    }
+    return true;
+  }
+
+  private static String getPath( int column, int row ) {
+    return "/tiles/" + column + "_" + row + ".jpg";
+  }
+
+  // "GET /path HTTP/1.1"
+  private static String getPath( String requestLine ) {
+    String[] parts = requestLine.split( " " );
+    return parts.length > 1 ? parts[1] : "";
+  }
+
+  private void serve( Socket socket ) {
+    try {
+      InputStream inputStream = new BufferedInputStream( socket.getInputStream() );
+      OutputStream outputStream = socket.getOutputStream();
+      String requestLine;
+      // one request after another on the same connection, until the client closes it
+      while( (requestLine = readLine( inputStream )) != null ) {
+        String ifNoneMatch = null;
+        String header;
+        while( (header = readLine( inputStream )) != null && header.length() > 0 ) {
+          int separator = header.indexOf( ':' );
+          if( separator > 0 && header.substring( 0, separator ).trim().toLowerCase( Locale.US ).equals( "if-none-match" ) ) {
+            ifNoneMatch = header.substring( separator + 1 ).trim();
+          }
+        }
+        mRequestCount.incrementAndGet();
+        synchronized( mRequestedPaths ) {
+          mRequestedPaths.add( getPath( requestLine ) );
+        }
+        int active = mActiveRequestCount.incrementAndGet();
+        int peak;
+        while( active > (peak = mPeakActiveRequestCount.get()) && !mPeakActiveRequestCount.compareAndSet( peak, active ) ) {
+          // retry
+        }
+        try {
+          mGate.await( 10, TimeUnit.SECONDS );
+          respond( outputStream, requestLine, ifNoneMatch );
+        } catch( InterruptedException e ) {
+          return;
+        } finally {
+          mActiveRequestCount.decrementAndGet();
+        }
+      }
+    } catch( IOException e ) {
+      // the client went away, e.g., aborted a request
+    } finally {
+      try {
+        socket.close();
+      } catch( IOException e ) {
+        // nothing to do
+      }
+    }
+  }
+
+  private void respond( OutputStream outputStream, String requestLine, String ifNoneMatch ) throws IOException {
+    String path = getPath( requestLine );
+    byte[] body = mBodies.get( path );
+    if( body == null ) {
+      write( outputStream, "404 Not Found", "Content-Length: 0\r\n", null );
+      return;
+    }
+    String eTag = "\"" + mRevisions.get( path ) + "\"";
+    String cacheHeaders = "ETag: " + eTag + "\r\nCache-Control: " + mCacheControl + "\r\n";
+    if( eTag.equals( ifNoneMatch ) ) {
+      mNotModifiedCount.incrementAndGet();
+      write( outputStream, "304 Not Modified", cacheHeaders, null );
+      return;
+    }
+    write( outputStream, "200 OK", cacheHeaders + "Content-Type: image/jpeg\r\nContent-Length: " + body.length + "\r\n", body );
+  }
+
+  private static void write( OutputStream outputStream, String status, String headers, byte[] body ) throws IOException {
+    String head = "HTTP/1.1 " + status + "\r\n" + headers + "Connection: keep-alive\r\n\r\n";
+    outputStream.write( head.getBytes( "US-ASCII" ) );
+    if( body != null ) {
+      outputStream.write( body );
+    }
+    outputStream.flush();
+  }
+
+  private static String readLine( InputStream inputStream ) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while( (c = inputStream.read()) != -1 ) {
+      if( c == '\n' ) {
+        int length = line.length();
+        return length > 0 && line.charAt( length - 1 ) == '\r' ? line.substring( 0, length - 1 ) : line.toString();
+      }
+      line.append( (char) c );
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
+}
@@ -0,0 +1,162 @@
+package com.qozix.tileview.graphics;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TileDiskCacheTest {
+
+  private static final String KEY = "http://example.com/tiles/0_0.jpg";
+  private static final byte[] DATA = { 1, 2, 3, 4 };
+
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private File mDirectory;
+  private TileDiskCache mTileDiskCache;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = mTemporaryFolder.newFolder();
+    mTileDiskCache = new TileDiskCache( mDirectory, 1024 );
+  }
+
+  @Test
+  public void putThenGet() {
+    assertNull( mTileDiskCache.get( KEY ) );
+    mTileDiskCache.put( KEY, DATA, "\"1\"", "Mon, 01 Jan 2001 00:00:00 GMT", 1000 );
+    TileDiskCache.Entry entry = mTileDiskCache.get( KEY );
+    assertNotNull( entry );
+    assertArrayEquals( DATA, entry.getData() );
+    assertEquals( "\"1\"", entry.getETag() );
+    assertEquals( "Mon, 01 Jan 2001 00:00:00 GMT", entry.getLastModified() );
+    assertEquals( 1000, entry.getExpiration() );
+    assertTrue( entry.isStale() );
+    // one file per entry, and nothing left over
+    assertEquals( 1, mDirectory.listFiles().length );
+  }
+
+  @Test
+  public void missingValidatorsAreNull() {
+    mTileDiskCache.put( KEY, DATA, null, null, Long.MAX_VALUE );
+    TileDiskCache.Entry entry = mTileDiskCache.get( KEY );
+    assertNull( entry.getETag() );
+    assertNull( entry.getLastModified() );
+    assertFalse( entry.isStale() );
+  }
+
+  @Test
+  public void refreshKeepsDataAndUpdatesFreshness() {
+    mTileDiskCache.put( KEY, DATA, "\"1\"", "Mon, 01 Jan 2001 00:00:00 GMT", 1000 );
+    TileDiskCache.Entry entry = mTileDiskCache.get( KEY );
+    mTileDiskCache.refresh( KEY, entry, null, null, 2000 );
+    TileDiskCache.Entry refreshed = mTileDiskCache.get( KEY );
+    assertArrayEquals( DATA, refreshed.getData() );
+    assertEquals( "\"1\"", refreshed.getETag() );
+    assertEquals( "Mon, 01 Jan 2001 00:00:00 GMT", refreshed.getLastModified() );
+    assertEquals( 2000, refreshed.getExpiration() );
+  }
+
+  @Test
+  public void refreshDoesNotUndoNewerPut() {
+    mTileDiskCache.put( KEY, DATA, "\"1\"", null, 1000 );
+    TileDiskCache.Entry stale = mTileDiskCache.get( KEY );
+    byte[] newData = { 5, 6, 7 };
+    mTileDiskCache.put( KEY, newData, "\"2\"", null, 3000 );
+    mTileDiskCache.refresh( KEY, stale, null, null, 2000 );
+    TileDiskCache.Entry entry = mTileDiskCache.get( KEY );
+    assertArrayEquals( newData, entry.getData() );
+    assertEquals( "\"2\"", entry.getETag() );
+    assertEquals( 3000, entry.getExpiration() );
+  }
+
+  @Test
+  public void refreshDoesNotRecreateRemovedEntry() {
+    mTileDiskCache.put( KEY, DATA, "\"1\"", null, 1000 );
+    TileDiskCache.Entry entry = mTileDiskCache.get( KEY );
+    mTileDiskCache.remove( KEY );
+    mTileDiskCache.refresh( KEY, entry, null, null, 2000 );
+    assertNull( mTileDiskCache.get( KEY ) );
+    assertEquals( 0, mTileDiskCache.getSize() );
+  }
+
+  @Test
+  public void leastRecentlyReadEntriesAreTrimmed() {
+    byte[] data = new byte[300];
+    long now = System.currentTimeMillis();
+    // file times may only have a second's resolution, so entries are backdated rather than spaced out
+    put( "a", data ).setLastModified( now - 3000 );
+    put( "b", data ).setLastModified( now - 2000 );
+    put( "c", data ).setLastModified( now - 1000 );
+    // reading "a" makes "b" the least recently used
+    assertNotNull( mTileDiskCache.get( "a" ) );
+    put( "d", data );
+    assertNull( mTileDiskCache.get( "b" ) );
+    assertNotNull( mTileDiskCache.get( "a" ) );
+    assertNotNull( mTileDiskCache.get( "c" ) );
+    assertNotNull( mTileDiskCache.get( "d" ) );
+    assertTrue( mTileDiskCache.getSize() <= mTileDiskCache.getMaximumSize() );
+  }
+
+  @Test
+  public void sizeIsMeasuredFromDisk() {
+    mTileDiskCache.put( KEY, DATA, null, null, 0 );
+    long size = mTileDiskCache.getSize();
+    assertTrue( size > DATA.length );
+    assertEquals( size, new TileDiskCache( mDirectory, 1024 ).getSize() );
+    mTileDiskCache.clear();
+    assertEquals( 0, mTileDiskCache.getSize() );
+    assertNull( mTileDiskCache.get( KEY ) );
+  }
+
+  @Test
+  public void foreignFilesAreLeftAlone() throws Exception {
+    File foreign = new File( mDirectory, "settings.json" );
+    File foreignTile = new File( mDirectory, "background.tile" );
+    File foreignDirectory = new File( mDirectory, "images" );
+    assertTrue( foreign.createNewFile() );
+    assertTrue( foreignTile.createNewFile() );
+    assertTrue( foreignDirectory.mkdir() );
+    // left by an interrupted write and by the two-file format
+    File[] leftovers = {
+      new File( mDirectory, "0123456789abcdef.tile.tmp" ),
+      new File( mDirectory, "0123456789abcdef.data" ),
+      new File( mDirectory, "0123456789abcdef.meta" )
+    };
+    for( File leftover : leftovers ) {
+      assertTrue( leftover.createNewFile() );
+    }
+    TileDiskCache tileDiskCache = new TileDiskCache( mDirectory, 1024 );
+    assertEquals( 0, tileDiskCache.getSize() );
+    for( File leftover : leftovers ) {
+      assertFalse( leftover.exists() );
+    }
+    tileDiskCache.put( KEY, DATA, null, null, 0 );
+    tileDiskCache.clear();
+    assertNull( tileDiskCache.get( KEY ) );
+    assertTrue( foreign.exists() );
+    assertTrue( foreignTile.exists() );
+    assertTrue( foreignDirectory.exists() );
+    assertEquals( 3, mDirectory.listFiles().length );
+  }
+
+  // puts an entry, and returns the file it was written to
+  private File put( String key, byte[] data ) {
+    List<File> before = Arrays.asList( mDirectory.listFiles() );
+    mTileDiskCache.put( key, data, null, null, 0 );
+    for( File file : mDirectory.listFiles() ) {
+      if( !before.contains( file ) ) {
+        return file;
+      }
+    }
+    throw new AssertionError( "No file was written for " + key );
+  }
+
+}
@@ -0,0 +1,69 @@
+package com.qozix.tileview.tiles;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DecodeTimeStatisticsTest {
+
+  private static final long NANOS_PER_MILLISECOND = 1000000;
+  private static final float DELTA = 0.0001f;
+
+  @Test
+  public void percentileOfNoSamplesIsZero() {
+    DecodeTimeStatistics decodeTimeStatistics = new DecodeTimeStatistics();
+    assertEquals( 0, decodeTimeStatistics.getPercentile( 0.5f ), DELTA );
+    assertEquals( 0, decodeTimeStatistics.get99thPercentile(), DELTA );
+  }
+
+  @Test
+  public void percentilesUseNearestRank() {
+    DecodeTimeStatistics decodeTimeStatistics = new DecodeTimeStatistics( 100 );
+    // recorded out of order, 1ms to 100ms
+    for( int i = 100; i > 0; i-- ) {
+      decodeTimeStatistics.record( i * NANOS_PER_MILLISECOND );
+    }
+    assertEquals( 100, decodeTimeStatistics.getSampleCount() );
+    assertEquals( 1, decodeTimeStatistics.getPercentile( 0 ), DELTA );
+    assertEquals( 1, decodeTimeStatistics.getPercentile( 0.01f ), DELTA );
+    assertEquals( 50, decodeTimeStatistics.getMedian(), DELTA );
+    assertEquals( 99, decodeTimeStatistics.get99thPercentile(), DELTA );
+    assertEquals( 100, decodeTimeStatistics.getPercentile( 1 ), DELTA );
+  }
+
+  @Test
+  public void percentileOfSingleSample() {
+    DecodeTimeStatistics decodeTimeStatistics = new DecodeTimeStatistics();
+    decodeTimeStatistics.record( 3 * NANOS_PER_MILLISECOND / 2 );
+    assertEquals( 1.5f, decodeTimeStatistics.getPercentile( 0 ), DELTA );
+    assertEquals( 1.5f, decodeTimeStatistics.getMedian(), DELTA );
+    assertEquals( 1.5f, decodeTimeStatistics.getPercentile( 1 ), DELTA );
+  }
+
+  @Test
+  public void onlyMostRecentSamplesAreKept() {
+    DecodeTimeStatistics decodeTimeStatistics = new DecodeTimeStatistics( 4 );
+    for( int i = 1; i <= 10; i++ ) {
+      decodeTimeStatistics.record( i * NANOS_PER_MILLISECOND );
+    }
+    // 7, 8, 9 and 10 remain
+    assertEquals( 4, decodeTimeStatistics.getSampleCount() );
+    assertEquals( 7, decodeTimeStatistics.getPercentile( 0 ), DELTA );
+    assertEquals( 8, decodeTimeStatistics.getMedian(), DELTA );
+    assertEquals( 10, decodeTimeStatistics.get99thPercentile(), DELTA );
+  }
+
+  @Test
+  public void resetClearsSamplesAndTimeouts() {
+    DecodeTimeStatistics decodeTimeStatistics = new DecodeTimeStatistics();
+    decodeTimeStatistics.record( NANOS_PER_MILLISECOND );
+    decodeTimeStatistics.recordTimeout();
+    decodeTimeStatistics.recordTimeout();
+    assertEquals( 2, decodeTimeStatistics.getTimeoutCount() );
+    decodeTimeStatistics.reset();
+    assertEquals( 0, decodeTimeStatistics.getSampleCount() );
+    assertEquals( 0, decodeTimeStatistics.getTimeoutCount() );
+    assertEquals( 0, decodeTimeStatistics.getMedian(), DELTA );
+  }
+
+}
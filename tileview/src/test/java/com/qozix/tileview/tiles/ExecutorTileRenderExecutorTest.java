@@ -0,0 +1,135 @@
+package com.qozix.tileview.tiles;
+
+import com.qozix.tileview.detail.DetailLevel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ExecutorTileRenderExecutorTest {
+
+  private DetailLevel mDetailLevel;
+  private HeldExecutor mHeldExecutor;
+  private ExecutorTileRenderExecutor mExecutorTileRenderExecutor;
+
+  @Before
+  public void setUp() {
+    mDetailLevel = new DetailLevel( null, 1, null, 256, 256 );
+    mHeldExecutor = new HeldExecutor();
+    mExecutorTileRenderExecutor = new ExecutorTileRenderExecutor( mHeldExecutor );
+  }
+
+  @Test
+  public void submittedTaskRunsOnExecutor() {
+    CountingTask task = new CountingTask();
+    assertNull( mExecutorTileRenderExecutor.submit( createTile( 0 ), task ) );
+    assertEquals( 0, task.runCount.get() );
+    mHeldExecutor.runAll();
+    assertEquals( 1, task.runCount.get() );
+  }
+
+  @Test
+  public void replacedTaskIsReturnedAndNeverRuns() {
+    Tile tile = createTile( 0 );
+    CountingTask stale = new CountingTask();
+    CountingTask fresh = new CountingTask();
+    mExecutorTileRenderExecutor.submit( tile, stale );
+    assertSame( stale, mExecutorTileRenderExecutor.submit( tile, fresh ) );
+    mHeldExecutor.runAll();
+    assertEquals( 0, stale.runCount.get() );
+    assertEquals( 1, fresh.runCount.get() );
+  }
+
+  @Test
+  public void rejectedTaskIsNotQueued() {
+    mHeldExecutor.isRejecting = true;
+    CountingTask task = new CountingTask();
+    try {
+      mExecutorTileRenderExecutor.submit( createTile( 0 ), task );
+      fail();
+    } catch( RejectedExecutionException e ) {
+      // expected
+    }
+    assertNull( mExecutorTileRenderExecutor.cancel( createTile( 0 ) ) );
+    assertTrue( mExecutorTileRenderExecutor.cancelAll().isEmpty() );
+  }
+
+  @Test
+  public void rejectedReplacementLeavesWaitingTaskToRun() {
+    Tile tile = createTile( 0 );
+    CountingTask waiting = new CountingTask();
+    CountingTask rejected = new CountingTask();
+    mExecutorTileRenderExecutor.submit( tile, waiting );
+    mHeldExecutor.isRejecting = true;
+    try {
+      mExecutorTileRenderExecutor.submit( tile, rejected );
+      fail();
+    } catch( RejectedExecutionException e ) {
+      // expected
+    }
+    // the waiting task is neither lost nor returned, so it still runs
+    mHeldExecutor.runAll();
+    assertEquals( 1, waiting.runCount.get() );
+    assertEquals( 0, rejected.runCount.get() );
+  }
+
+  @Test
+  public void shutdownRejectsAndReturnsWaitingTasks() {
+    CountingTask task = new CountingTask();
+    mExecutorTileRenderExecutor.submit( createTile( 0 ), task );
+    List<Runnable> dropped = mExecutorTileRenderExecutor.shutdownNow();
+    assertEquals( 1, dropped.size() );
+    assertSame( task, dropped.get( 0 ) );
+    assertTrue( mExecutorTileRenderExecutor.isShutdown() );
+    try {
+      mExecutorTileRenderExecutor.submit( createTile( 1 ), new CountingTask() );
+      fail();
+    } catch( RejectedExecutionException e ) {
+      // expected
+    }
+    mHeldExecutor.runAll();
+    assertEquals( 0, task.runCount.get() );
+  }
+
+  private Tile createTile( int column ) {
+    return new Tile( column, 0, 256, 256, null, mDetailLevel );
+  }
+
+  // keeps what it's given until told to run it, or rejects it outright
+  private static class HeldExecutor implements Executor {
+    private final List<Runnable> mRunnables = new ArrayList<>();
+    boolean isRejecting;
+
+    @Override
+    public void execute( Runnable runnable ) {
+      if( isRejecting ) {
+        throw new RejectedExecutionException();
+      }
+      mRunnables.add( runnable );
+    }
+
+    void runAll() {
+      for( Runnable runnable : mRunnables ) {
+        runnable.run();
+      }
+      mRunnables.clear();
+    }
+  }
+
+  private static class CountingTask implements Runnable {
+    final AtomicInteger runCount = new AtomicInteger();
+
+    @Override
+    public void run() {
+      runCount.incrementAndGet();
+    }
+  }
+
+}
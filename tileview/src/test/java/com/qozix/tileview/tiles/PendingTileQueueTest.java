@@ -0,0 +1,184 @@
+package com.qozix.tileview.tiles;
+
+import com.qozix.tileview.detail.DetailLevel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PendingTileQueueTest {
+
+  private PendingTileQueue mQueue;
+  private DetailLevel mDetailLevel;
+
+  @Before
+  public void setUp() {
+    mQueue = new PendingTileQueue();
+    mDetailLevel = new DetailLevel( null, 1, null, 256, 256 );
+  }
+
+  @Test
+  public void offerForPendingTileReplacesTaskInPlace() {
+    Tile first = createTile( 0 );
+    Tile second = createTile( 1 );
+    TileTask stale = createTask( first );
+    TileTask other = createTask( second );
+    TileTask fresh = createTask( first );
+    mQueue.offer( stale );
+    mQueue.offer( other );
+    mQueue.offer( fresh );
+    assertEquals( 2, mQueue.size() );
+    assertSame( fresh, mQueue.poll() );
+    assertSame( other, mQueue.poll() );
+    assertNull( mQueue.poll() );
+  }
+
+  @Test
+  public void removingReplacedTaskLeavesCurrentOne() {
+    Tile tile = createTile( 0 );
+    TileTask stale = createTask( tile );
+    TileTask fresh = createTask( tile );
+    mQueue.offer( stale );
+    mQueue.offer( fresh );
+    assertFalse( mQueue.remove( stale ) );
+    assertTrue( mQueue.contains( tile ) );
+    assertTrue( mQueue.remove( fresh ) );
+    assertFalse( mQueue.contains( tile ) );
+    assertTrue( mQueue.isEmpty() );
+  }
+
+  @Test
+  public void prioritizeMovesTaskToHead() {
+    List<TileTask> tasks = offerTasks( 4 );
+    assertTrue( mQueue.prioritize( tasks.get( 2 ).tile ) );
+    assertSame( tasks.get( 2 ), mQueue.peek() );
+    assertSame( tasks.get( 2 ), mQueue.poll() );
+    assertSame( tasks.get( 0 ), mQueue.poll() );
+    assertSame( tasks.get( 1 ), mQueue.poll() );
+    assertSame( tasks.get( 3 ), mQueue.poll() );
+  }
+
+  @Test
+  public void prioritizeTailAndHead() {
+    List<TileTask> tasks = offerTasks( 3 );
+    assertTrue( mQueue.prioritize( tasks.get( 0 ).tile ) );
+    assertTrue( mQueue.prioritize( tasks.get( 2 ).tile ) );
+    assertSame( tasks.get( 2 ), mQueue.poll() );
+    assertSame( tasks.get( 0 ), mQueue.poll() );
+    assertSame( tasks.get( 1 ), mQueue.poll() );
+    assertTrue( mQueue.isEmpty() );
+  }
+
+  @Test
+  public void prioritizeUnknownTileReturnsFalse() {
+    offerTasks( 2 );
+    assertFalse( mQueue.prioritize( createTile( 9 ) ) );
+    assertEquals( 2, mQueue.size() );
+  }
+
+  @Test
+  public void removeTileUnlinksItsTask() {
+    List<TileTask> tasks = offerTasks( 3 );
+    assertSame( tasks.get( 1 ), mQueue.remove( tasks.get( 1 ).tile ) );
+    assertNull( mQueue.remove( tasks.get( 1 ).tile ) );
+    assertEquals( 2, mQueue.size() );
+    assertSame( tasks.get( 0 ), mQueue.poll() );
+    assertSame( tasks.get( 2 ), mQueue.poll() );
+  }
+
+  @Test
+  public void removeOnlyTaskEmptiesQueue() throws Exception {
+    List<TileTask> tasks = offerTasks( 1 );
+    assertSame( tasks.get( 0 ), mQueue.remove( tasks.get( 0 ).tile ) );
+    assertNull( mQueue.peek() );
+    assertNull( mQueue.poll( 1, TimeUnit.MILLISECONDS ) );
+    // the list should still link correctly after being emptied
+    TileTask task = createTask( createTile( 5 ) );
+    mQueue.offer( task );
+    assertSame( task, mQueue.take() );
+  }
+
+  @Test
+  public void runnablesThatAreNotTileTasksAreKeyedByThemselves() {
+    Runnable runnable = createRunnable();
+    mQueue.offer( runnable );
+    mQueue.offer( runnable );
+    assertEquals( 1, mQueue.size() );
+    assertTrue( mQueue.remove( runnable ) );
+    assertTrue( mQueue.isEmpty() );
+  }
+
+  @Test
+  public void iteratorWalksSnapshotHeadFirst() {
+    List<TileTask> tasks = offerTasks( 3 );
+    Iterator<Runnable> iterator = mQueue.iterator();
+    // changes after the iterator was created aren't seen by it
+    mQueue.offer( createTask( createTile( 7 ) ) );
+    List<Runnable> iterated = new ArrayList<>();
+    while( iterator.hasNext() ) {
+      iterated.add( iterator.next() );
+    }
+    assertEquals( new ArrayList<Runnable>( tasks ), iterated );
+    assertEquals( 4, mQueue.size() );
+  }
+
+  @Test
+  public void iteratorRemoveRemovesFromQueue() {
+    List<TileTask> tasks = offerTasks( 3 );
+    Iterator<Runnable> iterator = mQueue.iterator();
+    iterator.next();
+    iterator.next();
+    iterator.remove();
+    assertEquals( 2, mQueue.size() );
+    assertFalse( mQueue.contains( tasks.get( 1 ).tile ) );
+    try {
+      iterator.remove();
+      fail( "remove twice should throw" );
+    } catch( IllegalStateException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void drainToTakesInOrder() {
+    List<TileTask> tasks = offerTasks( 3 );
+    List<Runnable> drained = new ArrayList<>();
+    assertEquals( 2, mQueue.drainTo( drained, 2 ) );
+    assertEquals( new ArrayList<Runnable>( tasks.subList( 0, 2 ) ), drained );
+    assertSame( tasks.get( 2 ), mQueue.peek() );
+  }
+
+  private List<TileTask> offerTasks( int count ) {
+    List<TileTask> tasks = new ArrayList<>();
+    for( int i = 0; i < count; i++ ) {
+      TileTask task = createTask( createTile( i ) );
+      mQueue.offer( task );
+      tasks.add( task );
+    }
+    return tasks;
+  }
+
+  private Tile createTile( int column ) {
+    return new Tile( column, 0, 256, 256, null, mDetailLevel );
+  }
+
+  private static TileTask createTask( Tile tile ) {
+    return new TileTask( tile, createRunnable() );
+  }
+
+  private static Runnable createRunnable() {
+    return new Runnable() {
+      @Override
+      public void run() {
+        // nothing to do
+      }
+    };
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.qozix.tileview.tiles;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RenderBatchTest {
+
+  @Test
+  public void emptyBatchFinishesWhenSealed() {
+    RenderBatch renderBatch = new RenderBatch( 1 );
+    assertFalse( renderBatch.isFinished() );
+    assertTrue( renderBatch.seal() );
+    assertTrue( renderBatch.isFinished() );
+    assertEquals( 0, renderBatch.getTileCount() );
+  }
+
+  @Test
+  public void batchDoesNotFinishBeforeSealed() {
+    RenderBatch renderBatch = new RenderBatch( 1 );
+    renderBatch.add();
+    renderBatch.add();
+    assertFalse( renderBatch.onTileFinished( TileRenderHandler.Status.COMPLETE ) );
+    assertFalse( renderBatch.onTileFinished( TileRenderHandler.Status.ERROR ) );
+    assertFalse( renderBatch.isFinished() );
+    assertTrue( renderBatch.seal() );
+    assertTrue( renderBatch.isFinished() );
+  }
+
+  @Test
+  public void lastTileFinishesSealedBatch() {
+    RenderBatch renderBatch = new RenderBatch( 1 );
+    renderBatch.add();
+    renderBatch.add();
+    renderBatch.add();
+    assertFalse( renderBatch.seal() );
+    assertFalse( renderBatch.onTileFinished( TileRenderHandler.Status.COMPLETE ) );
+    assertFalse( renderBatch.onTileFinished( TileRenderHandler.Status.ERROR ) );
+    assertTrue( renderBatch.onTileFinished( TileRenderHandler.Status.INCOMPLETE ) );
+    assertEquals( 3, renderBatch.getTileCount() );
+    assertEquals( 1, renderBatch.getCompletedCount() );
+    assertEquals( 1, renderBatch.getFailedCount() );
+    assertEquals( 1, renderBatch.getDroppedCount() );
+  }
+
+  @Test
+  public void batchFinishesExactlyOnceAcrossThreads() throws Exception {
+    final int tileCount = 1000;
+    final int threadCount = 8;
+    for( int attempt = 0; attempt < 20; attempt++ ) {
+      final RenderBatch renderBatch = new RenderBatch( attempt );
+      for( int i = 0; i < tileCount; i++ ) {
+        renderBatch.add();
+      }
+      final AtomicInteger finishCount = new AtomicInteger();
+      final AtomicInteger nextTile = new AtomicInteger();
+      final CountDownLatch startLatch = new CountDownLatch( 1 );
+      ExecutorService executorService = Executors.newFixedThreadPool( threadCount );
+      for( int i = 0; i < threadCount; i++ ) {
+        executorService.execute( new Runnable() {
+          @Override
+          public void run() {
+            try {
+              startLatch.await();
+            } catch( InterruptedException e ) {
+              return;
+            }
+            while( nextTile.getAndIncrement() < tileCount ) {
+              if( renderBatch.onTileFinished( TileRenderHandler.Status.COMPLETE ) ) {
+                finishCount.incrementAndGet();
+              }
+            }
+          }
+        } );
+      }
+      startLatch.countDown();
+      // seal while tiles are finishing, as the render pass does
+      if( renderBatch.seal() ) {
+        finishCount.incrementAndGet();
+      }
+      executorService.shutdown();
+      assertTrue( executorService.awaitTermination( 10, TimeUnit.SECONDS ) );
+      assertEquals( 1, finishCount.get() );
+      assertTrue( renderBatch.isFinished() );
+      assertEquals( tileCount, renderBatch.getCompletedCount() );
+    }
+  }
+
+  @Test
+  public void runnableSettlesOnce() {
+    RenderBatch renderBatch = new RenderBatch( 1 );
+    TileRenderRunnable tileRenderRunnable = new TileRenderRunnable();
+    tileRenderRunnable.setRenderBatch( renderBatch );
+    renderBatch.add();
+    TileRenderRunnable otherTileRenderRunnable = new TileRenderRunnable();
+    otherTileRenderRunnable.setRenderBatch( renderBatch );
+    renderBatch.add();
+    renderBatch.seal();
+    tileRenderRunnable.discard();
+    tileRenderRunnable.discard();
+    assertEquals( 1, renderBatch.getDroppedCount() );
+    assertFalse( renderBatch.isFinished() );
+    otherTileRenderRunnable.discard();
+    otherTileRenderRunnable.discard();
+    assertEquals( 2, renderBatch.getDroppedCount() );
+    assertTrue( renderBatch.isFinished() );
+  }
+
+  @Test
+  public void cancelDoesNotFinishBatch() {
+    RenderBatch renderBatch = new RenderBatch( 1 );
+    renderBatch.add();
+    renderBatch.seal();
+    renderBatch.cancel();
+    assertTrue( renderBatch.isCancelled() );
+    assertFalse( renderBatch.isFinished() );
+    assertTrue( renderBatch.onTileFinished( TileRenderHandler.Status.INCOMPLETE ) );
+  }
+
+}
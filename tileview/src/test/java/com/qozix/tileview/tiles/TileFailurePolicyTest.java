@@ -0,0 +1,219 @@
+package com.qozix.tileview.tiles;
+
+import com.qozix.tileview.detail.DetailLevel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TileFailurePolicyTest {
+
+  private FakeClock mClock;
+  private TileFailurePolicy mTileFailurePolicy;
+  private RecordingTileFailureListener mTileFailureListener;
+  private DetailLevel mDetailLevel;
+
+  @Before
+  public void setUp() {
+    mClock = new FakeClock();
+    mTileFailurePolicy = new TileFailurePolicy( mClock );
+    mTileFailureListener = new RecordingTileFailureListener();
+    mTileFailurePolicy.setTileFailureListener( mTileFailureListener );
+    mTileFailurePolicy.setInitialRetryDelay( 100 );
+    mTileFailurePolicy.setMaximumRetryDelay( 1000 );
+    mTileFailurePolicy.setMissingTileRetryDelay( 5000 );
+    mTileFailurePolicy.setCircuitBreakerThreshold( 3 );
+    mTileFailurePolicy.setCircuitBreakerDuration( 2000 );
+    mDetailLevel = new DetailLevel( null, 1, null, 256, 256 );
+  }
+
+  @Test
+  public void failingTileBacksOffExponentiallyUpToMaximum() {
+    mTileFailurePolicy.setCircuitBreakerThreshold( 0 );
+    Tile tile = createTile( 0 );
+    assertEquals( 100, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+    assertEquals( 200, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+    assertEquals( 400, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+    assertEquals( 800, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+    assertEquals( 1000, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+    assertEquals( 1000, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+    assertEquals( 6, mTileFailurePolicy.getFailureCount() );
+  }
+
+  @Test
+  public void backoffNeverOverflows() {
+    mTileFailurePolicy.setCircuitBreakerThreshold( 0 );
+    mTileFailurePolicy.setMaximumRetryDelay( Long.MAX_VALUE );
+    Tile tile = createTile( 0 );
+    long delay = 0;
+    for( int i = 0; i < 100; i++ ) {
+      delay = mTileFailurePolicy.onTileFailed( tile, new IOException() );
+      assertTrue( delay > 0 );
+    }
+    assertEquals( 100L << 30, delay );
+  }
+
+  @Test
+  public void failedTileIsDeferredUntilItsDelayHasPassed() {
+    Tile tile = createTile( 0 );
+    mTileFailurePolicy.onTileFailed( tile, new IOException() );
+    assertEquals( 100, mTileFailurePolicy.getRetryDelay( tile ) );
+    mClock.advance( 60 );
+    assertEquals( 40, mTileFailurePolicy.getRetryDelay( tile ) );
+    mClock.advance( 40 );
+    assertEquals( 0, mTileFailurePolicy.getRetryDelay( tile ) );
+    assertEquals( 2, mTileFailurePolicy.getDeferredCount() );
+    // other tiles aren't held back by it
+    assertEquals( 0, mTileFailurePolicy.getRetryDelay( createTile( 1 ) ) );
+  }
+
+  @Test
+  public void tilesAreMatchedByPositionAndDetailLevel() {
+    mTileFailurePolicy.onTileFailed( createTile( 0 ), new IOException() );
+    assertEquals( 100, mTileFailurePolicy.getRetryDelay( createTile( 0 ) ) );
+  }
+
+  @Test
+  public void decodedTileForgetsItsFailures() {
+    mTileFailurePolicy.setCircuitBreakerThreshold( 0 );
+    Tile tile = createTile( 0 );
+    mTileFailurePolicy.onTileFailed( tile, new IOException() );
+    mTileFailurePolicy.onTileFailed( tile, new IOException() );
+    mTileFailurePolicy.onTileDecoded( tile );
+    assertEquals( 0, mTileFailurePolicy.getRetryDelay( tile ) );
+    assertEquals( 100, mTileFailurePolicy.onTileFailed( tile, new IOException() ) );
+  }
+
+  @Test
+  public void missingTileIsRememberedAndCountsAsSuccess() {
+    mTileFailurePolicy.onTileFailed( createTile( 0 ), new IOException() );
+    mTileFailurePolicy.onTileFailed( createTile( 1 ), new IOException() );
+    assertEquals( 2, mTileFailurePolicy.getConsecutiveFailureCount() );
+    Tile tile = createTile( 2 );
+    assertEquals( 5000, mTileFailurePolicy.onTileFailed( tile, new MissingTileException( "missing" ) ) );
+    assertEquals( 5000, mTileFailurePolicy.onTileFailed( createTile( 3 ), new FileNotFoundException() ) );
+    assertEquals( 0, mTileFailurePolicy.getConsecutiveFailureCount() );
+    assertEquals( 2, mTileFailurePolicy.getMissingTileCount() );
+    assertEquals( 2, mTileFailurePolicy.getFailureCount() );
+    assertEquals( 2, mTileFailureListener.missingCount );
+    mClock.advance( 4999 );
+    assertEquals( 1, mTileFailurePolicy.getRetryDelay( tile ) );
+    mClock.advance( 1 );
+    assertEquals( 0, mTileFailurePolicy.getRetryDelay( tile ) );
+  }
+
+  @Test
+  public void circuitOpensAfterConsecutiveFailures() {
+    mTileFailurePolicy.onTileFailed( createTile( 0 ), new IOException() );
+    mTileFailurePolicy.onTileFailed( createTile( 1 ), new IOException() );
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+    mTileFailurePolicy.onTileFailed( createTile( 2 ), new IOException() );
+    assertTrue( mTileFailurePolicy.isCircuitOpen() );
+    assertEquals( 1, mTileFailurePolicy.getCircuitOpenCount() );
+    assertEquals( 1, mTileFailureListener.events.size() );
+    assertEquals( "opened 2000", mTileFailureListener.events.get( 0 ) );
+    // a tile that never failed waits for the circuit
+    Tile tile = createTile( 9 );
+    assertEquals( 2000, mTileFailurePolicy.getRetryDelay( tile ) );
+    mClock.advance( 1500 );
+    assertEquals( 500, mTileFailurePolicy.getRetryDelay( tile ) );
+    mClock.advance( 500 );
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+    assertEquals( 0, mTileFailurePolicy.getRetryDelay( tile ) );
+  }
+
+  @Test
+  public void successBreaksRunOfFailures() {
+    mTileFailurePolicy.onTileFailed( createTile( 0 ), new IOException() );
+    mTileFailurePolicy.onTileFailed( createTile( 1 ), new IOException() );
+    mTileFailurePolicy.onTileDecoded( createTile( 5 ) );
+    mTileFailurePolicy.onTileFailed( createTile( 2 ), new IOException() );
+    mTileFailurePolicy.onTileFailed( createTile( 3 ), new IOException() );
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+    assertEquals( 0, mTileFailurePolicy.getCircuitOpenCount() );
+  }
+
+  @Test
+  public void halfOpenCircuitReopensOnFailureAndClosesOnSuccess() {
+    openCircuit();
+    mClock.advance( 2000 );
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+    // the first failure after the circuit's duration is up opens it again
+    mTileFailurePolicy.onTileFailed( createTile( 10 ), new IOException() );
+    assertTrue( mTileFailurePolicy.isCircuitOpen() );
+    assertEquals( 2000, mTileFailurePolicy.getRetryDelay( createTile( 11 ) ) );
+    mClock.advance( 2000 );
+    mTileFailurePolicy.onTileDecoded( createTile( 11 ) );
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+    assertEquals( "closed", mTileFailureListener.events.get( mTileFailureListener.events.size() - 1 ) );
+    // once closed, it takes the full run of failures to open it again
+    mTileFailurePolicy.onTileFailed( createTile( 12 ), new IOException() );
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+  }
+
+  @Test
+  public void clearClosesCircuitAndForgetsFailures() {
+    openCircuit();
+    Tile tile = createTile( 0 );
+    mTileFailurePolicy.clear();
+    assertFalse( mTileFailurePolicy.isCircuitOpen() );
+    assertEquals( 0, mTileFailurePolicy.getConsecutiveFailureCount() );
+    assertEquals( 0, mTileFailurePolicy.getRetryDelay( tile ) );
+  }
+
+  private void openCircuit() {
+    for( int i = 0; i < 3; i++ ) {
+      mTileFailurePolicy.onTileFailed( createTile( i ), new IOException() );
+    }
+    assertTrue( mTileFailurePolicy.isCircuitOpen() );
+  }
+
+  private Tile createTile( int column ) {
+    return new Tile( column, 0, 256, 256, null, mDetailLevel );
+  }
+
+  private static class FakeClock implements TileFailurePolicy.Clock {
+    private long mTime = 1000;
+
+    public void advance( long milliseconds ) {
+      mTime += milliseconds;
+    }
+
+    @Override
+    public long uptimeMillis() {
+      return mTime;
+    }
+  }
+
+  private static class RecordingTileFailureListener implements TileFailurePolicy.TileFailureListener {
+    public final List<String> events = new ArrayList<>();
+    public int missingCount;
+
+    @Override
+    public void onTileFailed( Tile tile, Throwable throwable, long retryDelay ) {
+      // failures are checked through the policy's counts
+    }
+
+    @Override
+    public void onTileMissing( Tile tile, long retryDelay ) {
+      missingCount++;
+    }
+
+    @Override
+    public void onCircuitOpened( long duration ) {
+      events.add( "opened " + duration );
+    }
+
+    @Override
+    public void onCircuitClosed() {
+      events.add( "closed" );
+    }
+  }
+
+}